@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckLegalityCalculator;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * Creates the decks used by the benchmarks.
+ * <p>
+ * Decks are built from generated cards, the same for every run. Most cards are legal in every format, with a few that
+ * are banned, restricted or not listed for a format, so that the deck is not legal everywhere. Decks of
+ * {@value #CUBE_DECK_SIZE} or more cards are built as cubes, with one copy of each card. Smaller decks have up to four
+ * copies of each card.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+final class BenchmarkDecks
+{
+	static final int CUBE_DECK_SIZE = 250;
+
+	private static final int RANDOM_SEED = 20091008;
+	private static final int MAXIMUM_COPIES_OF_CARD = 4;
+
+	private BenchmarkDecks()
+	{
+	}
+
+	/**
+	 * @param cardIndex The index of the card
+	 * @return The name of the generated card
+	 */
+	static String getCardName(int cardIndex)
+	{
+		return "Benchmark Card " + cardIndex;
+	}
+
+	/**
+	 * @param deckSize The total number of cards in the deck
+	 * @return The number of copies of each card in a deck of the size
+	 */
+	static int getCopiesPerCard(int deckSize)
+	{
+		return deckSize >= CUBE_DECK_SIZE ? 1 : MAXIMUM_COPIES_OF_CARD;
+	}
+
+	/**
+	 * Creates a deck of generated cards, whose legalities have not been resolved.
+	 * 
+	 * @param deckSize The total number of cards in the deck
+	 * @return The new deck
+	 */
+	static MtgDeck createDeck(int deckSize)
+	{
+		MtgDeck deck = new MtgDeck("Benchmark Deck " + deckSize);
+		int copiesPerCard = getCopiesPerCard(deckSize);
+
+		for (int cardIndex = 0, cardCount = 0; cardCount < deckSize; cardIndex++)
+		{
+			int copies = Math.min(copiesPerCard, deckSize - cardCount);
+			deck.add(getCardName(cardIndex), cardIndex + 1, copies);
+			cardCount += copies;
+		}
+
+		return deck;
+	}
+
+	/**
+	 * Adds the legalities of all the generated cards in the deck to the legality cache of the calculator, so checking
+	 * the deck does not need to read the store or scrape the Gatherer.
+	 * 
+	 * @param deck The deck of generated cards
+	 * @param legalityCalculator The calculator to cache the legalities in
+	 */
+	static void cacheLegalities(MtgDeck deck, DeckLegalityCalculator legalityCalculator)
+	{
+		Random random = new Random(RANDOM_SEED);
+
+		for (MtgCardData cardData : deck.getCardData())
+		{
+			legalityCalculator.getLegalityCache().put(cardData.getCardName(), cardData.withFormatLegalities(createCardLegality(random)));
+		}
+	}
+
+	private static Map<MagicDeckFormat, MagicLegalityRestriction> createCardLegality(Random random)
+	{
+		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+
+		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+		{
+			int roll = random.nextInt(40);
+
+			if (roll == 0)
+			{
+				cardLegality.put(deckFormat, MagicLegalityRestriction.BANNED);
+			}
+			else if (roll == 1)
+			{
+				cardLegality.put(deckFormat, MagicLegalityRestriction.RESTRICTED);
+			}
+			else if (roll == 2)
+			{
+				cardLegality.put(deckFormat, MagicLegalityRestriction.NOT_PRESENT);
+			}
+			else
+			{
+				cardLegality.put(deckFormat, MagicLegalityRestriction.LEGAL);
+			}
+		}
+
+		return cardLegality;
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckLegalityCalculator;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckLegalityExplanationGenerator;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckVerdict;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * Benchmarks checking the legality of a deck, and explaining why it is not legal, when the legality of every card is
+ * already cached.
+ * <p>
+ * {@link #checkDeckOnEveryCore(ThreadDeck)} checks a deck of the same cards on a thread per processor, so that its
+ * score against {@link #checkDeck()} shows how well reads of the shared cache scale.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class DeckLegalityBenchmark
+{
+	@Param( { "15", "60", "250" })
+	private int deckSize;
+
+	private DeckLegalityCalculator legalityCalculator;
+	private DeckLegalityExplanationGenerator explanationGenerator;
+	private MtgDeck deck;
+
+	@Setup(Level.Trial)
+	public void createDeck()
+	{
+		legalityCalculator = DeckLegalityCalculator.getDeckLegalityCalculator();
+		explanationGenerator = new DeckLegalityExplanationGenerator();
+		deck = BenchmarkDecks.createDeck(deckSize);
+		BenchmarkDecks.cacheLegalities(deck, legalityCalculator);
+
+		// resolve the legalities once so the explanations have them
+		legalityCalculator.checkDeckLegality(deck);
+	}
+
+	@Benchmark
+	public Map<MagicDeckFormat, MagicLegalityRestriction> checkDeckLegality()
+	{
+		return legalityCalculator.checkDeckLegality(deck);
+	}
+
+	/**
+	 * Checks the deck and explains it in every format, in the one pass that replaces calling both
+	 * {@link #checkDeckLegality()} and {@link #getExplanationForDeckIllegality()}.
+	 */
+	@Benchmark
+	public DeckVerdict checkDeck()
+	{
+		return legalityCalculator.checkDeck(deck);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public DeckVerdict checkDeckOnEveryCore(ThreadDeck threadDeck)
+	{
+		return legalityCalculator.checkDeck(threadDeck.deck);
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public Map<MagicDeckFormat, Map<MtgCardData, Set<String>>> getExplanationForDeckIllegality()
+	{
+		return explanationGenerator.getExplanationForDeckIllegality(deck);
+	}
+
+	/**
+	 * Explains the deck in the one format that is displayed and writes out the explanations, which is what the view
+	 * does instead of explaining every format.
+	 */
+	@Benchmark
+	public String explainStandard() throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		explanationGenerator.explain(deck, MagicDeckFormat.STANDARD).writeTo(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * A deck for each benchmark thread, as a deck must not be checked by two threads at once
+	 */
+	@State(Scope.Thread)
+	public static class ThreadDeck
+	{
+		private MtgDeck deck;
+
+		@Setup(Level.Trial)
+		public void createDeck(DeckLegalityBenchmark benchmark)
+		{
+			deck = BenchmarkDecks.createDeck(benchmark.deckSize);
+		}
+	}
+}
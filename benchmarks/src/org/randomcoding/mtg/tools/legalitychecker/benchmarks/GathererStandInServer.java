@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.HttpClientTransport;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.RecordedResponse;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.RecordingTransport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that stands in for the Gatherer, serving the responses recorded by a {@link RecordingTransport}.
+ * <p>
+ * Each response is delayed by a configurable latency, plus a random jitter, so the scraper can be load tested against
+ * realistic response times, or against none at all, without using the Gatherer. Requests with no recorded response
+ * are answered with a 404. Point an {@link HttpClientTransport} at {@link #getBaseUrl()} to use it.
+ * </p>
+ * <p>
+ * The server uses the {@code com.sun.net.httpserver} package of the JDK, which the plugin cannot load, so it lives in
+ * the benchmarks project rather than in the plugin.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class GathererStandInServer
+{
+	private static final Log log = LogFactory.getLog(GathererStandInServer.class);
+
+	private static final int STOP_DELAY_SECONDS = 1;
+
+	private final File recordingDirectory;
+	private final Random jitterRandom = new Random();
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private volatile long latencyNanos;
+	private volatile long jitterNanos;
+	private HttpServer server;
+	private ExecutorService requestExecutor;
+
+	/**
+	 * @param recordingDirectory The directory holding the recorded responses
+	 */
+	public GathererStandInServer(File recordingDirectory)
+	{
+		this.recordingDirectory = recordingDirectory;
+	}
+
+	/**
+	 * Sets the delay before each response is sent. This can be changed while the server is running.
+	 * 
+	 * @param latency The minimum delay
+	 * @param jitter The maximum random delay added to the minimum
+	 * @param timeUnit The unit of the latency and jitter
+	 */
+	public void setLatency(long latency, long jitter, TimeUnit timeUnit)
+	{
+		latencyNanos = timeUnit.toNanos(latency);
+		jitterNanos = timeUnit.toNanos(jitter);
+	}
+
+	/**
+	 * Starts the server on the loopback address
+	 * 
+	 * @param port The port to listen on, or {@code 0} to use any free port
+	 * @throws IOException If the server cannot be started
+	 */
+	public synchronized void start(int port) throws IOException
+	{
+		if (server != null)
+		{
+			throw new IllegalStateException("The stand in server is already running");
+		}
+
+		requestExecutor = Executors.newCachedThreadPool(new StandInThreadFactory());
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/", new RecordedResponseHandler());
+		server.setExecutor(requestExecutor);
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting briefly for any responses being sent
+	 */
+	public synchronized void stop()
+	{
+		if (server != null)
+		{
+			server.stop(STOP_DELAY_SECONDS);
+			requestExecutor.shutdownNow();
+			server = null;
+			requestExecutor = null;
+		}
+	}
+
+	/**
+	 * @return The base url of the running server, ending with a {@code /}
+	 */
+	public synchronized String getBaseUrl()
+	{
+		if (server == null)
+		{
+			throw new IllegalStateException("The stand in server is not running");
+		}
+
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return The number of requests that have been received
+	 */
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	private void delayResponse() throws InterruptedException
+	{
+		long delayNanos = latencyNanos;
+		long maximumJitterNanos = jitterNanos;
+
+		if (maximumJitterNanos > 0)
+		{
+			delayNanos += (long) (jitterRandom.nextDouble() * maximumJitterNanos);
+		}
+
+		if (delayNanos > 0)
+		{
+			TimeUnit.NANOSECONDS.sleep(delayNanos);
+		}
+	}
+
+	/**
+	 * Serves the recorded response for the path and query of each request
+	 */
+	private class RecordedResponseHandler implements HttpHandler
+	{
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			requestCount.incrementAndGet();
+
+			try
+			{
+				String requestPath = exchange.getRequestURI().getRawPath().substring(1);
+				String query = exchange.getRequestURI().getRawQuery();
+				if (query != null)
+				{
+					requestPath += "?" + query;
+				}
+
+				File recordingFile = RecordedResponse.getRecordingFile(recordingDirectory, requestPath);
+				RecordedResponse response = recordingFile.isFile() ? RecordedResponse.read(recordingFile) : null;
+
+				delayResponse();
+
+				if (response == null)
+				{
+					exchange.sendResponseHeaders(404, -1);
+				}
+				else
+				{
+					for (Map.Entry<String, String> header : response.getHeaders().entrySet())
+					{
+						exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+					}
+
+					byte[] body = response.getBody();
+					exchange.sendResponseHeaders(response.getStatusCode(), body.length == 0 ? -1 : body.length);
+					if (body.length > 0)
+					{
+						OutputStream responseStream = exchange.getResponseBody();
+						responseStream.write(body);
+						responseStream.close();
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				log.debug("Interrupted while delaying a response", e);
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates daemon request threads, so that a stand in server that is not stopped does not keep the JVM alive
+	 */
+	private static class StandInThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Gatherer Stand In " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the legality checker benchmarks.
+ * <p>
+ * With no arguments every benchmark in this package is run with the GC profiler, so the allocation rate of each is
+ * reported with its timing. Otherwise the arguments are used as JMH command line options.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LegalityCheckerBenchmarks
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		Options options;
+
+		if (args.length == 0)
+		{
+			options = new OptionsBuilder().include(LegalityCheckerBenchmarks.class.getPackage().getName() + ".*").addProfiler(GCProfiler.class).build();
+		}
+		else
+		{
+			options = new CommandLineOptions(args);
+		}
+
+		new Runner(options).run();
+	}
+}
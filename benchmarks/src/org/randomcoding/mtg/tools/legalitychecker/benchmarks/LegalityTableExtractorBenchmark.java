@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.LegalityTableExtractor;
+
+/**
+ * Benchmarks extracting the legality table from saved Gatherer printings pages, as the {@code GathererDataScraper} does
+ * for each response. The pages are read from memory so only the parsing is measured.
+ * 
+ * @author Tym The Enchanter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LegalityTableExtractorBenchmark
+{
+	private static final String PAGE_CHARSET = "UTF-8";
+
+	@Param( { "printings-lightning-bolt.html", "printings-black-lotus.html" })
+	private String fixture;
+
+	private byte[] page;
+
+	@Setup(Level.Trial)
+	public void loadPage() throws IOException
+	{
+		InputStream fixtureStream = getClass().getResourceAsStream("fixtures/" + fixture);
+		if (fixtureStream == null)
+		{
+			throw new IOException("Missing benchmark fixture: " + fixture);
+		}
+
+		try
+		{
+			ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int readCount = fixtureStream.read(buffer);
+			while (readCount != -1)
+			{
+				pageBytes.write(buffer, 0, readCount);
+				readCount = fixtureStream.read(buffer);
+			}
+
+			page = pageBytes.toByteArray();
+		}
+		finally
+		{
+			fixtureStream.close();
+		}
+
+		if (extractLegality() == null)
+		{
+			throw new IOException("The benchmark fixture has no legality table: " + fixture);
+		}
+	}
+
+	@Benchmark
+	public Map<MagicDeckFormat, MagicLegalityRestriction> extractLegality() throws IOException
+	{
+		return new LegalityTableExtractor(new ByteArrayInputStream(page), PAGE_CHARSET).extract();
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * Benchmarks building a deck card by card and looking up the cards in it.
+ * 
+ * @author Tym The Enchanter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MtgDeckBenchmark
+{
+	@Param( { "15", "60", "250" })
+	private int deckSize;
+
+	private MtgDeck deck;
+	private String[] cardNames;
+
+	@Setup(Level.Trial)
+	public void createDeck()
+	{
+		deck = BenchmarkDecks.createDeck(deckSize);
+
+		cardNames = new String[deck.getCardData().size()];
+		for (int cardIndex = 0; cardIndex < cardNames.length; cardIndex++)
+		{
+			cardNames[cardIndex] = BenchmarkDecks.getCardName(cardIndex);
+		}
+	}
+
+	/**
+	 * Adds a copy at a time, as a deck list editor does
+	 */
+	@Benchmark
+	public MtgDeck addCards()
+	{
+		MtgDeck newDeck = new MtgDeck("Benchmark Deck");
+		int copiesPerCard = BenchmarkDecks.getCopiesPerCard(deckSize);
+
+		for (int copy = 0; copy < copiesPerCard; copy++)
+		{
+			for (int cardIndex = 0; cardIndex < cardNames.length; cardIndex++)
+			{
+				newDeck.add(cardNames[cardIndex], cardIndex + 1, 1);
+			}
+		}
+
+		return newDeck;
+	}
+
+	@Benchmark
+	public void lookupCards(Blackhole blackhole)
+	{
+		for (String cardName : cardNames)
+		{
+			blackhole.consume(deck.getCardCount(cardName));
+			blackhole.consume(deck.getCardData(cardName));
+		}
+	}
+}
@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe cache with a maximum size and a time to live for each entry.
+ * <p>
+ * The entries are held in a {@link ConcurrentHashMap}, so looking up a value never takes a lock, and adding one only
+ * contends with threads adding keys with similar hashes. Each lookup marks its entry as referenced. When the cache is
+ * full, entries are evicted in the order they were added, except that a referenced entry is given a second chance: its
+ * mark is cleared and it is moved to the back of the queue. This approximates least recently used eviction without
+ * reordering anything on a lookup. Entries are expired lazily, when they are next looked up after their time to live has
+ * passed.
+ * </p>
+ * <p>
+ * Each key added to the cache gets its own node in the eviction queue, which holds the referenced mark. Replacing the
+ * value of a key keeps its node, so the key keeps both its place in the queue and its mark. A key that is removed and
+ * added again gets a new node, and the node it had before is dropped when it reaches the front of the queue, or when the
+ * queue is compacted because it holds more dropped nodes than live ones.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ * @param <K> The type of the cache keys. This should be immutable.
+ * @param <V> The type of the cached values
+ */
+public class BoundedExpiringCache<K, V>
+{
+	private final int maximumSize;
+	private final long timeToLiveNanos;
+
+	/** The fewest dropped nodes the eviction queue is compacted for, so a nearly empty cache is not compacted on every put */
+	private static final int MINIMUM_COMPACTION_NODES = 64;
+
+	private final ConcurrentMap<K, CacheEntry<K, V>> entries = new ConcurrentHashMap<K, CacheEntry<K, V>>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/** The nodes of the keys in the order they were added, which may include nodes of keys that have since been removed */
+	private final Queue<EvictionNode<K>> evictionQueue = new ConcurrentLinkedQueue<EvictionNode<K>>();
+	private final AtomicInteger evictionQueueSize = new AtomicInteger();
+	private final Object evictionLock = new Object();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
+
+	/**
+	 * @param maximumSize The maximum number of entries to hold in the cache
+	 * @param timeToLive The time an entry is held for before it expires
+	 * @param timeUnit The unit of the time to live
+	 */
+	public BoundedExpiringCache(int maximumSize, long timeToLive, TimeUnit timeUnit)
+	{
+		if (maximumSize <= 0)
+		{
+			throw new IllegalArgumentException("The maximum cache size must be positive");
+		}
+
+		this.maximumSize = maximumSize;
+		timeToLiveNanos = timeUnit.toNanos(timeToLive);
+	}
+
+	/**
+	 * @param key The key to get the value for
+	 * @return The cached value, or {@code null} if there is no value or it has expired
+	 */
+	public V get(K key)
+	{
+		V value = null;
+		CacheEntry<K, V> entry = entries.get(key);
+
+		if (entry != null)
+		{
+			if (entry.isExpired(System.nanoTime()))
+			{
+				if (entries.remove(key, entry))
+				{
+					size.decrementAndGet();
+					expirationCount.incrementAndGet();
+				}
+			}
+			else
+			{
+				value = entry.value;
+				entry.evictionNode.markReferenced();
+			}
+		}
+
+		if (value == null)
+		{
+			missCount.incrementAndGet();
+		}
+		else
+		{
+			hitCount.incrementAndGet();
+		}
+
+		return value;
+	}
+
+	/**
+	 * Adds a value to the cache, replacing any current value for the key and resetting its time to live. A replaced key
+	 * keeps its place in the eviction queue and whether it has been referenced.
+	 * 
+	 * @param key The key to cache the value with
+	 * @param value The value to cache
+	 */
+	public void put(K key, V value)
+	{
+		long expiryTimeNanos = System.nanoTime() + timeToLiveNanos;
+		EvictionNode<K> addedNode = null;
+		boolean isPut = false;
+
+		while (!isPut)
+		{
+			CacheEntry<K, V> previousEntry = entries.get(key);
+
+			if (previousEntry == null)
+			{
+				addedNode = new EvictionNode<K>(key);
+				isPut = entries.putIfAbsent(key, new CacheEntry<K, V>(addedNode, value, expiryTimeNanos)) == null;
+			}
+			else
+			{
+				isPut = entries.replace(key, previousEntry, new CacheEntry<K, V>(previousEntry.evictionNode, value, expiryTimeNanos));
+				addedNode = null;
+			}
+		}
+
+		if (addedNode != null)
+		{
+			evictionQueue.offer(addedNode);
+			evictionQueueSize.incrementAndGet();
+
+			if (size.incrementAndGet() > maximumSize)
+			{
+				evict();
+			}
+
+			int currentSize = size.get();
+			if (evictionQueueSize.get() - currentSize > Math.max(currentSize, MINIMUM_COMPACTION_NODES))
+			{
+				synchronized (evictionLock)
+				{
+					compactEvictionQueue();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key The key to remove from the cache
+	 */
+	public void remove(K key)
+	{
+		if (entries.remove(key) != null)
+		{
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all entries from the cache. The statistics are not reset.
+	 */
+	public void clear()
+	{
+		for (K key : entries.keySet())
+		{
+			remove(key);
+		}
+	}
+
+	/**
+	 * @return The number of entries currently in the cache. This may include expired entries that have not yet been
+	 *         looked up.
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * @return The number of lookups that found a live value
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of lookups that did not find a live value
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * @return The number of entries removed to keep the cache within its maximum size
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return The number of entries removed because their time to live had passed
+	 */
+	public long getExpirationCount()
+	{
+		return expirationCount.get();
+	}
+
+	/**
+	 * Evicts entries until the cache is back within its maximum size. Each queued node is looked at at most twice, so an
+	 * eviction finishes even while other threads keep marking entries as referenced.
+	 */
+	private void evict()
+	{
+		synchronized (evictionLock)
+		{
+			int remainingNodes = evictionQueueSize.get() * 2;
+
+			evictEntries: while (size.get() > maximumSize && remainingNodes-- > 0)
+			{
+				EvictionNode<K> node = evictionQueue.poll();
+				if (node == null)
+				{
+					break evictEntries;
+				}
+				evictionQueueSize.decrementAndGet();
+
+				CacheEntry<K, V> entry = entries.get(node.key);
+				if (isLive(node, entry))
+				{
+					if (node.clearReferenced())
+					{
+						evictionQueue.offer(node);
+						evictionQueueSize.incrementAndGet();
+					}
+					else if (entries.remove(node.key, entry))
+					{
+						size.decrementAndGet();
+						evictionCount.incrementAndGet();
+					}
+					else
+					{
+						// the entry was replaced or removed as the node was looked at, a replaced key keeps its place at the back
+						evictionQueue.offer(node);
+						evictionQueueSize.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the nodes of keys that have been removed from the eviction queue. Must be called with the eviction lock held.
+	 */
+	private void compactEvictionQueue()
+	{
+		List<EvictionNode<K>> liveNodes = new ArrayList<EvictionNode<K>>();
+
+		for (EvictionNode<K> node = evictionQueue.poll(); node != null; node = evictionQueue.poll())
+		{
+			evictionQueueSize.decrementAndGet();
+			if (isLive(node))
+			{
+				liveNodes.add(node);
+			}
+		}
+
+		for (EvictionNode<K> node : liveNodes)
+		{
+			evictionQueue.offer(node);
+			evictionQueueSize.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return {@code true} if the node is the node of the entry currently held for its key
+	 */
+	private boolean isLive(EvictionNode<K> node)
+	{
+		return isLive(node, entries.get(node.key));
+	}
+
+	private boolean isLive(EvictionNode<K> node, CacheEntry<K, V> entry)
+	{
+		return entry != null && entry.evictionNode == node;
+	}
+
+	private static class CacheEntry<K, V>
+	{
+		private final EvictionNode<K> evictionNode;
+		private final V value;
+		private final long expiryTimeNanos;
+
+		CacheEntry(EvictionNode<K> evictionNode, V value, long expiryTimeNanos)
+		{
+			this.evictionNode = evictionNode;
+			this.value = value;
+			this.expiryTimeNanos = expiryTimeNanos;
+		}
+
+		boolean isExpired(long nowNanos)
+		{
+			return nowNanos - expiryTimeNanos >= 0;
+		}
+	}
+
+	/**
+	 * The place of a key in the eviction queue, which is shared by the entries that replace each other for the key
+	 */
+	private static class EvictionNode<K>
+	{
+		private final K key;
+		private volatile boolean isReferenced;
+
+		EvictionNode(K key)
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Marks the entry as referenced, only writing the mark if it is not already set, so lookups of a popular entry do
+		 * not all write to it
+		 */
+		void markReferenced()
+		{
+			if (!isReferenced)
+			{
+				isReferenced = true;
+			}
+		}
+
+		/**
+		 * @return {@code true} if the entry was referenced
+		 */
+		boolean clearReferenced()
+		{
+			boolean wasReferenced = isReferenced;
+			isReferenced = false;
+
+			return wasReferenced;
+		}
+	}
+}
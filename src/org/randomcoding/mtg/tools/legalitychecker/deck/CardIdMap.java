@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from card ids, as given by the {@link CardSymbolTable}, to values, that keeps its entries in the order they were
+ * added.
+ * <p>
+ * The ids and values are held in two arrays in order, indexed by an open addressed table of int slots, so there is no
+ * entry object or boxed key for each card. Looking up and adding an id takes constant time. Removing one only marks its
+ * entry and slot as removed, also in constant time. The removed entries are closed up, keeping the order of the others,
+ * once they outnumber the entries left or before the entries are next read by position, so every operation takes
+ * amortised constant time.
+ * </p>
+ * <p>
+ * The map is not thread safe.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+final class CardIdMap<V>
+{
+	private static final int INITIAL_CAPACITY = 8;
+	private static final int EMPTY_SLOT = 0;
+	private static final int REMOVED_SLOT = -1;
+	private static final int REMOVED_CARD_ID = CardSymbolTable.NO_CARD_ID;
+
+	private int[] cardIds;
+	private Object[] values;
+	private int size;
+
+	/** The number of positions in the arrays in use, including removed entries */
+	private int usedCount;
+	private int removedCount;
+
+	/**
+	 * Index of the entries, each slot holding the position of an entry plus one, {@value #EMPTY_SLOT} or
+	 * {@value #REMOVED_SLOT}
+	 */
+	private int[] slots;
+
+	CardIdMap()
+	{
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize The number of entries the map is expected to hold
+	 */
+	CardIdMap(int expectedSize)
+	{
+		int capacity = Math.max(expectedSize, INITIAL_CAPACITY);
+		cardIds = new int[capacity];
+		values = new Object[capacity];
+		slots = new int[slotCountFor(capacity)];
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	boolean containsKey(int cardId)
+	{
+		return slotOf(cardId) >= 0;
+	}
+
+	/**
+	 * @return The value of the card id, or {@code null} if it is not in the map
+	 */
+	V get(int cardId)
+	{
+		int slot = slotOf(cardId);
+
+		return slot < 0 ? null : entryValue(slots[slot] - 1);
+	}
+
+	/**
+	 * Adds or replaces the value of a card id. A card id that is already in the map keeps its position.
+	 * 
+	 * @return The previous value of the card id, or {@code null} if it was not in the map
+	 */
+	V put(int cardId, V value)
+	{
+		V previousValue = null;
+		int slot = slotOf(cardId);
+
+		if (slot >= 0)
+		{
+			int index = slots[slot] - 1;
+			previousValue = entryValue(index);
+			values[index] = value;
+		}
+		else
+		{
+			if (usedCount == cardIds.length)
+			{
+				if (removedCount > 0)
+				{
+					closeUpRemovedEntries();
+				}
+				else
+				{
+					grow();
+				}
+			}
+
+			cardIds[usedCount] = cardId;
+			values[usedCount] = value;
+			usedCount++;
+			size++;
+			insertSlot(cardId, usedCount);
+		}
+
+		return previousValue;
+	}
+
+	/**
+	 * @return The value the card id had, or {@code null} if it was not in the map
+	 */
+	V remove(int cardId)
+	{
+		V previousValue = null;
+		int slot = slotOf(cardId);
+
+		if (slot >= 0)
+		{
+			int index = slots[slot] - 1;
+			previousValue = entryValue(index);
+
+			slots[slot] = REMOVED_SLOT;
+			cardIds[index] = REMOVED_CARD_ID;
+			values[index] = null;
+			size--;
+			removedCount++;
+
+			if (removedCount > size)
+			{
+				closeUpRemovedEntries();
+			}
+		}
+
+		return previousValue;
+	}
+
+	/**
+	 * @param index The position of the entry, from {@code 0} to {@link #size()}, in the order the entries were added
+	 */
+	int cardIdAt(int index)
+	{
+		closeUpRemovedEntries();
+
+		return cardIds[index];
+	}
+
+	/**
+	 * @param index The position of the entry, from {@code 0} to {@link #size()}, in the order the entries were added
+	 */
+	V valueAt(int index)
+	{
+		closeUpRemovedEntries();
+
+		return entryValue(index);
+	}
+
+	/**
+	 * @return A read only view of the values, in the order they were added
+	 */
+	List<V> values()
+	{
+		return new AbstractList<V>()
+		{
+			@Override
+			public V get(int index)
+			{
+				if (index >= size)
+				{
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+				}
+
+				return valueAt(index);
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private V entryValue(int index)
+	{
+		return (V) values[index];
+	}
+
+	/**
+	 * @return The slot of the entry of the card id, or {@code -1} if it is not in the map
+	 */
+	private int slotOf(int cardId)
+	{
+		int foundSlot = -1;
+		int mask = slots.length - 1;
+
+		locateSlot: for (int slot = hash(cardId) & mask; slots[slot] != EMPTY_SLOT; slot = (slot + 1) & mask)
+		{
+			if (slots[slot] != REMOVED_SLOT && cardIds[slots[slot] - 1] == cardId)
+			{
+				foundSlot = slot;
+				break locateSlot;
+			}
+		}
+
+		return foundSlot;
+	}
+
+	/**
+	 * Indexes the entry in the first empty or removed slot for the card id. Must only be called for a card id that is not
+	 * already in the map.
+	 */
+	private void insertSlot(int cardId, int position)
+	{
+		int mask = slots.length - 1;
+		int slot = hash(cardId) & mask;
+
+		while (slots[slot] != EMPTY_SLOT && slots[slot] != REMOVED_SLOT)
+		{
+			slot = (slot + 1) & mask;
+		}
+
+		slots[slot] = position;
+	}
+
+	/**
+	 * Moves the entries left down over any removed entries, keeping their order, and reindexes them
+	 */
+	private void closeUpRemovedEntries()
+	{
+		if (removedCount > 0)
+		{
+			int liveCount = 0;
+			for (int index = 0; index < usedCount; index++)
+			{
+				if (cardIds[index] != REMOVED_CARD_ID)
+				{
+					cardIds[liveCount] = cardIds[index];
+					values[liveCount] = values[index];
+					liveCount++;
+				}
+			}
+			Arrays.fill(values, liveCount, usedCount, null);
+
+			usedCount = liveCount;
+			removedCount = 0;
+			rebuildSlots();
+		}
+	}
+
+	private void grow()
+	{
+		int capacity = cardIds.length * 2;
+		cardIds = Arrays.copyOf(cardIds, capacity);
+		values = Arrays.copyOf(values, capacity);
+		slots = new int[slotCountFor(capacity)];
+		rebuildSlots();
+	}
+
+	private void rebuildSlots()
+	{
+		Arrays.fill(slots, EMPTY_SLOT);
+		for (int index = 0; index < usedCount; index++)
+		{
+			insertSlot(cardIds[index], index + 1);
+		}
+	}
+
+	/**
+	 * @return The smallest power of two at least twice the capacity, so the index is never more than half full
+	 */
+	private static int slotCountFor(int capacity)
+	{
+		return Integer.highestOneBit(capacity * 2 - 1) << 1;
+	}
+
+	/**
+	 * Spreads the ids, which are dense, across the slots
+	 */
+	private static int hash(int cardId)
+	{
+		int hash = cardId * 0x9E3779B9;
+
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thrown when the legality of some cards could not be resolved, so the legality of a deck containing them cannot be
+ * known.
+ * <p>
+ * The legality of any other cards was still resolved and cached, so checking again only needs to resolve the cards
+ * that failed.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class CardLegalityUnavailableException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Throwable> cardFailures;
+
+	/**
+	 * @param cardFailures The cause of the failure for each card name whose legality could not be resolved
+	 */
+	public CardLegalityUnavailableException(Map<String, Throwable> cardFailures)
+	{
+		super("The legality of " + cardFailures.size() + " card(s) could not be resolved: " + cardFailures.keySet());
+		this.cardFailures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(cardFailures));
+
+		if (!cardFailures.isEmpty())
+		{
+			initCause(cardFailures.values().iterator().next());
+		}
+	}
+
+	/**
+	 * @return The names of the cards whose legality could not be resolved
+	 */
+	public Set<String> getCardNames()
+	{
+		return cardFailures.keySet();
+	}
+
+	/**
+	 * @return The cause of the failure for each card name whose legality could not be resolved
+	 */
+	public Map<String, Throwable> getCardFailures()
+	{
+		return cardFailures;
+	}
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns card names to dense int ids.
+ * <p>
+ * Each distinct card name is given an id the first time it is interned. The table holds one canonical instance of each
+ * name, so card data made from names read from many decks all share the same strings, and cards can be compared and
+ * indexed by their id instead of their name.
+ * </p>
+ * <p>
+ * The canonical names are only weakly referenced by the table. A name keeps its id for as long as its canonical instance
+ * is referenced, which every card data with the name does. Once no card data has the name, it is dropped from the table
+ * and its id is given to the next new name. This keeps the table to the names in use, however many misspelt names are
+ * read from untrusted decklists over the life of the checker.
+ * </p>
+ * <p>
+ * All the card data of the checker share the table from {@link #getSymbolTable()}. Looking up a name or an id does not
+ * lock, only interning a new name does.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class CardSymbolTable
+{
+	/** The id of a card name that is not in the table */
+	public static final int NO_CARD_ID = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final CardSymbolTable sharedSymbolTable = new CardSymbolTable();
+
+	/** The symbols keyed by a copy of their name, so that the map does not keep the canonical name alive */
+	private final ConcurrentMap<String, CardSymbol> cardSymbols = new ConcurrentHashMap<String, CardSymbol>(INITIAL_CAPACITY);
+	private final ReferenceQueue<String> droppedNames = new ReferenceQueue<String>();
+
+	/** The symbols indexed by card id, which is replaced when it is grown */
+	private volatile CardSymbol[] symbolsById = new CardSymbol[INITIAL_CAPACITY];
+	private int nextCardId;
+	private int[] freeCardIds = new int[16];
+	private int freeCardIdCount;
+
+	/**
+	 * @return The symbol table shared by all card data
+	 */
+	public static CardSymbolTable getSymbolTable()
+	{
+		return sharedSymbolTable;
+	}
+
+	/**
+	 * Creates an empty table. Card data is always interned in the shared table, so this is only of use to index names
+	 * independently of it.
+	 */
+	public CardSymbolTable()
+	{
+	}
+
+	/**
+	 * @param cardName The name of the card
+	 * @return The canonical instance of the card name, which is added to the table with the next free id if it is not
+	 *         already in it. The name keeps its id for as long as this instance is referenced.
+	 */
+	public String intern(String cardName)
+	{
+		CardSymbol cardSymbol = cardName == null ? null : cardSymbols.get(cardName);
+		String canonicalName = cardSymbol == null ? null : cardSymbol.get();
+
+		return canonicalName == null ? addCardName(cardName) : canonicalName;
+	}
+
+	/**
+	 * Looks up the id of a card name, without adding the name to the table. Unless the name given is the canonical
+	 * instance, the id can be given to another name as soon as no card data has this one, so a card found by the id
+	 * should be checked to have the name.
+	 * 
+	 * @param cardName The name of the card
+	 * @return The id of the card name, or {@link #NO_CARD_ID} if it is not in the table
+	 */
+	public int getCardId(String cardName)
+	{
+		CardSymbol cardSymbol = cardName == null ? null : cardSymbols.get(cardName);
+
+		return cardSymbol == null || cardSymbol.get() == null ? NO_CARD_ID : cardSymbol.cardId;
+	}
+
+	/**
+	 * @param cardId The id of a card name
+	 * @return The canonical instance of the card name with the id
+	 * @throws IndexOutOfBoundsException If no card name has the id
+	 */
+	public String getCardName(int cardId)
+	{
+		CardSymbol[] symbols = symbolsById;
+		CardSymbol cardSymbol = cardId >= 0 && cardId < symbols.length ? symbols[cardId] : null;
+		String cardName = cardSymbol == null ? null : cardSymbol.get();
+
+		if (cardName == null)
+		{
+			throw new IndexOutOfBoundsException("No card name has the id " + cardId);
+		}
+
+		return cardName;
+	}
+
+	/**
+	 * @return The number of card names in the table, which includes any names that are no longer used but have not yet
+	 *         been dropped
+	 */
+	public int size()
+	{
+		return cardSymbols.size();
+	}
+
+	/**
+	 * Adds the card name with the next free id, unless another thread has just added it. The symbol is stored by id
+	 * before it is published by name, so any thread that can see the id can also see the name.
+	 */
+	private synchronized String addCardName(String cardName)
+	{
+		if (cardName == null)
+		{
+			throw new IllegalArgumentException("A card name cannot be null");
+		}
+
+		dropUnusedNames();
+
+		CardSymbol cardSymbol = cardSymbols.get(cardName);
+		String canonicalName = cardSymbol == null ? null : cardSymbol.get();
+
+		if (canonicalName == null)
+		{
+			canonicalName = cardName;
+			int cardId = freeCardIdCount > 0 ? freeCardIds[--freeCardIdCount] : nextCardId++;
+
+			CardSymbol[] symbols = symbolsById;
+			if (cardId == symbols.length)
+			{
+				symbols = Arrays.copyOf(symbols, symbols.length * 2);
+			}
+			cardSymbol = new CardSymbol(canonicalName, cardId, droppedNames);
+			symbols[cardId] = cardSymbol;
+			symbolsById = symbols;
+
+			cardSymbols.put(cardSymbol.key, cardSymbol);
+		}
+
+		return canonicalName;
+	}
+
+	/**
+	 * Removes the symbols of the names that are no longer referenced and frees their ids. Must be called holding the
+	 * lock of the table.
+	 */
+	private void dropUnusedNames()
+	{
+		for (Reference<? extends String> droppedName = droppedNames.poll(); droppedName != null; droppedName = droppedNames.poll())
+		{
+			CardSymbol cardSymbol = (CardSymbol) droppedName;
+			cardSymbols.remove(cardSymbol.key, cardSymbol);
+
+			if (symbolsById[cardSymbol.cardId] == cardSymbol)
+			{
+				symbolsById[cardSymbol.cardId] = null;
+
+				if (freeCardIdCount == freeCardIds.length)
+				{
+					freeCardIds = Arrays.copyOf(freeCardIds, freeCardIds.length * 2);
+				}
+				freeCardIds[freeCardIdCount++] = cardSymbol.cardId;
+			}
+		}
+	}
+
+	/**
+	 * A weak reference to the canonical instance of a card name, with its id
+	 */
+	private static final class CardSymbol extends WeakReference<String>
+	{
+		/** A copy of the name, which keys the symbol by name without keeping the canonical instance alive */
+		private final String key;
+		private final int cardId;
+
+		CardSymbol(String canonicalName, int cardId, ReferenceQueue<String> droppedNames)
+		{
+			super(canonicalName, droppedNames);
+			key = new String(canonicalName);
+			this.cardId = cardId;
+		}
+	}
+}
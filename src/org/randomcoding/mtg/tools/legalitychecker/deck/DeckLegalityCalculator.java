@@ -10,16 +10,39 @@
  *******************************************************************************/
 package org.randomcoding.mtg.tools.legalitychecker.deck;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
 import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.cache.BoundedExpiringCache;
+import org.randomcoding.mtg.tools.legalitychecker.metrics.LegalityCheckerMetrics;
+import org.randomcoding.mtg.tools.legalitychecker.rules.LegalityRules;
 import org.randomcoding.mtg.tools.legalitychecker.scraper.GathererDataScraper;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.PageValidators;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.ScrapedLegality;
+import org.randomcoding.mtg.tools.legalitychecker.store.CardLegalityStore;
 
 /**
  * Class to calculate the legality of a whole deck. If a deck has all legal cards for a given format, then it is legal.
@@ -29,7 +52,38 @@ import org.randomcoding.mtg.tools.legalitychecker.scraper.GathererDataScraper;
  * For any formats were the deck is illegal or banned, then an explanation is given.
  * </p>
  * <p>
- * This class is a singleton. This allows the caching of legality information for all cards checked
+ * The legality information for all cards checked is cached. The cache is keyed by card name and by default holds at
+ * most {@value #LEGALITY_CACHE_MAXIMUM_SIZE} cards, each for {@value #LEGALITY_CACHE_TIME_TO_LIVE_HOURS} hours so that
+ * changes to the ban lists are picked up. The plugin uses the shared calculator returned by
+ * {@link #getDeckLegalityCalculator()}, but a server can create as many independently configured calculators as it
+ * needs, and should {@link #shutdown()} each when it is done with it.
+ * </p>
+ * <p>
+ * A calculator is safe to use from many threads at once. Cached legalities are read without taking a lock. When
+ * several threads check decks that share a card that is not cached, only the first loads or scrapes it and the others
+ * wait for its result. A deck must not be modified, or checked by another thread, while it is being checked.
+ * </p>
+ * <p>
+ * If a {@link CardLegalityStore} has been set then it is checked for the legality of any card that is not cached before
+ * the Gatherer is scraped, and any newly scraped legality is written to it. This allows the cache to survive a restart.
+ * The validators of the page each legality was scraped from are stored with it, so that stored legalities can be
+ * refreshed with conditional requests that only download the pages that have changed.
+ * </p>
+ * <p>
+ * If {@link LegalityRules} have been set then the legality of a card in each format they cover is derived locally from
+ * the sets the card was printed in, so a change to a ban list is applied without scraping any card again. The Gatherer
+ * is then only scraped for cards whose printings are not in the store.
+ * </p>
+ * <p>
+ * The {@link LegalityRefreshScheduler} tracks when the legality of each card was last confirmed by the Gatherer. Once
+ * started it refreshes cards in the background as they near the refresh age. Stale legality is still served, flagged in
+ * the {@link DeckVerdict}, until it passes the maximum stale age, when it is scraped again before it is used.
+ * </p>
+ * <p>
+ * Card names are resolved through the {@link GathererDataScraper#getCardNameIndex() card name index} before their
+ * legality is looked up, so a name that differs from a known card name only in case, accents or punctuation shares the
+ * cache entry, store record and refreshes of the known name, and costs no request of its own.
+ * </p>
  * 
  * @author Tym The Enchanter
  */
@@ -37,33 +91,159 @@ public class DeckLegalityCalculator
 {
 	private static final Log log = LogFactory.getLog(DeckLegalityCalculator.class);
 
-	private GathererDataScraper scraper;
-	private static DeckLegalityCalculator legalityCalculatorInstance;
-	private final Set<MtgCardData> legalityScrapedCardsCache;
+	private static final int LEGALITY_CACHE_MAXIMUM_SIZE = 32768;
+	private static final int LEGALITY_CACHE_TIME_TO_LIVE_HOURS = 24;
+
+	private final BoundedExpiringCache<String, MtgCardData> legalityCache;
+	private final ExecutorService evaluationExecutor;
+	private final DeckLegalityEvaluator legalityEvaluator = new DeckLegalityEvaluator();
+	private final LegalityRefreshScheduler refreshScheduler = new LegalityRefreshScheduler(this);
+	/** The cache fills in progress, keyed by card name, so that each missing card is only loaded or scraped once */
+	private final ConcurrentMap<String, PendingFill> pendingFills = new ConcurrentHashMap<String, PendingFill>();
+	private volatile CardLegalityStore legalityStore;
+	private volatile LegalityRules legalityRules;
+	private LegalityWarmUp warmUp;
 
-	private DeckLegalityCalculator()
+	/**
+	 * Creates a calculator with the default cache size and time to live, that evaluates decks on a thread per processor.
+	 */
+	public DeckLegalityCalculator()
+	{
+		this(LEGALITY_CACHE_MAXIMUM_SIZE, LEGALITY_CACHE_TIME_TO_LIVE_HOURS, TimeUnit.HOURS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param cacheMaximumSize The maximum number of cards to cache the legality of
+	 * @param cacheTimeToLive The time the legality of a card is cached for
+	 * @param timeUnit The unit of the time to live
+	 * @param evaluationThreadCount The number of threads to evaluate decks on in {@link #checkDecks(Collection)}
+	 */
+	public DeckLegalityCalculator(int cacheMaximumSize, long cacheTimeToLive, TimeUnit timeUnit, int evaluationThreadCount)
+	{
+		legalityCache = new BoundedExpiringCache<String, MtgCardData>(cacheMaximumSize, cacheTimeToLive, timeUnit);
+		evaluationExecutor = Executors.newFixedThreadPool(evaluationThreadCount, new EvaluationThreadFactory());
+	}
+
+	/**
+	 * @return The calculator shared by the plugin, whose cache statistics are reported in the
+	 *         {@link LegalityCheckerMetrics}
+	 */
+	public static DeckLegalityCalculator getDeckLegalityCalculator()
 	{
-		legalityScrapedCardsCache = new HashSet<MtgCardData>();
+		return SharedCalculatorHolder.SHARED_CALCULATOR;
 	}
 
-	public synchronized static DeckLegalityCalculator getDeckLegalityCalculator()
+	/**
+	 * Stops the background work of the calculator: the evaluation threads, the refresh scheduler and any warm-up in
+	 * progress. The calculator must not be used to check decks afterwards.
+	 */
+	public void shutdown()
 	{
-		if (legalityCalculatorInstance == null)
+		LegalityWarmUp currentWarmUp = getWarmUp();
+		if (currentWarmUp != null)
 		{
-			legalityCalculatorInstance = new DeckLegalityCalculator();
+			currentWarmUp.cancel();
 		}
 
-		return legalityCalculatorInstance;
+		refreshScheduler.stop();
+		evaluationExecutor.shutdown();
 	}
 
 	private GathererDataScraper getScraper()
 	{
-		if (scraper == null)
+		return GathererDataScraper.getSharedScraper();
+	}
+
+	/**
+	 * @return The in memory cache of card legality data, keyed by card name. This can be used to monitor the cache
+	 *         statistics.
+	 */
+	public BoundedExpiringCache<String, MtgCardData> getLegalityCache()
+	{
+		return legalityCache;
+	}
+
+	/**
+	 * @return The scheduler that refreshes the legality of cards before it goes stale. It is not started until
+	 *         {@link LegalityRefreshScheduler#start()} is called.
+	 */
+	public LegalityRefreshScheduler getRefreshScheduler()
+	{
+		return refreshScheduler;
+	}
+
+	/**
+	 * Starts warming the legality cache in the background, with the staple cards and then every card in the legality
+	 * store. Any warm-up that is still in progress is cancelled.
+	 * 
+	 * @param stapleCardNames The names of the most frequently used cards, to warm first
+	 * @return The warm-up, to follow its progress
+	 */
+	public synchronized LegalityWarmUp startWarmUp(Collection<String> stapleCardNames)
+	{
+		if (warmUp != null)
 		{
-			scraper = new GathererDataScraper();
+			warmUp.cancel();
 		}
 
-		return scraper;
+		warmUp = new LegalityWarmUp(this, stapleCardNames);
+		warmUp.start();
+
+		return warmUp;
+	}
+
+	/**
+	 * @return The last warm-up started, or {@code null} if the cache has not been warmed
+	 */
+	public synchronized LegalityWarmUp getWarmUp()
+	{
+		return warmUp;
+	}
+
+	/**
+	 * @return {@code true} if a warm-up of the cache has been started and has finished, without being cancelled or
+	 *         failing
+	 */
+	public synchronized boolean isWarm()
+	{
+		return warmUp != null && warmUp.isDone() && !warmUp.isCancelled() && !warmUp.isFailed();
+	}
+
+	/**
+	 * @return The persistent store of card legality data, or {@code null} if there is none
+	 */
+	public CardLegalityStore getLegalityStore()
+	{
+		return legalityStore;
+	}
+
+	/**
+	 * @param legalityStore The persistent store to read card legality data from before scraping the Gatherer, or
+	 *            {@code null} to only use the in memory cache
+	 */
+	public void setLegalityStore(CardLegalityStore legalityStore)
+	{
+		this.legalityStore = legalityStore;
+	}
+
+	/**
+	 * @return The rules the legality of cards is derived from, or {@code null} if there are none
+	 */
+	public LegalityRules getLegalityRules()
+	{
+		return legalityRules;
+	}
+
+	/**
+	 * Sets the rules to derive the legality of cards from, such as after a ban list is updated. The in memory cache is
+	 * cleared, so that the legality of every card is derived again from the new rules.
+	 * 
+	 * @param legalityRules The rules to derive the legality of cards from, or {@code null} to only use scraped legalities
+	 */
+	public void setLegalityRules(LegalityRules legalityRules)
+	{
+		this.legalityRules = legalityRules;
+		legalityCache.clear();
 	}
 
 	/**
@@ -72,128 +252,769 @@ public class DeckLegalityCalculator
 	@Override
 	protected Object clone() throws CloneNotSupportedException
 	{
-		throw new CloneNotSupportedException("The Singleton " + getClass().getName() + " cannot be cloned");
+		throw new CloneNotSupportedException(getClass().getName() + " cannot be cloned");
 	}
 
 	/**
+	 * The legality of some cards may be stale, within the maximum stale age of the refresh scheduler. Use
+	 * {@link #checkDeck(MtgDeck)}, whose verdict is flagged when it is stale, or {@link #getStaleCardNames(MtgDeck)} to
+	 * tell.
+	 * 
 	 * @param deck The {@link MtgDeck} to determine the legality of
 	 * @return a {@link Map} of the formats and legality restrictions for this deck. If a format is not present then it
 	 *         is not legal, restricted or banned in that format
+	 * @throws CardLegalityUnavailableException If the legality of any card in the deck could not be resolved
 	 */
 	public Map<MagicDeckFormat, MagicLegalityRestriction> checkDeckLegality(MtgDeck deck)
 	{
-		updateCardDataCache(deck);
-		Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities = new HashMap<MagicDeckFormat, MagicLegalityRestriction>();
+		deck.applyFormatLegalities(resolveCardData(deck.getCardData()));
+
+		return evaluate(deck);
+	}
+
+	/**
+	 * Checks the legality of a deck and explains it, in a single pass over the deck.
+	 * 
+	 * @param deck The {@link MtgDeck} to determine the legality of
+	 * @return The legality of the deck in each format, as returned by {@link #checkDeckLegality(MtgDeck)}, together with
+	 *         the reasons each card makes it illegal in each format
+	 * @throws CardLegalityUnavailableException If the legality of any card in the deck could not be resolved
+	 */
+	public DeckVerdict checkDeck(MtgDeck deck)
+	{
+		deck.applyFormatLegalities(resolveCardData(deck.getCardData()));
+
+		return judge(deck);
+	}
 
-		if (getMaxCardCountInDeck(deck) <= 4)
+	/**
+	 * Checks the legality of many decks at once.
+	 * <p>
+	 * The legality of each distinct card across all the decks is resolved only once, with any cards that need to be
+	 * scraped all scraped in parallel. The decks are then evaluated in parallel, on a worker thread per processor.
+	 * </p>
+	 * <p>
+	 * As with {@link #checkDeckLegality(MtgDeck)}, the legality of some cards may be stale. Use
+	 * {@link #getStaleCardNames(MtgDeck)} to tell for each deck.
+	 * </p>
+	 * 
+	 * @param decks The decks to determine the legality of
+	 * @return The legalities of each deck, as returned by {@link #checkDeckLegality(MtgDeck)}, in the iteration order of
+	 *         the given decks
+	 * @throws CardLegalityUnavailableException If the legality of any card in any of the decks could not be resolved
+	 * @throws CancellationException If the thread is interrupted while the decks are evaluated, in which case no result
+	 *             is returned and the interrupt flag of the thread is set again
+	 */
+	public Map<MtgDeck, Map<MagicDeckFormat, MagicLegalityRestriction>> checkDecks(Collection<MtgDeck> decks)
+	{
+		resolveDecks(decks);
+
+		List<Callable<Map<MagicDeckFormat, MagicLegalityRestriction>>> evaluations = new ArrayList<Callable<Map<MagicDeckFormat, MagicLegalityRestriction>>>();
+		for (final MtgDeck deck : decks)
 		{
-			for (MtgCardData cardData : deck.getCardData())
+			evaluations.add(new Callable<Map<MagicDeckFormat, MagicLegalityRestriction>>()
 			{
-				updateDeckLegalitiesFromCardData(cardData, deckLegalities);
+				public Map<MagicDeckFormat, MagicLegalityRestriction> call()
+				{
+					return evaluate(deck);
+				}
+			});
+		}
+
+		Map<MtgDeck, Map<MagicDeckFormat, MagicLegalityRestriction>> deckLegalities = new LinkedHashMap<MtgDeck, Map<MagicDeckFormat, MagicLegalityRestriction>>();
+		try
+		{
+			Iterator<Future<Map<MagicDeckFormat, MagicLegalityRestriction>>> evaluatedDecks = evaluationExecutor.invokeAll(evaluations).iterator();
+			for (MtgDeck deck : decks)
+			{
+				deckLegalities.put(deck, evaluatedDecks.next().get());
 			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 
-			fixRestrictedFormats(deck, deckLegalities);
+			CancellationException cancellation = new CancellationException("Interrupted while evaluating deck legalities");
+			cancellation.initCause(e);
+			throw cancellation;
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException("Failed to evaluate deck legality", e.getCause());
 		}
-		else
+
+		return deckLegalities;
+	}
+
+	/**
+	 * Resolves the legality of the cards of many decks at once, without evaluating the decks. The legality of each
+	 * distinct card across all the decks is resolved only once, with any cards that need to be scraped all scraped in
+	 * parallel.
+	 * 
+	 * @param decks The decks to resolve the card legalities of
+	 * @throws CardLegalityUnavailableException If the legality of any card in any of the decks could not be resolved. The
+	 *             legality of all the other cards is still cached, but no deck is updated.
+	 * @see #checkResolvedDeckLegality(MtgDeck)
+	 */
+	public void resolveDecks(Collection<MtgDeck> decks)
+	{
+		List<MtgCardData> allCardData = new ArrayList<MtgCardData>();
+		for (MtgDeck deck : decks)
 		{
-			deckLegalities.put(MagicDeckFormat.STANDARD, MagicLegalityRestriction.ILLEGAL);
-			deckLegalities.put(MagicDeckFormat.EXTENDED, MagicLegalityRestriction.ILLEGAL);
-			deckLegalities.put(MagicDeckFormat.LEGACY, MagicLegalityRestriction.ILLEGAL);
-			deckLegalities.put(MagicDeckFormat.VINTAGE, MagicLegalityRestriction.ILLEGAL);
+			allCardData.addAll(deck.getCardData());
 		}
+
+		CardIdMap<MtgCardData> resolvedCardData = resolveCardData(allCardData);
+		for (MtgDeck deck : decks)
+		{
+			deck.applyFormatLegalities(resolvedCardData);
+		}
+	}
+
+	/**
+	 * Evaluates the legality of a deck whose card legalities have already been resolved, without looking up the legality
+	 * of any card.
+	 * 
+	 * @param deck A deck resolved by {@link #resolveDecks(Collection)}
+	 * @return The legality of the deck, as returned by {@link #checkDeckLegality(MtgDeck)}, which may be stale
+	 * @see #getStaleCardNames(MtgDeck)
+	 */
+	public Map<MagicDeckFormat, MagicLegalityRestriction> checkResolvedDeckLegality(MtgDeck deck)
+	{
+		return evaluate(deck);
+	}
+
+	/**
+	 * Checks and explains the legality of a deck whose card legalities have already been resolved, without looking up the
+	 * legality of any card.
+	 * 
+	 * @param deck A deck resolved by {@link #resolveDecks(Collection)}
+	 * @return The legality of the deck and the reasons behind it, as returned by {@link #checkDeck(MtgDeck)}
+	 */
+	public DeckVerdict checkResolvedDeck(MtgDeck deck)
+	{
+		return judge(deck);
+	}
+
+	/**
+	 * Evaluates a deck whose card legalities have been resolved, recording the time taken in the metrics
+	 */
+	private Map<MagicDeckFormat, MagicLegalityRestriction> evaluate(MtgDeck deck)
+	{
+		long startNanos = System.nanoTime();
+		Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities = legalityEvaluator.evaluate(deck);
+		LegalityCheckerMetrics.getMetrics().recordDeckEvaluation(System.nanoTime() - startNanos);
+
 		return deckLegalities;
 	}
 
-	private int getMaxCardCountInDeck(MtgDeck deck)
+	/**
+	 * Evaluates and explains a deck whose card legalities have been resolved, recording the time taken in the metrics
+	 */
+	private DeckVerdict judge(MtgDeck deck)
 	{
-		int maxCardCount = 0;
+		long startNanos = System.nanoTime();
+		DeckVerdict deckVerdict = legalityEvaluator.judge(deck);
+		LegalityCheckerMetrics.getMetrics().recordDeckEvaluation(System.nanoTime() - startNanos);
+
+		Set<String> staleCardNames = getStaleCardNames(deck);
+
+		return staleCardNames.isEmpty() ? deckVerdict : deckVerdict.withStaleCardNames(staleCardNames);
+	}
+
+	/**
+	 * Finds the cards of a checked deck whose legality was stale, older than the refresh age of the
+	 * {@link LegalityRefreshScheduler}, so that the legality returned for the deck may have changed since.
+	 * 
+	 * @param deck A deck that has been checked, or resolved by {@link #resolveDecks(Collection)}
+	 * @return The names of the cards of the deck whose legality is stale, which is empty if the legality of the deck is
+	 *         up to date
+	 */
+	public Set<String> getStaleCardNames(MtgDeck deck)
+	{
+		Set<String> staleCardNames = new LinkedHashSet<String>();
 
 		for (MtgCardData cardData : deck.getCardData())
 		{
-			maxCardCount = Math.max(maxCardCount, deck.getCardCount(cardData.getCardName()));
+			if (refreshScheduler.isStale(resolveCardName(cardData.getCardName())))
+			{
+				staleCardNames.add(cardData.getCardName());
+			}
 		}
 
-		return maxCardCount;
+		return staleCardNames;
 	}
 
-	private void fixRestrictedFormats(MtgDeck deck, Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities)
+	/**
+	 * Resolves the legality of every card from the cache, the store or, for cards in neither, by scraping the Gatherer.
+	 * Cards that need to be scraped are all scraped in parallel, each distinct card name only once.
+	 * <p>
+	 * Each card that is not cached is filled by only one thread at a time. If another thread is already filling a card,
+	 * this thread waits for its result instead, but only once it has finished filling its own cards, so two threads
+	 * waiting on each other can never block.
+	 * </p>
+	 * 
+	 * @return The card data with resolved legalities, indexed by card id
+	 * @throws CardLegalityUnavailableException If the legality of any card could not be resolved. The legality of all the
+	 *             other cards is still cached.
+	 */
+	CardIdMap<MtgCardData> resolveCardData(Collection<MtgCardData> cards)
 	{
-		for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> deckLegalityEntry : deckLegalities.entrySet())
+		CardIdMap<MtgCardData> resolvedCardData = new CardIdMap<MtgCardData>(cards.size());
+		CardIdMap<MtgCardData> pendingCardData = new CardIdMap<MtgCardData>();
+		List<Future<ScrapedLegality>> pendingScrapes = new ArrayList<Future<ScrapedLegality>>();
+		CardIdMap<PendingFill> awaitedFills = new CardIdMap<PendingFill>();
+		List<PendingFill> ownFills = new ArrayList<PendingFill>();
+		Map<String, Throwable> cardFailures = new LinkedHashMap<String, Throwable>();
+
+		try
 		{
-			if (deckLegalityEntry.getValue().equals(MagicLegalityRestriction.RESTRICTED))
+			for (MtgCardData cardData : cards)
+			{
+				int cardId = cardData.getCardId();
+
+				if (!resolvedCardData.containsKey(cardId) && !pendingCardData.containsKey(cardId) && !awaitedFills.containsKey(cardId))
+				{
+					String cardName = resolveCardName(cardData.getCardName());
+					MtgCardData cachedCardData = legalityCache.get(cardName);
+					boolean isTooStale = cachedCardData != null && isTooStale(cardName);
+
+					if (cachedCardData != null && !isTooStale)
+					{
+						resolvedCardData.put(cardId, cachedCardData);
+					}
+					else
+					{
+						PendingFill fill = new PendingFill(cardName);
+						PendingFill currentFill = pendingFills.putIfAbsent(cardName, fill);
+
+						if (currentFill != null)
+						{
+							awaitedFills.put(cardId, currentFill);
+						}
+						else
+						{
+							ownFills.add(fill);
+
+							MtgCardData storedCardData = isTooStale ? null : loadFromLegalityStore(cardName);
+							if (storedCardData != null)
+							{
+								trackStoredValidatedTime(cardName);
+								if (isTooStale(cardName))
+								{
+									storedCardData = null;
+								}
+							}
+
+							if (storedCardData == null)
+							{
+								pendingCardData.put(cardId, cardName.equals(cardData.getCardName()) ? cardData : new MtgCardData(cardName, cardData.getMultiverseIds(),
+										cardData.getCardLegality()));
+								pendingScrapes.add(getScraper().getLegalityIfModifiedAsync(cardName, null, null));
+							}
+							else
+							{
+								legalityCache.put(cardName, storedCardData);
+								fill.complete(storedCardData);
+								resolvedCardData.put(cardId, storedCardData);
+							}
+						}
+					}
+				}
+			}
+
+			for (int index = 0; index < pendingCardData.size(); index++)
 			{
-				if (getMaxCountOfRestrictedCardsInDeck(deck) == 1)
+				MtgCardData pendingCard = pendingCardData.valueAt(index);
+				ScrapedLegality scrapedLegality = getScrapedLegality(pendingCard.getCardName(), pendingScrapes.get(index), cardFailures);
+
+				if (scrapedLegality != null)
 				{
-					deckLegalities.put(deckLegalityEntry.getKey(), MagicLegalityRestriction.LEGAL);
+					MtgCardData scrapedCardData = pendingCard.withFormatLegalities(scrapedLegality.getLegality());
+					saveToLegalityStore(scrapedCardData, scrapedLegality.getPrintedSets(), scrapedLegality.getValidators());
+					scrapedCardData = applyLegalityRules(scrapedCardData, scrapedLegality.getPrintedSets());
+					legalityCache.put(scrapedCardData.getCardName(), scrapedCardData);
+					refreshScheduler.recordValidated(scrapedCardData.getCardName(), getValidatedTime(scrapedLegality));
+					resolvedCardData.put(pendingCardData.cardIdAt(index), scrapedCardData);
 				}
 			}
 		}
+		finally
+		{
+			finishFills(ownFills, cardFailures);
+		}
+
+		for (int index = 0; index < awaitedFills.size(); index++)
+		{
+			MtgCardData filledCardData = awaitFill(awaitedFills.valueAt(index), cardFailures);
+			if (filledCardData != null)
+			{
+				resolvedCardData.put(awaitedFills.cardIdAt(index), filledCardData);
+			}
+		}
+
+		if (!cardFailures.isEmpty())
+		{
+			throw new CardLegalityUnavailableException(getDeckCardFailures(cards, cardFailures));
+		}
+
+		return resolvedCardData;
+	}
+
+	/**
+	 * @param cardName The name of a card, as it is in a deck
+	 * @return The name of the known card that the name differs from only in case, accents or punctuation, or the name
+	 *         itself if there is no such card
+	 */
+	private static String resolveCardName(String cardName)
+	{
+		String resolvedName = GathererDataScraper.getCardNameIndex().resolve(cardName);
 
+		return resolvedName == null ? cardName : resolvedName;
 	}
 
-	private int getMaxCountOfRestrictedCardsInDeck(MtgDeck deck)
+	/**
+	 * Re-keys the failures of resolved card names by the names of the cards as they were given, so that they can be
+	 * matched against the cards of the deck.
+	 */
+	private Map<String, Throwable> getDeckCardFailures(Collection<MtgCardData> cards, Map<String, Throwable> cardFailures)
 	{
-		int maxRestrictedCount = 0;
-		for (MtgCardData cardData : deck.getCardData())
+		Map<String, Throwable> deckCardFailures = new LinkedHashMap<String, Throwable>();
+
+		for (MtgCardData cardData : cards)
 		{
-			if (cardData.getCardLegality().values().contains(MagicLegalityRestriction.RESTRICTED))
+			Throwable failure = cardFailures.get(cardData.getCardName());
+			if (failure == null)
+			{
+				failure = cardFailures.get(resolveCardName(cardData.getCardName()));
+			}
+
+			if (failure != null)
 			{
-				maxRestrictedCount = Math.max(maxRestrictedCount, deck.getCardCount(cardData.getCardName()));
+				deckCardFailures.put(cardData.getCardName(), failure);
 			}
 		}
 
-		return maxRestrictedCount;
+		return deckCardFailures;
 	}
 
-	private void updateDeckLegalitiesFromCardData(MtgCardData cardData, Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities)
+	/**
+	 * @return {@code true} if the legality of the named card has passed the maximum stale age and must be scraped again
+	 *         before it is used
+	 */
+	private boolean isTooStale(String cardName)
 	{
-		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegalities = cardData.getCardLegality();
-		for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> deckLegalityEntry : deckLegalities.entrySet())
+		boolean isTooStale = refreshScheduler.lookupFreshness(cardName) == LegalityRefreshScheduler.Freshness.EXPIRED;
+
+		if (isTooStale)
 		{
-			if (!cardLegalities.keySet().contains(deckLegalityEntry.getKey()))
-			{
-				deckLegalities.put(deckLegalityEntry.getKey(), MagicLegalityRestriction.NOT_PRESENT);
-			}
+			log.info("The legality of card " + cardName + " is too stale to use and will be scraped again");
 		}
 
-		for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> cardLegalityEntry : cardLegalities.entrySet())
+		return isTooStale;
+	}
+
+	/**
+	 * Completes each fill owned by this thread with the cached legality of its card, or with its failure if the card
+	 * could not be resolved, and releases the fill so that the card can be filled again.
+	 */
+	private void finishFills(List<PendingFill> ownFills, Map<String, Throwable> cardFailures)
+	{
+		for (PendingFill fill : ownFills)
 		{
-			MagicDeckFormat deckFormat = cardLegalityEntry.getKey();
-			MagicLegalityRestriction cardLegalityRestriction = cardLegalityEntry.getValue();
-			if (!deckLegalities.containsKey(deckFormat))
-			{
-				deckLegalities.put(deckFormat, cardLegalityRestriction);
-			}
-			else
+			if (!fill.isDone())
 			{
-				if (cardLegalityRestriction.isMoreRestrictiveThan(deckLegalities.get(deckFormat)))
+				Throwable failure = cardFailures.get(fill.getCardName());
+				MtgCardData filledCardData = failure == null ? legalityCache.get(fill.getCardName()) : null;
+
+				if (filledCardData == null)
+				{
+					fill.fail(failure == null ? new IllegalStateException("The legality of card " + fill.getCardName() + " was not resolved") : failure);
+				}
+				else
 				{
-					deckLegalities.put(deckFormat, cardLegalityRestriction);
+					fill.complete(filledCardData);
 				}
 			}
+
+			pendingFills.remove(fill.getCardName(), fill);
 		}
 	}
 
-	private void updateCardDataCache(MtgDeck deck)
+	/**
+	 * Waits for another thread to fill the legality of a card.
+	 * 
+	 * @param cardFailures The failures of each card, which the cause is added to if the fill failed
+	 * @return The filled card data, or {@code null} if the fill failed
+	 */
+	private MtgCardData awaitFill(PendingFill fill, Map<String, Throwable> cardFailures)
 	{
-		for (MtgCardData cardData : deck.getCardData())
+		MtgCardData filledCardData = null;
+
+		try
+		{
+			filledCardData = fill.await();
+			if (filledCardData == null)
+			{
+				cardFailures.put(fill.getCardName(), fill.getFailure());
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.error("Interrupted while waiting for the legality data of card: " + fill.getCardName(), e);
+			cardFailures.put(fill.getCardName(), e);
+			Thread.currentThread().interrupt();
+		}
+
+		return filledCardData;
+	}
+
+	/**
+	 * Refreshes the stored and cached legality of the named cards from the Gatherer.
+	 * <p>
+	 * Cards that were stored with the validators of the page their legality was scraped from are revalidated with a
+	 * conditional request, so their page is only downloaded if it has changed. Any other card is scraped in full. All the
+	 * cards are refreshed in parallel.
+	 * </p>
+	 * 
+	 * @param cardNames The names of the cards to refresh
+	 * @return The number of cards whose legality changed
+	 * @throws CardLegalityUnavailableException If the legality of any card could not be refreshed. All the other cards
+	 *             are still refreshed.
+	 */
+	public int refreshCardLegality(Collection<String> cardNames)
+	{
+		Map<String, Future<ScrapedLegality>> pendingRefreshes = new LinkedHashMap<String, Future<ScrapedLegality>>();
+
+		for (String refreshedName : cardNames)
+		{
+			String cardName = resolveCardName(refreshedName);
+			if (!pendingRefreshes.containsKey(cardName))
+			{
+				pendingRefreshes.put(cardName, getScraper().getLegalityIfModifiedAsync(cardName, loadValidatorsFromLegalityStore(cardName), null));
+			}
+		}
+
+		int changedCount = 0;
+		Map<String, Throwable> cardFailures = new LinkedHashMap<String, Throwable>();
+		for (Map.Entry<String, Future<ScrapedLegality>> pendingRefresh : pendingRefreshes.entrySet())
 		{
-			if (!legalityScrapedCardsCache.contains(cardData))
+			String cardName = pendingRefresh.getKey();
+			ScrapedLegality scrapedLegality = getScrapedLegality(cardName, pendingRefresh.getValue(), cardFailures);
+
+			if (scrapedLegality != null)
 			{
-				try
+				refreshScheduler.recordValidated(cardName, getValidatedTime(scrapedLegality));
+
+				MtgCardData currentCardData = legalityCache.get(cardName);
+				if (currentCardData == null)
 				{
-					Map<MagicDeckFormat, MagicLegalityRestriction> cardLegalityData = getScraper().getLegality(cardData.getCardName());
-					for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> legalityEntry : cardLegalityData.entrySet())
+					currentCardData = loadFromLegalityStore(cardName);
+				}
+
+				if (scrapedLegality.isNotModified())
+				{
+					markValidatedInLegalityStore(cardName, scrapedLegality.getValidators().getValidatedTimeMillis());
+					if (currentCardData != null)
 					{
-						cardData.setFormatLegality(legalityEntry.getKey(), legalityEntry.getValue());
+						legalityCache.put(cardName, currentCardData);
 					}
-					legalityScrapedCardsCache.add(cardData);
 				}
-				catch (Exception e)
+				else
+				{
+					MtgCardData refreshedCardData = (currentCardData == null ? new MtgCardData(cardName, 0) : currentCardData).withFormatLegalities(scrapedLegality.getLegality());
+					saveToLegalityStore(refreshedCardData, scrapedLegality.getPrintedSets(), scrapedLegality.getValidators());
+
+					refreshedCardData = applyLegalityRules(refreshedCardData, scrapedLegality.getPrintedSets());
+					if (!refreshedCardData.equals(currentCardData))
+					{
+						changedCount++;
+					}
+
+					legalityCache.put(cardName, refreshedCardData);
+				}
+			}
+		}
+
+		if (!cardFailures.isEmpty())
+		{
+			throw new CardLegalityUnavailableException(cardFailures);
+		}
+
+		log.info("Refreshed the legality of " + pendingRefreshes.size() + " cards, " + changedCount + " changed");
+
+		return changedCount;
+	}
+
+	/**
+	 * Refreshes the legality of every card held in the legality store.
+	 * 
+	 * @return The number of cards whose legality changed
+	 * @throws IOException If the card names cannot be read from the store
+	 * @throws CardLegalityUnavailableException If the legality of any card could not be refreshed
+	 * @see #refreshCardLegality(Collection)
+	 */
+	public int refreshLegalityStore() throws IOException
+	{
+		int changedCount = 0;
+		CardLegalityStore store = getLegalityStore();
+
+		if (store != null)
+		{
+			changedCount = refreshCardLegality(store.getCardNames());
+		}
+
+		return changedCount;
+	}
+
+	/**
+	 * Waits for a scrape of the legality of the named card to complete.
+	 * 
+	 * @param cardFailures The failures of each card, which the cause is added to if the scrape failed
+	 * @return The scraped legality, or {@code null} if it could not be scraped
+	 */
+	private ScrapedLegality getScrapedLegality(String cardName, Future<ScrapedLegality> pendingScrape, Map<String, Throwable> cardFailures)
+	{
+		ScrapedLegality scrapedLegality = null;
+
+		try
+		{
+			scrapedLegality = pendingScrape.get();
+		}
+		catch (ExecutionException e)
+		{
+			log.error("Failed to scrape legality data for card: " + cardName, e.getCause());
+			cardFailures.put(cardName, e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			log.error("Interrupted while scraping legality data for card: " + cardName, e);
+			cardFailures.put(cardName, e);
+			Thread.currentThread().interrupt();
+		}
+
+		return scrapedLegality;
+	}
+
+	/**
+	 * Loads the stored legality of the named card, with the legality in any format the legality rules cover derived from
+	 * the stored printings of the card
+	 */
+	private MtgCardData loadFromLegalityStore(String cardName)
+	{
+		MtgCardData storedCardData = null;
+		CardLegalityStore store = getLegalityStore();
+
+		if (store != null)
+		{
+			try
+			{
+				storedCardData = store.get(cardName);
+				if (storedCardData != null && getLegalityRules() != null)
 				{
-					log.error("Failed to scrape legality data for card: " + cardData, e);
+					storedCardData = applyLegalityRules(storedCardData, store.getPrintedSets(cardName));
 				}
 			}
+			catch (IOException e)
+			{
+				log.error("Failed to read legality data from the store for card: " + cardName, e);
+			}
+		}
+
+		return storedCardData;
+	}
+
+	/**
+	 * @return The card data with its legality in each format the legality rules cover derived from its printings, or the
+	 *         card data as it is if there are no rules or the printings of the card are not known
+	 */
+	private MtgCardData applyLegalityRules(MtgCardData cardData, List<String> printedSets)
+	{
+		MtgCardData derivedCardData = cardData;
+		LegalityRules rules = getLegalityRules();
+
+		if (rules != null && printedSets != null && !printedSets.isEmpty())
+		{
+			for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> formatLegality : rules.getCardLegality(cardData.getCardName(), printedSets).entrySet())
+			{
+				derivedCardData = derivedCardData.withFormatLegality(formatLegality.getKey(), formatLegality.getValue());
+			}
+		}
+
+		return derivedCardData;
+	}
+
+	/**
+	 * Tells the refresh scheduler when the stored legality of the card was last confirmed, unless it already knows. If the
+	 * store does not know either, the legality is treated as confirmed now, so it is refreshed after the refresh age.
+	 */
+	private void trackStoredValidatedTime(String cardName)
+	{
+		if (!refreshScheduler.isTracked(cardName))
+		{
+			PageValidators validators = loadValidatorsFromLegalityStore(cardName);
+			refreshScheduler.recordValidated(cardName, validators == null ? System.currentTimeMillis() : validators.getValidatedTimeMillis());
+		}
+	}
+
+	private static long getValidatedTime(ScrapedLegality scrapedLegality)
+	{
+		return scrapedLegality.getValidators() == null ? System.currentTimeMillis() : scrapedLegality.getValidators().getValidatedTimeMillis();
+	}
+
+	private PageValidators loadValidatorsFromLegalityStore(String cardName)
+	{
+		PageValidators validators = null;
+		CardLegalityStore store = getLegalityStore();
+
+		if (store != null)
+		{
+			try
+			{
+				validators = store.getValidators(cardName);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to read page validators from the store for card: " + cardName, e);
+			}
+		}
+
+		return validators;
+	}
+
+	private void markValidatedInLegalityStore(String cardName, long validatedTimeMillis)
+	{
+		CardLegalityStore store = getLegalityStore();
+
+		if (store != null && canWriteToLegalityStore(cardName))
+		{
+			try
+			{
+				store.markValidated(cardName, validatedTimeMillis);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to mark the stored legality data as validated for card: " + cardName, e);
+			}
+		}
+	}
+
+	private void saveToLegalityStore(MtgCardData cardData, List<String> printedSets, PageValidators validators)
+	{
+		CardLegalityStore store = getLegalityStore();
+
+		if (store != null && cardData != null && canWriteToLegalityStore(cardData.getCardName()))
+		{
+			try
+			{
+				store.put(cardData, printedSets, validators);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to write legality data to the store for card: " + cardData, e);
+			}
+		}
+	}
+
+	/**
+	 * @return {@code false} if the current thread has been interrupted, in which case it must not write to the legality
+	 *         store, as the file channel of the store is closed for every thread if a thread writing to it is interrupted
+	 */
+	private static boolean canWriteToLegalityStore(String cardName)
+	{
+		boolean canWrite = !Thread.currentThread().isInterrupted();
+
+		if (!canWrite)
+		{
+			log.warn("Not writing legality data to the store for card " + cardName + " from an interrupted thread");
+		}
+
+		return canWrite;
+	}
+
+	/**
+	 * Holds the shared calculator, so that it is created on first use without synchronising every call to
+	 * {@link DeckLegalityCalculator#getDeckLegalityCalculator()}
+	 */
+	private static class SharedCalculatorHolder
+	{
+		private static final DeckLegalityCalculator SHARED_CALCULATOR = createSharedCalculator();
+
+		private static DeckLegalityCalculator createSharedCalculator()
+		{
+			DeckLegalityCalculator sharedCalculator = new DeckLegalityCalculator();
+			LegalityCheckerMetrics.getMetrics().setLegalityCache(sharedCalculator.getLegalityCache());
+
+			return sharedCalculator;
+		}
+	}
+
+	/**
+	 * The legality of a card being loaded or scraped by one thread, which other threads that need the card wait for
+	 */
+	private static class PendingFill
+	{
+		private final String cardName;
+		private final CountDownLatch doneLatch = new CountDownLatch(1);
+		private volatile MtgCardData cardData;
+		private volatile Throwable failure;
+
+		PendingFill(String cardName)
+		{
+			this.cardName = cardName;
+		}
+
+		String getCardName()
+		{
+			return cardName;
+		}
+
+		Throwable getFailure()
+		{
+			return failure;
+		}
+
+		boolean isDone()
+		{
+			return doneLatch.getCount() == 0;
+		}
+
+		void complete(MtgCardData cardData)
+		{
+			this.cardData = cardData;
+			doneLatch.countDown();
+		}
+
+		void fail(Throwable failure)
+		{
+			this.failure = failure;
+			doneLatch.countDown();
+		}
+
+		/**
+		 * @return The filled card data, or {@code null} if the fill failed
+		 */
+		MtgCardData await() throws InterruptedException
+		{
+			doneLatch.await();
+
+			return cardData;
+		}
+	}
+
+	/**
+	 * Creates daemon deck evaluation threads, so that a calculator does not keep the JVM alive
+	 */
+	private static class EvaluationThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Deck Legality Evaluator " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
 		}
 	}
 }
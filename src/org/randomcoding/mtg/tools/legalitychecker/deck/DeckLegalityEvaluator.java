@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * Evaluates the legality of a deck whose cards already have their legalities resolved, in a single pass over the deck.
+ * <p>
+ * For each format the deck takes the most restrictive legality of its cards, where a card that is not listed for the
+ * format counts as {@link MagicLegalityRestriction#NOT_PRESENT}. A deck that is only {@link MagicLegalityRestriction#RESTRICTED}
+ * in a format is legal if it has just one copy of each card restricted in that format. A deck with more than four copies
+ * of any card is {@link MagicLegalityRestriction#ILLEGAL} in every format.
+ * </p>
+ * <p>
+ * The reasons each card makes the deck illegal can be gathered in the same pass, by {@link #judge(MtgDeck)}, so the
+ * verdict and its explanation are always worked out by the same rules.
+ * </p>
+ * <p>
+ * The evaluator holds no state, so can be shared between threads.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+class DeckLegalityEvaluator
+{
+	static final int MAXIMUM_COPIES_OF_CARD = 4;
+
+	private static final MagicDeckFormat[] FORMATS = MagicDeckFormat.values();
+	private static final MagicLegalityRestriction[] RESTRICTIONS = MagicLegalityRestriction.values();
+	private static final int NO_LEGALITY = -1;
+
+	/**
+	 * @param deck The deck to evaluate
+	 * @return a {@link Map} of the formats and legality restrictions for this deck. If a format is not present then no
+	 *         card in the deck is listed for it
+	 */
+	Map<MagicDeckFormat, MagicLegalityRestriction> evaluate(MtgDeck deck)
+	{
+		return evaluate(deck, null);
+	}
+
+	/**
+	 * Evaluates the legality of a deck and the reasons behind it in the same pass over the deck.
+	 * 
+	 * @param deck The deck to evaluate
+	 * @return The legality of the deck in each format, as returned by {@link #evaluate(MtgDeck)}, with the reasons each
+	 *         card makes it illegal in each format
+	 */
+	DeckVerdict judge(MtgDeck deck)
+	{
+		List<List<IllegalityExplanation>> explanations = new ArrayList<List<IllegalityExplanation>>(FORMATS.length);
+		for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+		{
+			explanations.add(new ArrayList<IllegalityExplanation>());
+		}
+
+		Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities = evaluate(deck, explanations);
+
+		Map<MagicDeckFormat, DeckLegalityExplanation> deckExplanations = new EnumMap<MagicDeckFormat, DeckLegalityExplanation>(MagicDeckFormat.class);
+		for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+		{
+			deckExplanations.put(FORMATS[formatIndex], new DeckLegalityExplanation(deck.getDeckName(), FORMATS[formatIndex], explanations.get(formatIndex)));
+		}
+
+		return new DeckVerdict(deck.getDeckName(), deckLegalities, deckExplanations);
+	}
+
+	/**
+	 * @param legality The legality of a card in a format, which is {@code null} if the card is not listed for the format
+	 * @param cardCount The number of copies of the card in the deck
+	 * @return The reason the card makes a deck illegal in the format, or {@code null} if it does not. Having too many
+	 *         copies of the card is not considered.
+	 */
+	static IllegalityReason getIllegalityReason(MagicLegalityRestriction legality, int cardCount)
+	{
+		IllegalityReason reason = null;
+
+		if (legality == null)
+		{
+			reason = IllegalityReason.NOT_LISTED;
+		}
+		else
+		{
+			switch (legality)
+			{
+				case BANNED:
+					reason = IllegalityReason.BANNED;
+					break;
+				case RESTRICTED:
+					reason = cardCount > 1 ? IllegalityReason.RESTRICTED_COPIES : null;
+					break;
+				case NOT_PRESENT:
+					reason = IllegalityReason.NOT_PRESENT;
+					break;
+				case ILLEGAL:
+					reason = IllegalityReason.ILLEGAL;
+					break;
+				case LEGAL:
+					break;
+			}
+		}
+
+		return reason;
+	}
+
+	/**
+	 * @param explanations The lists to add the reasons each card makes the deck illegal to, one for each format in
+	 *            ordinal order, or {@code null} if the reasons are not wanted
+	 */
+	private Map<MagicDeckFormat, MagicLegalityRestriction> evaluate(MtgDeck deck, List<List<IllegalityExplanation>> explanations)
+	{
+		int[] mostRestrictive = new int[FORMATS.length];
+		int[] maxRestrictedCount = new int[FORMATS.length];
+		int notListedFormats = 0;
+		int maxCardCount = 0;
+
+		for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+		{
+			mostRestrictive[formatIndex] = NO_LEGALITY;
+		}
+
+		for (MtgDeck.DeckCard deckCard : deck.getDeckCards())
+		{
+			MtgCardData cardData = deckCard.getCardData();
+			int cardCount = deckCard.getCount();
+			maxCardCount = Math.max(maxCardCount, cardCount);
+
+			for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+			{
+				MagicLegalityRestriction legality = cardData.getFormatLegality(FORMATS[formatIndex]);
+
+				if (legality == null)
+				{
+					notListedFormats |= 1 << formatIndex;
+				}
+				else
+				{
+					mostRestrictive[formatIndex] = Math.max(mostRestrictive[formatIndex], legality.ordinal());
+					if (legality == MagicLegalityRestriction.RESTRICTED)
+					{
+						maxRestrictedCount[formatIndex] = Math.max(maxRestrictedCount[formatIndex], cardCount);
+					}
+				}
+
+				if (explanations != null)
+				{
+					addIllegalityExplanations(explanations.get(formatIndex), FORMATS[formatIndex], cardData, legality, cardCount);
+				}
+			}
+		}
+
+		Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+
+		for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+		{
+			if (maxCardCount > MAXIMUM_COPIES_OF_CARD)
+			{
+				deckLegalities.put(FORMATS[formatIndex], MagicLegalityRestriction.ILLEGAL);
+			}
+			else if (mostRestrictive[formatIndex] != NO_LEGALITY)
+			{
+				int legality = mostRestrictive[formatIndex];
+				if ((notListedFormats & (1 << formatIndex)) != 0)
+				{
+					legality = Math.max(legality, MagicLegalityRestriction.NOT_PRESENT.ordinal());
+				}
+
+				if (legality == MagicLegalityRestriction.RESTRICTED.ordinal() && maxRestrictedCount[formatIndex] == 1)
+				{
+					legality = MagicLegalityRestriction.LEGAL.ordinal();
+				}
+
+				deckLegalities.put(FORMATS[formatIndex], RESTRICTIONS[legality]);
+			}
+		}
+
+		return deckLegalities;
+	}
+
+	/**
+	 * Adds the reasons, if any, that a card makes a deck illegal in a format
+	 */
+	static void addIllegalityExplanations(List<IllegalityExplanation> explanations, MagicDeckFormat deckFormat, MtgCardData cardData,
+			MagicLegalityRestriction legality, int cardCount)
+	{
+		if (cardCount > MAXIMUM_COPIES_OF_CARD)
+		{
+			explanations.add(new IllegalityExplanation(IllegalityReason.TOO_MANY_COPIES, deckFormat, cardData, cardCount));
+		}
+
+		IllegalityReason reason = getIllegalityReason(legality, cardCount);
+		if (reason != null)
+		{
+			explanations.add(new IllegalityExplanation(reason, deckFormat, cardData, cardCount));
+		}
+	}
+}
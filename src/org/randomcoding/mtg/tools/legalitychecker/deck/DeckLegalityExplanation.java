@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+
+/**
+ * The explanation of why a deck is not legal in a single format, as the reasons each card makes it illegal, in the
+ * order of the cards in the deck.
+ * 
+ * @author Tym The Enchanter
+ */
+public final class DeckLegalityExplanation
+{
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final String deckName;
+	private final MagicDeckFormat deckFormat;
+	private final List<IllegalityExplanation> explanations;
+
+	DeckLegalityExplanation(String deckName, MagicDeckFormat deckFormat, List<IllegalityExplanation> explanations)
+	{
+		this.deckName = deckName;
+		this.deckFormat = deckFormat;
+		this.explanations = Collections.unmodifiableList(explanations);
+	}
+
+	public String getDeckName()
+	{
+		return deckName;
+	}
+
+	public MagicDeckFormat getDeckFormat()
+	{
+		return deckFormat;
+	}
+
+	/**
+	 * @return {@code true} if no card makes the deck illegal in the format
+	 */
+	public boolean isEmpty()
+	{
+		return explanations.isEmpty();
+	}
+
+	/**
+	 * @return The reasons each card makes the deck illegal, in the order of the cards in the deck
+	 */
+	public List<IllegalityExplanation> getExplanations()
+	{
+		return explanations;
+	}
+
+	/**
+	 * Writes the text of each explanation on its own line.
+	 * 
+	 * @param writer The writer to write the explanations to
+	 * @throws IOException If the writer fails
+	 */
+	public void writeTo(Writer writer) throws IOException
+	{
+		for (IllegalityExplanation explanation : explanations)
+		{
+			explanation.writeTo(writer);
+			writer.write(LINE_SEPARATOR);
+		}
+	}
+
+	/**
+	 * @return The text of the explanations, one per line
+	 */
+	@Override
+	public String toString()
+	{
+		StringWriter writer = new StringWriter();
+
+		try
+		{
+			writeTo(writer);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to write explanations to a string", e);
+		}
+
+		return writer.toString();
+	}
+}
@@ -10,8 +10,12 @@
  *******************************************************************************/
 package org.randomcoding.mtg.tools.legalitychecker.deck;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,108 +31,105 @@ import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
  * <li>No Banned cards are allowed</li>
  * <li>A maximum of four copies of a single, non Restricted, card are allowed in a deck</li>
  * </ol>
+ * </p>
+ * <p>
+ * A deck is explained one format at a time, as a list of {@link IllegalityExplanation}s that each refer to a card and
+ * an {@link IllegalityReason}. The text of an explanation is only built when it is written out.
+ * </p>
+ * <p>
+ * The reasons are found by the same rules as the legality of the deck. To show both the legality of a deck and why, use
+ * {@link DeckLegalityCalculator#checkDeck(MtgDeck)}, which works both out in a single pass.
+ * </p>
  * 
  * @author Tym The Enchanter
  */
 public class DeckLegalityExplanationGenerator
 {
+	/** The reasons that {@link #getExplanationForDeckIllegality(MtgDeck)} has always reported */
+	private static final Set<IllegalityReason> DEPRECATED_EXPLANATION_REASONS = EnumSet.of(IllegalityReason.TOO_MANY_COPIES, IllegalityReason.BANNED,
+			IllegalityReason.RESTRICTED_COPIES, IllegalityReason.NOT_PRESENT);
+
+	private final DeckLegalityEvaluator legalityEvaluator = new DeckLegalityEvaluator();
 
 	/**
+	 * Explains why a deck is not legal in a single format, in a single pass over its cards.
+	 * 
+	 * @param deck The deck, with the legalities of its cards resolved
+	 * @param deckFormat The format to explain the deck in
+	 * @return The reasons each card makes the deck illegal in the format, which are empty if it is legal
+	 */
+	public DeckLegalityExplanation explain(MtgDeck deck, MagicDeckFormat deckFormat)
+	{
+		List<IllegalityExplanation> explanations = new ArrayList<IllegalityExplanation>();
+
+		for (MtgDeck.DeckCard deckCard : deck.getDeckCards())
+		{
+			MtgCardData cardData = deckCard.getCardData();
+			DeckLegalityEvaluator.addIllegalityExplanations(explanations, deckFormat, cardData, cardData.getFormatLegality(deckFormat), deckCard.getCount());
+		}
+
+		return new DeckLegalityExplanation(deck.getDeckName(), deckFormat, explanations);
+	}
+
+	/**
+	 * Only the too many copies, banned, restricted copies and not present reasons are reported, as they always have been.
+	 * Cards that are illegal for some other reason, or are not listed for a format, are not explained.
+	 * 
 	 * @param deck The deck that for which illegality explanations are required
 	 * @return The reasons, indexed by deck format, why each card that is not legal in that format
+	 * @deprecated This explains the deck in every format and builds the text of every explanation. Use
+	 *             {@link #explain(MtgDeck, MagicDeckFormat)} to explain just the formats that are displayed.
 	 */
+	@Deprecated
 	public Map<MagicDeckFormat, Map<MtgCardData, Set<String>>> getExplanationForDeckIllegality(MtgDeck deck)
 	{
-		Map<MagicDeckFormat, Map<MtgCardData, Set<String>>> legalityExplanations = new HashMap<MagicDeckFormat, Map<MtgCardData, Set<String>>>();
+		Map<MagicDeckFormat, Map<MtgCardData, Set<String>>> legalityExplanations = new EnumMap<MagicDeckFormat, Map<MtgCardData, Set<String>>>(MagicDeckFormat.class);
+		DeckVerdict deckVerdict = legalityEvaluator.judge(deck);
 
 		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
 		{
-			for (MtgCardData cardData : deck.getCardData())
+			if (hasCardNotLegalIn(deck, deckFormat))
 			{
-				if (!MagicLegalityRestriction.LEGAL.equals(cardData.getCardLegality().get(deckFormat)))
+				Map<MtgCardData, Set<String>> explanationsForFormat = new HashMap<MtgCardData, Set<String>>();
+
+				for (IllegalityExplanation explanation : deckVerdict.getExplanation(deckFormat).getExplanations())
 				{
-					Map<MtgCardData, Set<String>> newIllegalityExplanation = getIllegalityExplanation(deckFormat, cardData, deck);
-					addNewExplanationToExplanations(deckFormat, newIllegalityExplanation, legalityExplanations);
+					IllegalityReason reason = explanation.getReason();
+					MagicLegalityRestriction legality = explanation.getCardData().getFormatLegality(deckFormat);
+
+					// too many copies was only ever explained for cards that are not legal in the format
+					if (DEPRECATED_EXPLANATION_REASONS.contains(reason) && (reason != IllegalityReason.TOO_MANY_COPIES || !MagicLegalityRestriction.LEGAL.equals(legality)))
+					{
+						Set<String> explanationsForCard = explanationsForFormat.get(explanation.getCardData());
+						if (explanationsForCard == null)
+						{
+							explanationsForCard = new HashSet<String>();
+							explanationsForFormat.put(explanation.getCardData(), explanationsForCard);
+						}
+						explanationsForCard.add(explanation.toString());
+					}
 				}
+
+				legalityExplanations.put(deckFormat, explanationsForFormat);
 			}
 		}
 
 		return legalityExplanations;
 	}
 
-	private void addNewExplanationToExplanations(MagicDeckFormat deckFormat, Map<MtgCardData, Set<String>> newIllegalityExplanation,
-			Map<MagicDeckFormat, Map<MtgCardData, Set<String>>> legalityExplanations)
+	private boolean hasCardNotLegalIn(MtgDeck deck, MagicDeckFormat deckFormat)
 	{
-		Map<MtgCardData, Set<String>> currentExplanationsForFormat = legalityExplanations.get(deckFormat);
-		if (currentExplanationsForFormat == null)
-		{
-			currentExplanationsForFormat = new HashMap<MtgCardData, Set<String>>();
-		}
+		boolean hasCardNotLegal = false;
 
-		for (Map.Entry<MtgCardData, Set<String>> newIllegalityEntry : newIllegalityExplanation.entrySet())
+		locateCard: for (MtgCardData cardData : deck.getCardData())
 		{
-			Set<String> explanationsForCard = currentExplanationsForFormat.get(newIllegalityEntry.getKey());
-
-			if (explanationsForCard == null)
+			if (!MagicLegalityRestriction.LEGAL.equals(cardData.getFormatLegality(deckFormat)))
 			{
-				explanationsForCard = new HashSet<String>();
+				hasCardNotLegal = true;
+				break locateCard;
 			}
-			explanationsForCard.addAll(newIllegalityEntry.getValue());
-
-			currentExplanationsForFormat.put(newIllegalityEntry.getKey(), explanationsForCard);
 		}
 
-		legalityExplanations.put(deckFormat, currentExplanationsForFormat);
-	}
-
-	private Map<MtgCardData, Set<String>> getIllegalityExplanation(MagicDeckFormat deckFormat, MtgCardData cardData, MtgDeck deck)
-	{
-		Map<MtgCardData, Set<String>> illegalityExplanationsForCard = new HashMap<MtgCardData, Set<String>>();
-
-		if (deck.getCardCount(cardData.getCardName()) > 4)
-		{
-			addIllegalityExplanation(cardData, getExplanationForTooManyCardsIndeck(cardData), illegalityExplanationsForCard);
-		}
-
-		switch (cardData.getCardLegality().get(deckFormat))
-		{
-			case BANNED:
-				addIllegalityExplanation(cardData, cardData.getCardName() + " is Banned in " + deckFormat.name(), illegalityExplanationsForCard);
-				break;
-			case RESTRICTED:
-				if (deck.getCardCount(cardData.getCardName()) > 1)
-				{
-					addIllegalityExplanation(cardData, "Only one copy of " + cardData.getCardName() + " is permitted in " + deckFormat.name() + " as it is Restricted", illegalityExplanationsForCard);
-				}
-				break;
-			case NOT_PRESENT:
-				addIllegalityExplanation(cardData, cardData.getCardName() + " is not in the legal sets for " + deckFormat.name(), illegalityExplanationsForCard);
-				break;
-		}
-
-		return illegalityExplanationsForCard;
-	}
-
-	private void addIllegalityExplanation(MtgCardData cardData, String explanation, Map<MtgCardData, Set<String>> illegalityExplanationsForCard)
-	{
-		Set<String> explanations = illegalityExplanationsForCard.get(cardData);
-		if (explanations == null)
-		{
-			explanations = new HashSet<String>();
-		}
-
-		explanations.add(explanation);
-
-		illegalityExplanationsForCard.put(cardData, explanations);
-	}
-
-	private String getExplanationForTooManyCardsIndeck(MtgCardData cardData)
-	{
-		StringBuilder builder = new StringBuilder();
-		builder.append("There are more than four copies of ");
-		builder.append(cardData.getCardName());
-		builder.append(" present in the deck.");
-
-		return builder.toString();
+		return hasCardNotLegal;
 	}
 }
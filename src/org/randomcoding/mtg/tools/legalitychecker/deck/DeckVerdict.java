@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * The legality of a deck in each format together with the reasons behind it, as worked out in a single pass over the
+ * deck by {@link DeckLegalityCalculator#checkDeck(MtgDeck)}.
+ * <p>
+ * A verdict is flagged as stale if the legality of any of its cards was older than the refresh age of the
+ * {@link LegalityRefreshScheduler} when it was worked out, so may have changed since.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class DeckVerdict
+{
+	private final String deckName;
+	private final Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities;
+	private final Map<MagicDeckFormat, DeckLegalityExplanation> deckExplanations;
+	private final Set<String> staleCardNames;
+
+	DeckVerdict(String deckName, Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities, Map<MagicDeckFormat, DeckLegalityExplanation> deckExplanations)
+	{
+		this(deckName, Collections.unmodifiableMap(deckLegalities), deckExplanations, Collections.<String> emptySet());
+	}
+
+	private DeckVerdict(String deckName, Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities, Map<MagicDeckFormat, DeckLegalityExplanation> deckExplanations,
+			Set<String> staleCardNames)
+	{
+		this.deckName = deckName;
+		this.deckLegalities = deckLegalities;
+		this.deckExplanations = deckExplanations;
+		this.staleCardNames = staleCardNames;
+	}
+
+	/**
+	 * @param staleCardNames The names of the cards whose legality was stale
+	 * @return The same verdict, flagged as using the stale legality of the cards
+	 */
+	DeckVerdict withStaleCardNames(Set<String> staleCardNames)
+	{
+		return new DeckVerdict(deckName, deckLegalities, deckExplanations, Collections.unmodifiableSet(staleCardNames));
+	}
+
+	public String getDeckName()
+	{
+		return deckName;
+	}
+
+	/**
+	 * @return The legality of the deck in each format, as returned by
+	 *         {@link DeckLegalityCalculator#checkDeckLegality(MtgDeck)}
+	 */
+	public Map<MagicDeckFormat, MagicLegalityRestriction> getDeckLegalities()
+	{
+		return deckLegalities;
+	}
+
+	/**
+	 * @param deckFormat The format to get the legality of the deck in
+	 * @return The legality of the deck in the format, or {@code null} if no card in the deck is listed for it
+	 */
+	public MagicLegalityRestriction getDeckLegality(MagicDeckFormat deckFormat)
+	{
+		return deckLegalities.get(deckFormat);
+	}
+
+	/**
+	 * @param deckFormat The format to explain the legality of the deck in
+	 * @return The reasons each card makes the deck illegal in the format, which are empty if it is legal
+	 */
+	public DeckLegalityExplanation getExplanation(MagicDeckFormat deckFormat)
+	{
+		return deckExplanations.get(deckFormat);
+	}
+
+	/**
+	 * @return {@code true} if the legality of any card was stale, so the verdict may be out of date
+	 */
+	public boolean isStale()
+	{
+		return !staleCardNames.isEmpty();
+	}
+
+	/**
+	 * @return The names of the cards whose legality was stale
+	 */
+	public Set<String> getStaleCardNames()
+	{
+		return staleCardNames;
+	}
+}
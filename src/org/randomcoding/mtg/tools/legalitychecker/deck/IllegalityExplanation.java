@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+
+/**
+ * A single reason that a card makes a deck illegal in a format.
+ * <p>
+ * The explanation only refers to the card and the reason, and its text is not built until it is written out, so
+ * explaining a deck that is never displayed costs little more than a pass over its cards.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class IllegalityExplanation
+{
+	private final IllegalityReason reason;
+	private final MagicDeckFormat deckFormat;
+	private final MtgCardData cardData;
+	private final int cardCount;
+
+	/**
+	 * @param reason The reason the card makes the deck illegal
+	 * @param deckFormat The format the deck is illegal in
+	 * @param cardData The card
+	 * @param cardCount The number of copies of the card in the deck
+	 */
+	IllegalityExplanation(IllegalityReason reason, MagicDeckFormat deckFormat, MtgCardData cardData, int cardCount)
+	{
+		this.reason = reason;
+		this.deckFormat = deckFormat;
+		this.cardData = cardData;
+		this.cardCount = cardCount;
+	}
+
+	public IllegalityReason getReason()
+	{
+		return reason;
+	}
+
+	public MagicDeckFormat getDeckFormat()
+	{
+		return deckFormat;
+	}
+
+	public MtgCardData getCardData()
+	{
+		return cardData;
+	}
+
+	/**
+	 * @return The number of copies of the card in the deck
+	 */
+	public int getCardCount()
+	{
+		return cardCount;
+	}
+
+	/**
+	 * Writes the text of the explanation, without a line separator.
+	 * 
+	 * @param writer The writer to write the text to
+	 * @throws IOException If the writer fails
+	 */
+	public void writeTo(Writer writer) throws IOException
+	{
+		String cardName = cardData.getCardName();
+		String formatName = deckFormat.name();
+
+		switch (reason)
+		{
+			case TOO_MANY_COPIES:
+				writer.write("There are more than four copies of ");
+				writer.write(cardName);
+				writer.write(" present in the deck.");
+				break;
+			case BANNED:
+				writer.write(cardName);
+				writer.write(" is Banned in ");
+				writer.write(formatName);
+				break;
+			case RESTRICTED_COPIES:
+				writer.write("Only one copy of ");
+				writer.write(cardName);
+				writer.write(" is permitted in ");
+				writer.write(formatName);
+				writer.write(" as it is Restricted");
+				break;
+			case NOT_PRESENT:
+				writer.write(cardName);
+				writer.write(" is not in the legal sets for ");
+				writer.write(formatName);
+				break;
+			case ILLEGAL:
+				writer.write(cardName);
+				writer.write(" is not legal in ");
+				writer.write(formatName);
+				break;
+			case NOT_LISTED:
+				writer.write(cardName);
+				writer.write(" is not listed for ");
+				writer.write(formatName);
+				break;
+		}
+	}
+
+	/**
+	 * @return The text of the explanation
+	 */
+	@Override
+	public String toString()
+	{
+		StringWriter writer = new StringWriter();
+
+		try
+		{
+			writeTo(writer);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to write an explanation to a string", e);
+		}
+
+		return writer.toString();
+	}
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+/**
+ * The reasons a card can make a deck illegal in a format.
+ * 
+ * @author Tym The Enchanter
+ */
+public enum IllegalityReason
+{
+	/**
+	 * There are more than four copies of the card in the deck, which is not allowed in any format
+	 */
+	TOO_MANY_COPIES,
+	/**
+	 * The card is banned in the format
+	 */
+	BANNED,
+	/**
+	 * The card is restricted in the format and there is more than one copy of it in the deck
+	 */
+	RESTRICTED_COPIES,
+	/**
+	 * The card is not in the sets that are legal in the format
+	 */
+	NOT_PRESENT,
+	/**
+	 * The card is illegal in the format for some other reason
+	 */
+	ILLEGAL,
+	/**
+	 * The Gatherer does not list the card for the format at all
+	 */
+	NOT_LISTED;
+}
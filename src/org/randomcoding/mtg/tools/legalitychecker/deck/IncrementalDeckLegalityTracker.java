@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * Keeps the legality of a deck up to date as cards are added to and removed from it, without re-evaluating the whole
+ * deck.
+ * <p>
+ * The tracker listens to the deck and keeps, for each format, the number of cards at each legality restriction and the
+ * number of restricted cards with more than one copy, as well as the number of cards with too many copies. Each change
+ * to the deck only adjusts these counts, and the deck legality is read straight from them, so both take constant time.
+ * The rules are the same as those of {@link DeckLegalityCalculator#checkDeckLegality(MtgDeck)}.
+ * </p>
+ * <p>
+ * When a card that has no legalities is added to the deck its legality is resolved once through the calculator, from
+ * its cache or store where possible, and applied to the deck. If it cannot be resolved the change to the deck still
+ * stands and the card is recorded as unresolved, counting as not being listed for any format, until its legality is
+ * applied to the deck, such as by {@link #resolveUnresolvedCards()}. The failure is never thrown from the change to the
+ * deck, so every other listener of the deck still hears of it.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class IncrementalDeckLegalityTracker implements MtgDeckListener
+{
+	private static final Log log = LogFactory.getLog(IncrementalDeckLegalityTracker.class);
+
+	private static final MagicDeckFormat[] FORMATS = MagicDeckFormat.values();
+	private static final MagicLegalityRestriction[] RESTRICTIONS = MagicLegalityRestriction.values();
+	private static final int NOT_LISTED = 0;
+
+	private final MtgDeck deck;
+	private final DeckLegalityCalculator legalityCalculator;
+
+	/** The number of cards at each legality in each format, indexed by format then restriction ordinal plus one */
+	private final int[][] legalityCounts = new int[FORMATS.length][RESTRICTIONS.length + 1];
+	private final int[] restrictedMultipleCopyCounts = new int[FORMATS.length];
+	private int tooManyCopiesCount;
+	private int cardCount;
+	private final Set<String> unresolvedCardNames = new LinkedHashSet<String>();
+
+	/**
+	 * Creates a tracker for the deck and starts listening to it. The legality of any cards already in the deck is
+	 * resolved at once.
+	 * 
+	 * @param deck The deck to track
+	 * @param legalityCalculator The calculator used to resolve the legality of cards as they are added
+	 * @throws CardLegalityUnavailableException If the legality of any card already in the deck could not be resolved
+	 */
+	public IncrementalDeckLegalityTracker(MtgDeck deck, DeckLegalityCalculator legalityCalculator)
+	{
+		this.deck = deck;
+		this.legalityCalculator = legalityCalculator;
+
+		synchronized (this)
+		{
+			deck.applyFormatLegalities(legalityCalculator.resolveCardData(deck.getCardData()));
+			for (MtgDeck.DeckCard deckCard : deck.getDeckCards())
+			{
+				addCard(deckCard.getCardData(), deckCard.getCount());
+			}
+
+			deck.addDeckListener(this);
+		}
+	}
+
+	/**
+	 * Stops listening to the deck. The legality is no longer updated after this is called.
+	 */
+	public void dispose()
+	{
+		deck.removeDeckListener(this);
+	}
+
+	/**
+	 * @return a {@link Map} of the formats and legality restrictions for the deck, as would be returned by
+	 *         {@link DeckLegalityCalculator#checkDeckLegality(MtgDeck)}
+	 */
+	public synchronized Map<MagicDeckFormat, MagicLegalityRestriction> getDeckLegality()
+	{
+		Map<MagicDeckFormat, MagicLegalityRestriction> deckLegalities = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+
+		for (MagicDeckFormat deckFormat : FORMATS)
+		{
+			MagicLegalityRestriction legality = getDeckLegality(deckFormat);
+			if (legality != null)
+			{
+				deckLegalities.put(deckFormat, legality);
+			}
+		}
+
+		return deckLegalities;
+	}
+
+	/**
+	 * @return The names of the cards of the deck whose legality is stale, so that the legality of the deck may have
+	 *         changed, as returned by {@link DeckLegalityCalculator#getStaleCardNames(MtgDeck)}
+	 */
+	public Set<String> getStaleCardNames()
+	{
+		return legalityCalculator.getStaleCardNames(deck);
+	}
+
+	/**
+	 * @return The names of the cards added to the deck whose legality could not be resolved, which count as not being
+	 *         listed for any format
+	 */
+	public synchronized Set<String> getUnresolvedCardNames()
+	{
+		return new LinkedHashSet<String>(unresolvedCardNames);
+	}
+
+	/**
+	 * Tries again to resolve the legality of the cards whose legality could not be resolved when they were added, and
+	 * applies it to the deck.
+	 * 
+	 * @throws CardLegalityUnavailableException If the legality of any of the cards still could not be resolved. The
+	 *             legality of the others is still applied.
+	 */
+	public void resolveUnresolvedCards()
+	{
+		List<MtgCardData> unresolvedCards = new ArrayList<MtgCardData>();
+
+		synchronized (this)
+		{
+			for (MtgDeck.DeckCard deckCard : deck.getDeckCards())
+			{
+				if (unresolvedCardNames.contains(deckCard.getCardData().getCardName()))
+				{
+					unresolvedCards.add(deckCard.getCardData());
+				}
+			}
+		}
+
+		if (!unresolvedCards.isEmpty())
+		{
+			try
+			{
+				deck.applyFormatLegalities(legalityCalculator.resolveCardData(unresolvedCards));
+			}
+			catch (CardLegalityUnavailableException e)
+			{
+				List<MtgCardData> resolvableCards = new ArrayList<MtgCardData>();
+				for (MtgCardData cardData : unresolvedCards)
+				{
+					if (!e.getCardNames().contains(cardData.getCardName()))
+					{
+						resolvableCards.add(cardData);
+					}
+				}
+				deck.applyFormatLegalities(legalityCalculator.resolveCardData(resolvableCards));
+
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @param deckFormat The deck format
+	 * @return The legality restriction of the deck in the format, or {@code null} if no card in the deck is listed for it
+	 */
+	public synchronized MagicLegalityRestriction getDeckLegality(MagicDeckFormat deckFormat)
+	{
+		MagicLegalityRestriction deckLegality = null;
+		int[] formatCounts = legalityCounts[deckFormat.ordinal()];
+
+		if (tooManyCopiesCount > 0)
+		{
+			deckLegality = MagicLegalityRestriction.ILLEGAL;
+		}
+		else if (formatCounts[NOT_LISTED] < cardCount)
+		{
+			int legality = RESTRICTIONS.length - 1;
+			while (formatCounts[legality + 1] == 0)
+			{
+				legality--;
+			}
+
+			if (formatCounts[NOT_LISTED] > 0)
+			{
+				legality = Math.max(legality, MagicLegalityRestriction.NOT_PRESENT.ordinal());
+			}
+
+			if (legality == MagicLegalityRestriction.RESTRICTED.ordinal() && restrictedMultipleCopyCounts[deckFormat.ordinal()] == 0)
+			{
+				legality = MagicLegalityRestriction.LEGAL.ordinal();
+			}
+
+			deckLegality = RESTRICTIONS[legality];
+		}
+
+		return deckLegality;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void cardAdded(MtgDeck deck, MtgCardData cardData, int cardCount)
+	{
+		synchronized (this)
+		{
+			addCard(cardData, cardCount);
+		}
+
+		if (cardData.getPackedLegality() == 0)
+		{
+			try
+			{
+				deck.applyFormatLegalities(legalityCalculator.resolveCardData(Collections.singleton(cardData)));
+			}
+			catch (CardLegalityUnavailableException e)
+			{
+				log.warn("The legality of card " + cardData.getCardName() + " could not be resolved, it counts as not listed for any format", e);
+				synchronized (this)
+				{
+					if (deck.getCardCount(cardData.getCardName()) > 0)
+					{
+						unresolvedCardNames.add(cardData.getCardName());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void cardRemoved(MtgDeck deck, MtgCardData cardData, int previousCardCount)
+	{
+		removeCard(cardData, previousCardCount);
+		unresolvedCardNames.remove(cardData.getCardName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void cardCountChanged(MtgDeck deck, MtgCardData cardData, int previousCardCount, int cardCount)
+	{
+		removeCard(cardData, previousCardCount);
+		addCard(cardData, cardCount);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void cardDataChanged(MtgDeck deck, MtgCardData previousCardData, MtgCardData cardData, int cardCount)
+	{
+		removeCard(previousCardData, cardCount);
+		addCard(cardData, cardCount);
+
+		if (cardData.getPackedLegality() != 0)
+		{
+			unresolvedCardNames.remove(cardData.getCardName());
+		}
+	}
+
+	private void addCard(MtgCardData cardData, int copies)
+	{
+		updateCounts(cardData, copies, 1);
+	}
+
+	private void removeCard(MtgCardData cardData, int copies)
+	{
+		updateCounts(cardData, copies, -1);
+	}
+
+	private void updateCounts(MtgCardData cardData, int copies, int change)
+	{
+		cardCount += change;
+		if (copies > DeckLegalityEvaluator.MAXIMUM_COPIES_OF_CARD)
+		{
+			tooManyCopiesCount += change;
+		}
+
+		for (int formatIndex = 0; formatIndex < FORMATS.length; formatIndex++)
+		{
+			MagicLegalityRestriction legality = cardData.getFormatLegality(FORMATS[formatIndex]);
+			int legalityIndex = legality == null ? NOT_LISTED : legality.ordinal() + 1;
+			legalityCounts[formatIndex][legalityIndex] += change;
+
+			if (legality == MagicLegalityRestriction.RESTRICTED && copies > 1)
+			{
+				restrictedMultipleCopyCounts[formatIndex] += change;
+			}
+		}
+	}
+}
@@ -0,0 +1,433 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Refreshes the legality of cards in the background before it goes stale, so a change to a ban list is picked up
+ * without a restart and without slowing down any deck check.
+ * <p>
+ * The scheduler knows when the legality of each resolved card was last confirmed by the Gatherer. Legality older than the
+ * refresh age is stale, but is still served for up to the maximum stale age beyond it, so a check never waits for a
+ * refresh while one is pending. Only legality older than both is treated as missing, and scraped again before it is
+ * used. Results that used stale legality are flagged in their {@link DeckVerdict}.
+ * </p>
+ * <p>
+ * When started, the scheduler refreshes at most the configured number of cards a minute, one at a time on a single
+ * daemon thread. Cards that are looked up when they are nearly due for a refresh are refreshed first, then any other
+ * cards that are nearly due, oldest first. Each refresh is a conditional request, through
+ * {@link DeckLegalityCalculator#refreshCardLegality(java.util.Collection)}, so unchanged pages are not downloaded again.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LegalityRefreshScheduler
+{
+	private static final Log log = LogFactory.getLog(LegalityRefreshScheduler.class);
+
+	private static final long DEFAULT_REFRESH_AGE_HOURS = 24;
+	private static final long DEFAULT_MAXIMUM_STALE_HOURS = 7 * 24;
+	private static final int DEFAULT_REFRESHES_PER_MINUTE = 6;
+
+	/** Legality is nearly due for a refresh once it is this many quarters of the refresh age old */
+	private static final int REFRESH_AHEAD_QUARTERS = 3;
+
+	/**
+	 * How fresh the legality of a card is
+	 */
+	enum Freshness
+	{
+		/** The legality is younger than the refresh age, or its age is not known */
+		FRESH,
+		/** The legality is older than the refresh age, but can still be served while it is refreshed */
+		STALE,
+		/** The legality is older than the refresh age and the maximum stale age, so cannot be served */
+		EXPIRED;
+	}
+
+	private final DeckLegalityCalculator legalityCalculator;
+	private final ConcurrentMap<String, RefreshState> refreshStates = new ConcurrentHashMap<String, RefreshState>();
+	private final Set<String> queuedCardNames = new LinkedHashSet<String>();
+
+	private volatile long refreshAgeMillis = TimeUnit.HOURS.toMillis(DEFAULT_REFRESH_AGE_HOURS);
+	private volatile long maximumStaleMillis = TimeUnit.HOURS.toMillis(DEFAULT_MAXIMUM_STALE_HOURS);
+	private int refreshesPerMinute = DEFAULT_REFRESHES_PER_MINUTE;
+
+	private ScheduledExecutorService refreshExecutor;
+	private ScheduledExecutorService stoppedExecutor;
+	private ScheduledFuture<?> refreshTask;
+
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong refreshFailureCount = new AtomicLong();
+
+	/**
+	 * @param legalityCalculator The calculator to refresh the legality of cards through
+	 */
+	LegalityRefreshScheduler(DeckLegalityCalculator legalityCalculator)
+	{
+		this.legalityCalculator = legalityCalculator;
+	}
+
+	/**
+	 * Starts refreshing cards in the background. Does nothing if the scheduler is already running.
+	 */
+	public synchronized void start()
+	{
+		if (refreshExecutor == null)
+		{
+			refreshExecutor = Executors.newSingleThreadScheduledExecutor(new RefreshThreadFactory());
+			scheduleRefreshes();
+		}
+	}
+
+	/**
+	 * Stops refreshing cards in the background. A refresh that is in progress is allowed to finish, use
+	 * {@link #awaitStopped(long, TimeUnit)} to wait for it.
+	 */
+	public synchronized void stop()
+	{
+		if (refreshExecutor != null)
+		{
+			refreshExecutor.shutdown();
+			stoppedExecutor = refreshExecutor;
+			refreshExecutor = null;
+			refreshTask = null;
+		}
+	}
+
+	/**
+	 * Waits for the refresh that was in progress when the scheduler was last stopped to finish
+	 * 
+	 * @param timeout The longest time to wait
+	 * @param timeUnit The unit of the timeout
+	 * @return {@code true} if no refresh is still in progress, or {@code false} if the wait timed out
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public boolean awaitStopped(long timeout, TimeUnit timeUnit) throws InterruptedException
+	{
+		ScheduledExecutorService executor;
+
+		synchronized (this)
+		{
+			executor = stoppedExecutor;
+		}
+
+		return executor == null || executor.awaitTermination(timeout, timeUnit);
+	}
+
+	public synchronized boolean isRunning()
+	{
+		return refreshExecutor != null;
+	}
+
+	/**
+	 * @param refreshAge The age at which the legality of a card goes stale and is refreshed
+	 * @param timeUnit The unit of the age
+	 */
+	public void setRefreshAge(long refreshAge, TimeUnit timeUnit)
+	{
+		refreshAgeMillis = timeUnit.toMillis(refreshAge);
+	}
+
+	/**
+	 * @return The age, in milliseconds, at which the legality of a card goes stale and is refreshed
+	 */
+	public long getRefreshAgeMillis()
+	{
+		return refreshAgeMillis;
+	}
+
+	/**
+	 * @param maximumStale How long past the refresh age stale legality may still be served while it is refreshed
+	 * @param timeUnit The unit of the time
+	 */
+	public void setMaximumStale(long maximumStale, TimeUnit timeUnit)
+	{
+		maximumStaleMillis = timeUnit.toMillis(maximumStale);
+	}
+
+	/**
+	 * @return How long, in milliseconds, past the refresh age stale legality may still be served
+	 */
+	public long getMaximumStaleMillis()
+	{
+		return maximumStaleMillis;
+	}
+
+	/**
+	 * @param refreshesPerMinute The most cards to refresh a minute in the background, which must be positive
+	 */
+	public synchronized void setRefreshesPerMinute(int refreshesPerMinute)
+	{
+		if (refreshesPerMinute <= 0)
+		{
+			throw new IllegalArgumentException("The refresh rate must be positive");
+		}
+
+		this.refreshesPerMinute = refreshesPerMinute;
+		if (refreshExecutor != null)
+		{
+			refreshTask.cancel(false);
+			scheduleRefreshes();
+		}
+	}
+
+	public synchronized int getRefreshesPerMinute()
+	{
+		return refreshesPerMinute;
+	}
+
+	/**
+	 * @return The number of cards waiting to be refreshed because they were looked up when nearly due
+	 */
+	public int getQueuedCount()
+	{
+		synchronized (queuedCardNames)
+		{
+			return queuedCardNames.size();
+		}
+	}
+
+	/**
+	 * @return The number of cards refreshed in the background
+	 */
+	public long getRefreshCount()
+	{
+		return refreshCount.get();
+	}
+
+	/**
+	 * @return The number of background refreshes that failed
+	 */
+	public long getRefreshFailureCount()
+	{
+		return refreshFailureCount.get();
+	}
+
+	/**
+	 * Records when the legality of a card was last confirmed by the Gatherer
+	 * 
+	 * @param cardName The name of the card
+	 * @param validatedTimeMillis The time the legality was confirmed
+	 */
+	void recordValidated(String cardName, long validatedTimeMillis)
+	{
+		RefreshState refreshState = refreshStates.get(cardName);
+
+		if (refreshState == null)
+		{
+			refreshStates.putIfAbsent(cardName, new RefreshState(validatedTimeMillis));
+		}
+		else
+		{
+			refreshState.validatedTimeMillis = validatedTimeMillis;
+		}
+	}
+
+	/**
+	 * @param cardName The name of the card
+	 * @return {@code true} if the time the legality of the card was confirmed is known
+	 */
+	boolean isTracked(String cardName)
+	{
+		return refreshStates.containsKey(cardName);
+	}
+
+	/**
+	 * Gets how fresh the legality of a card is as it is looked up, queuing the card to be refreshed first if it is nearly
+	 * due for a refresh
+	 * 
+	 * @param cardName The name of the card
+	 * @return How fresh the legality of the card is
+	 */
+	Freshness lookupFreshness(String cardName)
+	{
+		Freshness freshness = Freshness.FRESH;
+		RefreshState refreshState = refreshStates.get(cardName);
+
+		if (refreshState != null)
+		{
+			long ageMillis = System.currentTimeMillis() - refreshState.validatedTimeMillis;
+			freshness = getFreshness(ageMillis);
+
+			if (isNearlyDue(ageMillis) && freshness != Freshness.EXPIRED)
+			{
+				synchronized (queuedCardNames)
+				{
+					queuedCardNames.add(cardName);
+				}
+			}
+		}
+
+		return freshness;
+	}
+
+	/**
+	 * @param cardName The name of the card
+	 * @return {@code true} if the legality of the card is older than the refresh age
+	 */
+	boolean isStale(String cardName)
+	{
+		RefreshState refreshState = refreshStates.get(cardName);
+
+		return refreshState != null && System.currentTimeMillis() - refreshState.validatedTimeMillis >= refreshAgeMillis;
+	}
+
+	private Freshness getFreshness(long ageMillis)
+	{
+		Freshness freshness = Freshness.FRESH;
+
+		if (ageMillis >= refreshAgeMillis + maximumStaleMillis)
+		{
+			freshness = Freshness.EXPIRED;
+		}
+		else if (ageMillis >= refreshAgeMillis)
+		{
+			freshness = Freshness.STALE;
+		}
+
+		return freshness;
+	}
+
+	private boolean isNearlyDue(long ageMillis)
+	{
+		return ageMillis >= refreshAgeMillis / 4 * REFRESH_AHEAD_QUARTERS;
+	}
+
+	/**
+	 * Must be called with the lock on the scheduler held
+	 */
+	private void scheduleRefreshes()
+	{
+		long periodMillis = TimeUnit.MINUTES.toMillis(1) / refreshesPerMinute;
+
+		refreshTask = refreshExecutor.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				refreshNextCard();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Refreshes the card that was queued first or, if none are queued, the oldest card that is nearly due. A card whose
+	 * refresh has been attempted within the last quarter of the refresh age is skipped, so a card that cannot be refreshed
+	 * is not retried on every run.
+	 */
+	private void refreshNextCard()
+	{
+		long nowMillis = System.currentTimeMillis();
+		long retryMillis = refreshAgeMillis / 4;
+		String cardName = null;
+
+		synchronized (queuedCardNames)
+		{
+			Iterator<String> queuedNames = queuedCardNames.iterator();
+			locateQueued: while (queuedNames.hasNext())
+			{
+				String queuedName = queuedNames.next();
+				queuedNames.remove();
+
+				RefreshState refreshState = refreshStates.get(queuedName);
+				if (refreshState != null && nowMillis - refreshState.attemptTimeMillis >= retryMillis)
+				{
+					cardName = queuedName;
+					break locateQueued;
+				}
+			}
+		}
+
+		if (cardName == null)
+		{
+			long oldestValidatedMillis = Long.MAX_VALUE;
+			for (Map.Entry<String, RefreshState> refreshState : refreshStates.entrySet())
+			{
+				RefreshState state = refreshState.getValue();
+				if (state.validatedTimeMillis < oldestValidatedMillis && isNearlyDue(nowMillis - state.validatedTimeMillis)
+						&& nowMillis - state.attemptTimeMillis >= retryMillis)
+				{
+					oldestValidatedMillis = state.validatedTimeMillis;
+					cardName = refreshState.getKey();
+				}
+			}
+		}
+
+		if (cardName != null)
+		{
+			refreshCard(cardName, nowMillis);
+		}
+	}
+
+	private void refreshCard(String cardName, long nowMillis)
+	{
+		RefreshState refreshState = refreshStates.get(cardName);
+		if (refreshState != null)
+		{
+			refreshState.attemptTimeMillis = nowMillis;
+		}
+
+		try
+		{
+			legalityCalculator.refreshCardLegality(Collections.singleton(cardName));
+			refreshCount.incrementAndGet();
+		}
+		catch (RuntimeException e)
+		{
+			refreshFailureCount.incrementAndGet();
+			log.warn("Failed to refresh the legality of card: " + cardName + ", it will be retried later", e);
+		}
+	}
+
+	/**
+	 * When the legality of a card was last confirmed, and when it was last attempted to be refreshed
+	 */
+	private static class RefreshState
+	{
+		private volatile long validatedTimeMillis;
+		private volatile long attemptTimeMillis;
+
+		RefreshState(long validatedTimeMillis)
+		{
+			this.validatedTimeMillis = validatedTimeMillis;
+		}
+	}
+
+	/**
+	 * Creates a daemon refresh thread, so that the scheduler does not keep the JVM alive
+	 */
+	private static class RefreshThreadFactory implements ThreadFactory
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Card Legality Refresher");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.GathererDataScraper;
+import org.randomcoding.mtg.tools.legalitychecker.store.CardLegalityStore;
+
+/**
+ * Loads the legality of a set of cards into the cache of a {@link DeckLegalityCalculator} in the background, so the
+ * first decks checked do not pay for reading or scraping the legality of every card.
+ * <p>
+ * The staple cards are warmed first, then every card held in the legality store of the calculator. The names of the
+ * stored cards are also added to the shared card name index of the scraper. The cards are resolved in batches, in the
+ * same way as the cards of a deck, so any staple that is not in the store is scraped. The progress can be read at any
+ * time, and the warm-up can be cancelled between batches.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LegalityWarmUp
+{
+	private static final Log log = LogFactory.getLog(LegalityWarmUp.class);
+
+	private static final int BATCH_SIZE = 64;
+
+	private final DeckLegalityCalculator legalityCalculator;
+	private final List<String> stapleCardNames;
+	private final CountDownLatch doneLatch = new CountDownLatch(1);
+
+	private final AtomicInteger totalCount = new AtomicInteger();
+	private final AtomicInteger warmedCount = new AtomicInteger();
+	private final AtomicInteger failedCount = new AtomicInteger();
+	private volatile boolean isCancelled;
+	private volatile boolean isFailed;
+
+	/**
+	 * @param legalityCalculator The calculator to warm the cache of
+	 * @param stapleCardNames The names of the most frequently used cards, to warm first
+	 */
+	LegalityWarmUp(DeckLegalityCalculator legalityCalculator, Collection<String> stapleCardNames)
+	{
+		this.legalityCalculator = legalityCalculator;
+		this.stapleCardNames = new ArrayList<String>(stapleCardNames);
+	}
+
+	/**
+	 * Starts warming the cache on a new daemon thread
+	 */
+	void start()
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				warmUp();
+			}
+		}, "Card Legality Warm Up");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the warm-up after the batch in progress. The cards already warmed stay cached.
+	 * <p>
+	 * The warm-up thread is not interrupted, as it may be writing to the legality store, whose file channel is closed
+	 * for everyone if a thread writing to it is interrupted. Use {@link #awaitDone(long, TimeUnit)} to wait for the batch
+	 * in progress to finish.
+	 * </p>
+	 * <p>
+	 * Cancelling a warm-up that is already done does nothing, so it still counts as finished.
+	 * </p>
+	 */
+	public void cancel()
+	{
+		if (!isDone())
+		{
+			isCancelled = true;
+		}
+	}
+
+	/**
+	 * @return {@code true} once the warm-up has finished, been cancelled or failed, so the cache is as warm as it will get
+	 */
+	public boolean isDone()
+	{
+		return doneLatch.getCount() == 0;
+	}
+
+	/**
+	 * @return {@code true} if the warm-up was cancelled before it finished
+	 */
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	/**
+	 * @return {@code true} if the warm-up stopped before it finished because of an unexpected error
+	 */
+	public boolean isFailed()
+	{
+		return isFailed;
+	}
+
+	/**
+	 * Waits for the warm-up to be done
+	 * 
+	 * @param timeout The longest time to wait
+	 * @param timeUnit The unit of the timeout
+	 * @return {@code true} if the warm-up is done, or {@code false} if the wait timed out
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public boolean awaitDone(long timeout, TimeUnit timeUnit) throws InterruptedException
+	{
+		return doneLatch.await(timeout, timeUnit);
+	}
+
+	/**
+	 * @return The number of cards to warm, which is only known once the names of the stored cards have been read
+	 */
+	public int getTotalCount()
+	{
+		return totalCount.get();
+	}
+
+	/**
+	 * @return The number of cards whose legality has been cached
+	 */
+	public int getWarmedCount()
+	{
+		return warmedCount.get();
+	}
+
+	/**
+	 * @return The number of cards whose legality could not be resolved
+	 */
+	public int getFailedCount()
+	{
+		return failedCount.get();
+	}
+
+	/**
+	 * @return The fraction of the cards that have been warmed or have failed, from {@code 0} to {@code 1}
+	 */
+	public double getProgress()
+	{
+		double progress = 1.0;
+
+		if (!isDone())
+		{
+			int total = totalCount.get();
+			progress = total == 0 ? 0.0 : (double) (warmedCount.get() + failedCount.get()) / total;
+		}
+
+		return progress;
+	}
+
+	private void warmUp()
+	{
+		long startMillis = System.currentTimeMillis();
+
+		try
+		{
+			List<String> cardNames = getCardNames();
+			totalCount.set(cardNames.size());
+
+			warmBatches: for (int batchStart = 0; batchStart < cardNames.size(); batchStart += BATCH_SIZE)
+			{
+				if (isCancelled)
+				{
+					break warmBatches;
+				}
+
+				warmBatch(cardNames.subList(batchStart, Math.min(batchStart + BATCH_SIZE, cardNames.size())));
+			}
+
+			log.info("Warmed the legality of " + warmedCount.get() + " cards in " + (System.currentTimeMillis() - startMillis) + "ms, " + failedCount.get()
+					+ " failed" + (isCancelled ? ", cancelled" : ""));
+		}
+		catch (RuntimeException e)
+		{
+			isFailed = true;
+			log.error("Failed to warm the card legality cache", e);
+		}
+		finally
+		{
+			doneLatch.countDown();
+		}
+	}
+
+	/**
+	 * @return The names of the staple cards followed by those of the stored cards, each only once
+	 */
+	private List<String> getCardNames()
+	{
+		Set<String> cardNames = new LinkedHashSet<String>(stapleCardNames);
+		CardLegalityStore store = legalityCalculator.getLegalityStore();
+
+		if (store != null)
+		{
+			try
+			{
+				List<String> storedCardNames = store.getCardNames();
+				GathererDataScraper.getCardNameIndex().addAll(storedCardNames);
+				cardNames.addAll(storedCardNames);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to read the names of the stored cards, only the staple cards will be warmed", e);
+			}
+		}
+
+		return new ArrayList<String>(cardNames);
+	}
+
+	private void warmBatch(List<String> cardNames)
+	{
+		List<MtgCardData> cards = new ArrayList<MtgCardData>(cardNames.size());
+		for (String cardName : cardNames)
+		{
+			cards.add(new MtgCardData(cardName, 0));
+		}
+
+		try
+		{
+			legalityCalculator.resolveCardData(cards);
+			warmedCount.addAndGet(cards.size());
+		}
+		catch (CardLegalityUnavailableException e)
+		{
+			failedCount.addAndGet(e.getCardNames().size());
+			warmedCount.addAndGet(cards.size() - e.getCardNames().size());
+		}
+	}
+}
@@ -10,10 +10,10 @@
  *******************************************************************************/
 package org.randomcoding.mtg.tools.legalitychecker.deck;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.Set;
 
 import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
 import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
@@ -24,39 +24,158 @@ import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
  * This encapsulates its name, the various multiverse associated to the name and the legality restrictions in the
  * different deck formats.
  * </p>
+ * <p>
+ * Card data is immutable. The multiverse ids are held as a sorted array and the legality restrictions are packed into a
+ * single int, {@value #BITS_PER_FORMAT} bits per deck format, so the hash code can be calculated once on creation. The
+ * {@code with} methods return a new card data with the requested change.
+ * </p>
+ * <p>
+ * The card name is interned in the shared {@link CardSymbolTable}, so all card data with the same name share a single
+ * instance of it and the same card id, which is used to compare and index cards. Holding that instance keeps the id
+ * from being given to another name while the card data is in use.
+ * </p>
  * 
  * @author Tym The Enchanter
  */
-public class MtgCardData
+public final class MtgCardData
 {
+	private static final int BITS_PER_FORMAT = 3;
+	private static final int FORMAT_MASK = (1 << BITS_PER_FORMAT) - 1;
+	private static final int[] NO_MULTIVERSE_IDS = new int[0];
+	private static final MagicLegalityRestriction[] RESTRICTIONS = MagicLegalityRestriction.values();
+
+	static
+	{
+		if (MagicDeckFormat.values().length * BITS_PER_FORMAT > Integer.SIZE || RESTRICTIONS.length >= FORMAT_MASK)
+		{
+			throw new IllegalStateException("The format legalities of a card cannot be packed into an int");
+		}
+	}
+
 	private final String cardName;
-	private final Set<Integer> multiverseIds;
-	private final Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality;
+	private final int cardId;
+	private final int[] multiverseIds;
+	private final int packedLegality;
+	private final int hash;
 
 	/**
 	 * @param cardName The name of the card. THis should be the same as it is printed on the actual card
 	 * @param cardMultiverseId The Gatherer Multiverse Id of this card. A named card will have a different Multiverse Id
-	 *            for each printing of the card.
+	 *            for each printing of the card. Ids that are not positive are ignored.
 	 */
 	public MtgCardData(String cardName, int cardMultiverseId)
+	{
+		this(internCardName(cardName), cardMultiverseId > 0 ? new int[] { cardMultiverseId } : NO_MULTIVERSE_IDS, 0);
+	}
+
+	/**
+	 * @param cardName The name of the card. THis should be the same as it is printed on the actual card
+	 * @param multiverseIds The Gatherer Multiverse Ids of this card. Ids that are not positive are ignored.
+	 * @param cardLegality The legality restrictions of the card in the deck formats it is listed for
+	 */
+	public MtgCardData(String cardName, int[] multiverseIds, Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality)
+	{
+		this(internCardName(cardName), normaliseMultiverseIds(multiverseIds), packLegality(cardLegality));
+	}
+
+	/**
+	 * @param cardName The canonical instance of the card name, which keeps the card id from being given to another name
+	 */
+	private MtgCardData(String cardName, int[] multiverseIds, int packedLegality)
+	{
+		this(cardName, cardName == null ? CardSymbolTable.NO_CARD_ID : CardSymbolTable.getSymbolTable().getCardId(cardName), multiverseIds, packedLegality);
+	}
+
+	private MtgCardData(String cardName, int cardId, int[] multiverseIds, int packedLegality)
 	{
 		this.cardName = cardName;
-		multiverseIds = new HashSet<Integer>();
-		cardLegality = new HashMap<MagicDeckFormat, MagicLegalityRestriction>();
-		add(cardMultiverseId);
+		this.cardId = cardId;
+		this.multiverseIds = multiverseIds;
+		this.packedLegality = packedLegality;
+		hash = calculateHashCode();
 	}
 
-	public void add(int multiverseId)
+	/**
+	 * @param multiverseId The multiverse id to add. Ids that are not positive are ignored.
+	 * @return Card data with the additional multiverse id
+	 */
+	public MtgCardData withMultiverseId(int multiverseId)
 	{
-		if (multiverseId > 0)
+		MtgCardData cardData = this;
+
+		if (multiverseId > 0 && !hasMultiverseId(multiverseId))
 		{
-			multiverseIds.add(multiverseId);
+			int[] newMultiverseIds = Arrays.copyOf(multiverseIds, multiverseIds.length + 1);
+			newMultiverseIds[multiverseIds.length] = multiverseId;
+			Arrays.sort(newMultiverseIds);
+			cardData = new MtgCardData(cardName, cardId, newMultiverseIds, packedLegality);
 		}
+
+		return cardData;
 	}
 
-	public void remove(int multiverseId)
+	/**
+	 * @param multiverseId The multiverse id to remove
+	 * @return Card data without the multiverse id
+	 */
+	public MtgCardData withoutMultiverseId(int multiverseId)
 	{
-		multiverseIds.remove(multiverseId);
+		MtgCardData cardData = this;
+		int idIndex = Arrays.binarySearch(multiverseIds, multiverseId);
+
+		if (idIndex >= 0)
+		{
+			int[] newMultiverseIds = new int[multiverseIds.length - 1];
+			System.arraycopy(multiverseIds, 0, newMultiverseIds, 0, idIndex);
+			System.arraycopy(multiverseIds, idIndex + 1, newMultiverseIds, idIndex, newMultiverseIds.length - idIndex);
+			cardData = new MtgCardData(cardName, cardId, newMultiverseIds, packedLegality);
+		}
+
+		return cardData;
+	}
+
+	/**
+	 * @param deckFormat The deck format to set the legality of
+	 * @param legality The legality restriction of the card in the format
+	 * @return Card data with the given legality in the format
+	 */
+	public MtgCardData withFormatLegality(MagicDeckFormat deckFormat, MagicLegalityRestriction legality)
+	{
+		int shift = deckFormat.ordinal() * BITS_PER_FORMAT;
+		int newPackedLegality = (packedLegality & ~(FORMAT_MASK << shift)) | ((legality.ordinal() + 1) << shift);
+
+		return newPackedLegality == packedLegality ? this : new MtgCardData(cardName, cardId, multiverseIds, newPackedLegality);
+	}
+
+	/**
+	 * @param deckFormat The deck format to clear the legality of
+	 * @return Card data that is not listed for the format
+	 */
+	public MtgCardData withoutFormatLegality(MagicDeckFormat deckFormat)
+	{
+		int newPackedLegality = packedLegality & ~(FORMAT_MASK << (deckFormat.ordinal() * BITS_PER_FORMAT));
+
+		return newPackedLegality == packedLegality ? this : new MtgCardData(cardName, cardId, multiverseIds, newPackedLegality);
+	}
+
+	/**
+	 * @param cardLegality The legality restrictions of the card in the deck formats it is listed for
+	 * @return Card data with exactly the given legalities
+	 */
+	public MtgCardData withFormatLegalities(Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality)
+	{
+		int newPackedLegality = packLegality(cardLegality);
+
+		return newPackedLegality == packedLegality ? this : new MtgCardData(cardName, cardId, multiverseIds, newPackedLegality);
+	}
+
+	/**
+	 * @param otherCardData The card data to take the legalities from
+	 * @return Card data with the same legalities as the other card data
+	 */
+	public MtgCardData withFormatLegalitiesOf(MtgCardData otherCardData)
+	{
+		return otherCardData.packedLegality == packedLegality ? this : new MtgCardData(cardName, cardId, multiverseIds, otherCardData.packedLegality);
 	}
 
 	public String getCardName()
@@ -64,30 +183,103 @@ public class MtgCardData
 		return cardName;
 	}
 
-	public Set<Integer> getMultiverseIds()
+	/**
+	 * @return The id of the card name in the shared {@link CardSymbolTable}, or {@link CardSymbolTable#NO_CARD_ID} if the
+	 *         card has no name
+	 */
+	public int getCardId()
+	{
+		return cardId;
+	}
+
+	/**
+	 * @return A copy of the multiverse ids of the card, in ascending order
+	 */
+	public int[] getMultiverseIds()
+	{
+		return multiverseIds.clone();
+	}
+
+	public int getMultiverseIdCount()
+	{
+		return multiverseIds.length;
+	}
+
+	/**
+	 * @return The highest, and so generally most recent, multiverse id of the card, or {@code 0} if it has none
+	 */
+	public int getLatestMultiverseId()
+	{
+		return multiverseIds.length == 0 ? 0 : multiverseIds[multiverseIds.length - 1];
+	}
+
+	public boolean hasMultiverseId(int multiverseId)
 	{
-		return multiverseIds;
+		return Arrays.binarySearch(multiverseIds, multiverseId) >= 0;
 	}
 
-	public void setFormatLegality(MagicDeckFormat deckFormat, MagicLegalityRestriction legality)
+	/**
+	 * @param deckFormat The deck format
+	 * @return The legality restriction of the card in the format, or {@code null} if the card is not listed for it
+	 */
+	public MagicLegalityRestriction getFormatLegality(MagicDeckFormat deckFormat)
 	{
-		cardLegality.put(deckFormat, legality);
+		int legality = (packedLegality >>> (deckFormat.ordinal() * BITS_PER_FORMAT)) & FORMAT_MASK;
+
+		return legality == 0 ? null : RESTRICTIONS[legality - 1];
 	}
 
-	public void clearFormatLegality(MagicDeckFormat deckFormat)
+	/**
+	 * @param restriction The legality restriction
+	 * @return {@code true} if the card has the legality restriction in any deck format
+	 */
+	public boolean hasFormatLegality(MagicLegalityRestriction restriction)
 	{
-		cardLegality.remove(deckFormat);
+		boolean hasLegality = false;
+		int legality = restriction.ordinal() + 1;
+
+		locateLegality: for (int packed = packedLegality; packed != 0; packed >>>= BITS_PER_FORMAT)
+		{
+			if ((packed & FORMAT_MASK) == legality)
+			{
+				hasLegality = true;
+				break locateLegality;
+			}
+		}
+
+		return hasLegality;
 	}
 
+	/**
+	 * @return An unmodifiable map of the deck formats the card is listed for and its legality restriction in each. This
+	 *         is created on each call, so {@link #getFormatLegality(MagicDeckFormat)} should be preferred.
+	 */
 	public Map<MagicDeckFormat, MagicLegalityRestriction> getCardLegality()
 	{
-		return cardLegality;
+		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+
+		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+		{
+			MagicLegalityRestriction legality = getFormatLegality(deckFormat);
+			if (legality != null)
+			{
+				cardLegality.put(deckFormat, legality);
+			}
+		}
+
+		return Collections.unmodifiableMap(cardLegality);
+	}
+
+	/**
+	 * @return The legality restrictions packed {@value #BITS_PER_FORMAT} bits per format, in format ordinal order. Each
+	 *         value is the restriction ordinal plus one, or zero if the card is not listed for the format.
+	 */
+	public int getPackedLegality()
+	{
+		return packedLegality;
 	}
 
 	/**
-	 * Base level equals method for all {@link MtgCardData}s. This is safe to call with {@code super.equals()} as class
-	 * ownership is correctly checked.
-	 * <p>
 	 * {@inheritDoc}
 	 */
 	@Override
@@ -95,27 +287,27 @@ public class MtgCardData
 	{
 		boolean isEquals = true;
 
-		if (other == null || !other.getClass().equals(this.getClass()))
+		if (other == this)
 		{
-			isEquals = false;
+			isEquals = true;
 		}
-		else if (other == this)
+		else if (!(other instanceof MtgCardData))
 		{
-			isEquals = true;
+			isEquals = false;
 		}
 		else
 		{
 			MtgCardData otherCardData = (MtgCardData) other;
 
-			if (!(getCardName() == otherCardData.getCardName() || getCardName() != null && getCardName().equals(otherCardData.getCardName())))
+			if (hash != otherCardData.hash || packedLegality != otherCardData.packedLegality)
 			{
 				isEquals = false;
 			}
-			else if (!(getMultiverseIds() == otherCardData.getMultiverseIds() || getMultiverseIds() != null && getMultiverseIds().equals(otherCardData.getMultiverseIds())))
+			else if (cardId != otherCardData.cardId)
 			{
 				isEquals = false;
 			}
-			else if (!(getCardLegality() == otherCardData.getCardLegality() || getCardLegality() != null && getCardLegality().equals(otherCardData.getCardLegality())))
+			else if (!Arrays.equals(multiverseIds, otherCardData.multiverseIds))
 			{
 				isEquals = false;
 			}
@@ -127,23 +319,6 @@ public class MtgCardData
 	@Override
 	public int hashCode()
 	{
-		int hash = getClass().getName().hashCode();
-
-		if (getCardName() != null)
-		{
-			hash += getCardName().hashCode();
-		}
-
-		if (getMultiverseIds() != null)
-		{
-			hash += getMultiverseIds().hashCode();
-		}
-
-		if (getCardLegality() != null)
-		{
-			hash += getCardLegality().hashCode();
-		}
-
 		return hash;
 	}
 
@@ -156,8 +331,60 @@ public class MtgCardData
 		StringBuilder builder = new StringBuilder();
 		builder.append(getCardName());
 		builder.append(", Multiverse Ids: ");
-		builder.append(getMultiverseIds().toString().replaceAll("[\\[\\]]", "").trim());
+		builder.append(Arrays.toString(multiverseIds).replaceAll("[\\[\\]]", "").trim());
 
 		return builder.toString();
 	}
+
+	private int calculateHashCode()
+	{
+		int hashCode = getClass().getName().hashCode();
+
+		if (cardName != null)
+		{
+			hashCode += cardName.hashCode();
+		}
+
+		hashCode += Arrays.hashCode(multiverseIds);
+		hashCode += packedLegality;
+
+		return hashCode;
+	}
+
+	private static String internCardName(String cardName)
+	{
+		return cardName == null ? null : CardSymbolTable.getSymbolTable().intern(cardName);
+	}
+
+	private static int packLegality(Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality)
+	{
+		int packed = 0;
+
+		for (Map.Entry<MagicDeckFormat, MagicLegalityRestriction> legalityEntry : cardLegality.entrySet())
+		{
+			if (legalityEntry.getValue() != null)
+			{
+				packed |= (legalityEntry.getValue().ordinal() + 1) << (legalityEntry.getKey().ordinal() * BITS_PER_FORMAT);
+			}
+		}
+
+		return packed;
+	}
+
+	private static int[] normaliseMultiverseIds(int[] multiverseIds)
+	{
+		int[] sortedIds = multiverseIds.clone();
+		Arrays.sort(sortedIds);
+
+		int distinctCount = 0;
+		for (int i = 0; i < sortedIds.length; i++)
+		{
+			if (sortedIds[i] > 0 && (distinctCount == 0 || sortedIds[distinctCount - 1] != sortedIds[i]))
+			{
+				sortedIds[distinctCount++] = sortedIds[i];
+			}
+		}
+
+		return distinctCount == sortedIds.length ? sortedIds : Arrays.copyOf(sortedIds, distinctCount);
+	}
 }
@@ -11,31 +11,43 @@
 package org.randomcoding.mtg.tools.legalitychecker.deck;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.randomcoding.mtg.tools.legalitychecker.scraper.GathererDataScraper;
 
 /**
  * A Class to represent simple data for a MTG deck
+ * <p>
+ * The cards are indexed by their id in the shared {@link CardSymbolTable}, rather than by name, so looking up, adding
+ * and counting a card takes constant time and a deck holds no strings or map entries of its own for its cards.
+ * </p>
+ * <p>
+ * Any {@link MtgDeckListener}s are notified of each change to the cards in the deck.
+ * </p>
  * 
  * @author Tym The Enchanter
  */
 public class MtgDeck
 {
 	private final String deckName;
-	private final Map<MtgCardData, Integer> cardsAndCount;
-	private GathererDataScraper dataScraper;
+	private final CardIdMap<DeckCard> cardsById;
+	private final Set<MtgCardData> cardData;
+	private final List<MtgDeckListener> deckListeners = new CopyOnWriteArrayList<MtgDeckListener>();
 
 	public MtgDeck(String deckName)
 	{
 		this.deckName = deckName;
-		cardsAndCount = new HashMap<MtgCardData, Integer>();
+		cardsById = new CardIdMap<DeckCard>();
+		cardData = new CardDataSet();
 	}
 
 	/**
-	 * Adds the named card to the deck. This method will first query the Gatherer for the card's Multiverse Id
+	 * Adds the named card to the deck. This method will first query the Gatherer for the card's Multiverse Id, unless
+	 * it is already held in the scraper's shared {@link org.randomcoding.mtg.tools.legalitychecker.scraper.MultiverseIdMemo}
 	 * <p>
 	 * As there cannot be any more that four copies of a given card in a deck, this method will limit the number of
 	 * copies to 4.
@@ -64,44 +76,107 @@ public class MtgDeck
 	 */
 	public void add(String cardName, int cardMultiverseId, int cardCount)
 	{
-		if (cardCount > 0 && cardMultiverseId > 0)
+		if (cardMultiverseId > 0)
 		{
-			MtgCardData cardData = getCardData(cardName);
+			add(new MtgCardData(cardName, cardMultiverseId), cardCount);
+		}
+	}
+
+	/**
+	 * Adds the given number of copies of a card to the deck, without needing its multiverse id to be known. If the card
+	 * has already been added then the current count is added to the new count and its card data is left as it is.
+	 * <p>
+	 * This allows the cards of a deck to be read from a decklist without querying the Gatherer for each of them, as the
+	 * legality of a card is resolved by its name.
+	 * </p>
+	 * 
+	 * @param cardData The data of the card to add
+	 * @param cardCount The number of copies of this card to add to the deck
+	 */
+	public void add(MtgCardData cardData, int cardCount)
+	{
+		if (cardCount > 0)
+		{
+			DeckCard deckCard = cardsById.get(cardData.getCardId());
 
-			if (cardData == null)
+			if (deckCard == null)
 			{
-				cardData = new MtgCardData(cardName, cardMultiverseId);
+				deckCard = new DeckCard(cardData, cardCount);
+				cardsById.put(cardData.getCardId(), deckCard);
+				fireCardAdded(deckCard);
+			}
+			else
+			{
+				int previousCount = deckCard.count;
+				deckCard.count += cardCount;
+				fireCardCountChanged(deckCard, previousCount);
 			}
-
-			updateCardCount(cardData, cardCount);
 		}
 	}
 
 	/**
-	 * @param cardName The name of the card to get the count of
-	 * @return The number of copies of the given card currently in this Deck
+	 * Removes the given number of copies of a card from the deck. If no copies are left the card is removed entirely.
+	 * 
+	 * @param cardName The name of the card, as it is printed
+	 * @param cardCount The number of copies of this card to remove from the deck
 	 */
-	public int getCardCount(String cardName)
+	public void remove(String cardName, int cardCount)
 	{
-		int cardCount = -1;
-		locateNamedCard: for (Map.Entry<MtgCardData, Integer> cardCountEntry : cardsAndCount.entrySet())
+		DeckCard deckCard = getDeckCard(cardName);
+
+		if (cardCount > 0 && deckCard != null)
 		{
-			if (cardCountEntry.getKey().getCardName().equals(cardName))
+			int previousCount = deckCard.count;
+
+			if (previousCount <= cardCount)
+			{
+				cardsById.remove(deckCard.cardData.getCardId());
+				for (MtgDeckListener deckListener : deckListeners)
+				{
+					deckListener.cardRemoved(this, deckCard.cardData, previousCount);
+				}
+			}
+			else
 			{
-				cardCount = cardCountEntry.getValue();
-				break locateNamedCard;
+				deckCard.count -= cardCount;
+				fireCardCountChanged(deckCard, previousCount);
 			}
 		}
+	}
+
+	/**
+	 * @param deckListener The listener to notify of changes to the cards in this deck
+	 */
+	public void addDeckListener(MtgDeckListener deckListener)
+	{
+		deckListeners.add(deckListener);
+	}
+
+	/**
+	 * @param deckListener The listener to stop notifying of changes to the cards in this deck
+	 */
+	public void removeDeckListener(MtgDeckListener deckListener)
+	{
+		deckListeners.remove(deckListener);
+	}
 
-		return cardCount;
+	/**
+	 * @param cardName The name of the card to get the count of
+	 * @return The number of copies of the given card currently in this Deck, or {@code -1} if the card is not in the deck
+	 */
+	public int getCardCount(String cardName)
+	{
+		DeckCard deckCard = getDeckCard(cardName);
+
+		return deckCard == null ? -1 : deckCard.count;
 	}
 
 	/**
-	 * @return The individual {@link MtgCardData} that currently make up this deck
+	 * @return The individual {@link MtgCardData} that currently make up this deck. This is a read only view of the deck.
 	 */
 	public Set<MtgCardData> getCardData()
 	{
-		return cardsAndCount.keySet();
+		return cardData;
 	}
 
 	/**
@@ -120,48 +195,144 @@ public class MtgDeck
 	 */
 	public MtgCardData getCardData(String cardName)
 	{
-		MtgCardData cardData = null;
+		DeckCard deckCard = getDeckCard(cardName);
+
+		return deckCard == null ? null : deckCard.cardData;
+	}
 
-		locatdCardData: for (MtgCardData mtgCardData : cardsAndCount.keySet())
+	/**
+	 * Replaces the card data of this deck with card data that has the legalities of the matching named resolved card
+	 * data. Cards without resolved card data are left as they are.
+	 * 
+	 * @param resolvedCardData The card data with resolved legalities, indexed by card id
+	 */
+	void applyFormatLegalities(CardIdMap<MtgCardData> resolvedCardData)
+	{
+		for (int index = 0; index < cardsById.size(); index++)
 		{
-			if (mtgCardData.getCardName().equals(cardName))
+			DeckCard deckCard = cardsById.valueAt(index);
+			MtgCardData resolvedCard = resolvedCardData.get(cardsById.cardIdAt(index));
+			if (resolvedCard != null)
 			{
-				cardData = mtgCardData;
-				break locatdCardData;
+				MtgCardData previousCardData = deckCard.cardData;
+				deckCard.cardData = previousCardData.withFormatLegalitiesOf(resolvedCard);
+
+				if (deckCard.cardData != previousCardData)
+				{
+					for (MtgDeckListener deckListener : deckListeners)
+					{
+						deckListener.cardDataChanged(this, previousCardData, deckCard.cardData, deckCard.count);
+					}
+				}
 			}
 		}
-
-		return cardData;
 	}
 
 	/**
-	 * Lazy loader for the data scraper
+	 * Looks the card up by its id, without interning the name if no card has it. The name of the card found is checked,
+	 * as the id of a name no card data has any more can be given to another name.
 	 */
-	private GathererDataScraper getDataScraper()
+	private DeckCard getDeckCard(String cardName)
+	{
+		int cardId = CardSymbolTable.getSymbolTable().getCardId(cardName);
+		DeckCard deckCard = cardId == CardSymbolTable.NO_CARD_ID ? null : cardsById.get(cardId);
+
+		return deckCard != null && deckCard.cardData.getCardName().equals(cardName) ? deckCard : null;
+	}
+
+	private int getMultiverseId(String cardName) throws IOException
+	{
+		return GathererDataScraper.getSharedScraper().getMultiverseId(cardName);
+	}
+
+	private void fireCardAdded(DeckCard deckCard)
 	{
-		if (dataScraper == null)
+		for (MtgDeckListener deckListener : deckListeners)
 		{
-			dataScraper = new GathererDataScraper();
+			deckListener.cardAdded(this, deckCard.cardData, deckCard.count);
 		}
+	}
 
-		return dataScraper;
+	private void fireCardCountChanged(DeckCard deckCard, int previousCount)
+	{
+		for (MtgDeckListener deckListener : deckListeners)
+		{
+			deckListener.cardCountChanged(this, deckCard.cardData, previousCount, deckCard.count);
+		}
 	}
 
-	private int getMultiverseId(String cardName) throws IOException
+	/**
+	 * @return The cards of the deck and the number of copies of each
+	 */
+	Iterable<DeckCard> getDeckCards()
+	{
+		return cardsById.values();
+	}
+
+	/**
+	 * A card in the deck and the number of copies of it
+	 */
+	static class DeckCard
 	{
-		return getDataScraper().getMultiverseId(cardName);
+		private MtgCardData cardData;
+		private int count;
+
+		DeckCard(MtgCardData cardData, int count)
+		{
+			this.cardData = cardData;
+			this.count = count;
+		}
+
+		MtgCardData getCardData()
+		{
+			return cardData;
+		}
+
+		int getCount()
+		{
+			return count;
+		}
 	}
 
-	private void updateCardCount(MtgCardData cardData, int cardCount)
+	/**
+	 * Read only view of the card data of the deck
+	 */
+	private class CardDataSet extends AbstractSet<MtgCardData>
 	{
-		if (cardsAndCount.get(cardData) == null)
+		@Override
+		public Iterator<MtgCardData> iterator()
 		{
-			cardsAndCount.put(cardData, cardCount);
+			final Iterator<DeckCard> deckCards = cardsById.values().iterator();
+
+			return new Iterator<MtgCardData>()
+			{
+				public boolean hasNext()
+				{
+					return deckCards.hasNext();
+				}
+
+				public MtgCardData next()
+				{
+					return deckCards.next().cardData;
+				}
+
+				public void remove()
+				{
+					throw new UnsupportedOperationException("The card data of a deck cannot be removed through its view");
+				}
+			};
 		}
-		else
+
+		@Override
+		public int size()
+		{
+			return cardsById.size();
+		}
+
+		@Override
+		public boolean contains(Object other)
 		{
-			int newCount = (cardsAndCount.get(cardData) + cardCount);
-			cardsAndCount.put(cardData, newCount);
+			return other instanceof MtgCardData && other.equals(getCardData(((MtgCardData) other).getCardName()));
 		}
 	}
 }
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.deck;
+
+/**
+ * Listener for changes to the cards in a {@link MtgDeck}.
+ * <p>
+ * Listeners are notified on the thread that changed the deck, after the change has been made.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public interface MtgDeckListener
+{
+	/**
+	 * @param deck The deck the card was added to
+	 * @param cardData The card data of the card that was added
+	 * @param cardCount The number of copies of the card now in the deck
+	 */
+	void cardAdded(MtgDeck deck, MtgCardData cardData, int cardCount);
+
+	/**
+	 * @param deck The deck the card was removed from
+	 * @param cardData The card data of the card that was removed
+	 * @param previousCardCount The number of copies of the card that were in the deck
+	 */
+	void cardRemoved(MtgDeck deck, MtgCardData cardData, int previousCardCount);
+
+	/**
+	 * @param deck The deck containing the card
+	 * @param cardData The card data of the card whose number of copies changed
+	 * @param previousCardCount The number of copies of the card that were in the deck
+	 * @param cardCount The number of copies of the card now in the deck
+	 */
+	void cardCountChanged(MtgDeck deck, MtgCardData cardData, int previousCardCount, int cardCount);
+
+	/**
+	 * Notification that the card data of a card has been replaced, for example when its legalities have been resolved.
+	 * 
+	 * @param deck The deck containing the card
+	 * @param previousCardData The card data that was replaced
+	 * @param cardData The new card data
+	 * @param cardCount The number of copies of the card in the deck
+	 */
+	void cardDataChanged(MtgDeck deck, MtgCardData previousCardData, MtgCardData cardData, int cardCount);
+}
@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.decklist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.legalitychecker.deck.CardLegalityUnavailableException;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckLegalityCalculator;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckVerdict;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * Checks the legality of every deck in a decklist, with each stage of the check running on its own thread(s):
+ * <ol>
+ * <li>Parse - Decks are read from the decklist one at a time</li>
+ * <li>Resolve - The card legalities of batches of decks are resolved together, so the cards they share are looked up
+ * once and any that need to be scraped are scraped in parallel</li>
+ * <li>Check - The legality of each resolved deck is evaluated and explained, on a thread per processor</li>
+ * <li>Sink - The result of each deck is passed to a {@link DeckCheckSink}</li>
+ * </ol>
+ * <p>
+ * The stages are joined by bounded queues, so a stage that gets ahead of the next one waits for it rather than
+ * buffering. Only the decks in the queues and in the batch being resolved are held in memory, however many decks the
+ * decklist holds. The decks are passed to the sink in no particular order.
+ * </p>
+ * <p>
+ * The stage threads are never interrupted, as the resolve stage may be writing to the legality store, whose file channel
+ * is closed for everyone if a thread writing to it is interrupted. If the pipeline is stopped early, each stage instead
+ * stops the next time it waits on a queue.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class DeckCheckPipeline
+{
+	private static final Log log = LogFactory.getLog(DeckCheckPipeline.class);
+
+	/**
+	 * The default capacity of the queue between each stage
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	/**
+	 * The default maximum number of decks to resolve the card legalities of together
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/**
+	 * How often, in milliseconds, a stage waiting on a queue checks whether the pipeline has been stopped
+	 */
+	private static final long STOP_CHECK_MILLIS = 100;
+
+	private static final ParsedDecklist END_OF_DECKLISTS = new ParsedDecklist(null, 0, Collections.<String, Integer> emptyMap(), Collections.<String, Integer> emptyMap());
+
+	private final DeckLegalityCalculator legalityCalculator;
+	private final int queueCapacity;
+	private final int batchSize;
+	private final int checkerCount;
+
+	/**
+	 * Creates a pipeline with the default queue capacity and batch size, and a check thread per processor
+	 * 
+	 * @param legalityCalculator The calculator to resolve and evaluate deck legality with
+	 */
+	public DeckCheckPipeline(DeckLegalityCalculator legalityCalculator)
+	{
+		this(legalityCalculator, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param legalityCalculator The calculator to resolve and evaluate deck legality with
+	 * @param queueCapacity The capacity of the queue between each stage
+	 * @param batchSize The maximum number of decks to resolve the card legalities of together
+	 * @param checkerCount The number of threads to evaluate deck legality on
+	 */
+	public DeckCheckPipeline(DeckLegalityCalculator legalityCalculator, int queueCapacity, int batchSize, int checkerCount)
+	{
+		if (queueCapacity < 1 || batchSize < 1 || checkerCount < 1)
+		{
+			throw new IllegalArgumentException("The queue capacity, batch size and checker count must all be at least one");
+		}
+
+		this.legalityCalculator = legalityCalculator;
+		this.queueCapacity = queueCapacity;
+		this.batchSize = batchSize;
+		this.checkerCount = checkerCount;
+	}
+
+	/**
+	 * Checks every deck in a decklist, waiting until the result of each has been passed to the sink.
+	 * 
+	 * @param parser The parser of the decklist
+	 * @param sink The sink to pass the result of each deck to
+	 * @return The number of decks checked
+	 * @throws IOException If the decklist could not be read. All the decks read before the failure are still checked.
+	 * @throws InterruptedException If interrupted while waiting, in which case every stage is stopped
+	 */
+	public int run(final DecklistParser parser, final DeckCheckSink sink) throws IOException, InterruptedException
+	{
+		AtomicBoolean isStopped = new AtomicBoolean();
+		final StageQueue<ParsedDecklist> parsedDecks = new StageQueue<ParsedDecklist>(queueCapacity, isStopped);
+		final StageQueue<DeckCheck> resolvedDecks = new StageQueue<DeckCheck>(queueCapacity, isStopped);
+		final StageQueue<DeckCheck> checkedDecks = new StageQueue<DeckCheck>(queueCapacity, isStopped);
+		final AtomicInteger runningCheckers = new AtomicInteger(checkerCount);
+		final IOException[] parseFailure = new IOException[1];
+
+		ExecutorService stageExecutor = Executors.newFixedThreadPool(checkerCount + 3, new StageThreadFactory());
+		CompletionService<Integer> stages = new ExecutorCompletionService<Integer>(stageExecutor);
+
+		stages.submit(new Callable<Integer>()
+		{
+			public Integer call() throws InterruptedException
+			{
+				return parseDecks(parser, parsedDecks, parseFailure);
+			}
+		});
+		stages.submit(new Callable<Integer>()
+		{
+			public Integer call() throws InterruptedException
+			{
+				return resolveDecks(parsedDecks, resolvedDecks);
+			}
+		});
+		for (int i = 0; i < checkerCount; i++)
+		{
+			stages.submit(new Callable<Integer>()
+			{
+				public Integer call() throws InterruptedException
+				{
+					return checkDecks(resolvedDecks, checkedDecks, runningCheckers);
+				}
+			});
+		}
+		Future<Integer> sinkStage = stages.submit(new Callable<Integer>()
+		{
+			public Integer call() throws InterruptedException
+			{
+				return sinkDecks(checkedDecks, sink);
+			}
+		});
+
+		int deckCount = 0;
+		try
+		{
+			for (int i = 0; i < checkerCount + 3; i++)
+			{
+				stages.take().get();
+			}
+			deckCount = sinkStage.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("A deck check pipeline stage failed", e.getCause());
+		}
+		finally
+		{
+			isStopped.set(true);
+			stageExecutor.shutdown();
+		}
+
+		if (parseFailure[0] != null)
+		{
+			throw parseFailure[0];
+		}
+
+		return deckCount;
+	}
+
+	private int parseDecks(DecklistParser parser, StageQueue<ParsedDecklist> parsedDecks, IOException[] parseFailure) throws InterruptedException
+	{
+		int deckCount = 0;
+
+		try
+		{
+			ParsedDecklist decklist = parser.next();
+			while (decklist != null)
+			{
+				parsedDecks.put(decklist);
+				deckCount++;
+				decklist = parser.next();
+			}
+		}
+		catch (IOException e)
+		{
+			log.error("Failed to read the decklist after " + deckCount + " decks, at line " + parser.getLineNumber(), e);
+			parseFailure[0] = e;
+		}
+
+		parsedDecks.put(END_OF_DECKLISTS);
+
+		return deckCount;
+	}
+
+	private int resolveDecks(StageQueue<ParsedDecklist> parsedDecks, StageQueue<DeckCheck> resolvedDecks) throws InterruptedException
+	{
+		int deckCount = 0;
+		boolean isEndOfDecklists = false;
+		List<ParsedDecklist> batch = new ArrayList<ParsedDecklist>(batchSize);
+
+		while (!isEndOfDecklists)
+		{
+			batch.add(parsedDecks.take());
+			parsedDecks.drainTo(batch, batchSize - 1);
+
+			isEndOfDecklists = batch.get(batch.size() - 1) == END_OF_DECKLISTS;
+			if (isEndOfDecklists)
+			{
+				batch.remove(batch.size() - 1);
+			}
+
+			resolveBatch(batch, resolvedDecks);
+			deckCount += batch.size();
+			batch.clear();
+		}
+
+		resolvedDecks.put(DeckCheck.END_OF_DECKS);
+
+		return deckCount;
+	}
+
+	/**
+	 * Resolves the card legalities of a batch of decks together. If some cards cannot be resolved then the decks
+	 * containing them are passed on as unavailable, and the rest of the batch is resolved again, from the cache.
+	 */
+	private void resolveBatch(List<ParsedDecklist> batch, StageQueue<DeckCheck> resolvedDecks) throws InterruptedException
+	{
+		List<DeckCheck> pendingChecks = new ArrayList<DeckCheck>(batch.size());
+		for (ParsedDecklist decklist : batch)
+		{
+			pendingChecks.add(new DeckCheck(decklist, decklist.toDeck()));
+		}
+
+		while (!pendingChecks.isEmpty())
+		{
+			List<MtgDeck> decks = new ArrayList<MtgDeck>(pendingChecks.size());
+			for (DeckCheck deckCheck : pendingChecks)
+			{
+				decks.add(deckCheck.deck);
+			}
+
+			try
+			{
+				legalityCalculator.resolveDecks(decks);
+				for (DeckCheck deckCheck : pendingChecks)
+				{
+					resolvedDecks.put(deckCheck);
+				}
+				pendingChecks.clear();
+			}
+			catch (CardLegalityUnavailableException e)
+			{
+				List<DeckCheck> availableChecks = new ArrayList<DeckCheck>(pendingChecks.size());
+				for (DeckCheck deckCheck : pendingChecks)
+				{
+					Map<String, Throwable> deckFailures = getDeckFailures(deckCheck.deck, e.getCardFailures());
+					if (deckFailures.isEmpty())
+					{
+						availableChecks.add(deckCheck);
+					}
+					else
+					{
+						deckCheck.unavailable = new CardLegalityUnavailableException(deckFailures);
+						resolvedDecks.put(deckCheck);
+					}
+				}
+				pendingChecks = availableChecks;
+			}
+		}
+	}
+
+	private Map<String, Throwable> getDeckFailures(MtgDeck deck, Map<String, Throwable> cardFailures)
+	{
+		Map<String, Throwable> deckFailures = new LinkedHashMap<String, Throwable>();
+
+		for (MtgCardData cardData : deck.getCardData())
+		{
+			Throwable cardFailure = cardFailures.get(cardData.getCardName());
+			if (cardFailure != null)
+			{
+				deckFailures.put(cardData.getCardName(), cardFailure);
+			}
+		}
+
+		return deckFailures;
+	}
+
+	/**
+	 * Evaluates resolved decks until the end of the decks. The end marker is put back for the other checkers, and the
+	 * last checker to finish passes it on to the sink.
+	 */
+	private int checkDecks(StageQueue<DeckCheck> resolvedDecks, StageQueue<DeckCheck> checkedDecks, AtomicInteger runningCheckers) throws InterruptedException
+	{
+		int deckCount = 0;
+		DeckCheck deckCheck = resolvedDecks.take();
+
+		while (deckCheck != DeckCheck.END_OF_DECKS)
+		{
+			if (deckCheck.unavailable == null)
+			{
+				deckCheck.deckVerdict = legalityCalculator.checkResolvedDeck(deckCheck.deck);
+			}
+			checkedDecks.put(deckCheck);
+			deckCount++;
+			deckCheck = resolvedDecks.take();
+		}
+
+		resolvedDecks.put(DeckCheck.END_OF_DECKS);
+		if (runningCheckers.decrementAndGet() == 0)
+		{
+			checkedDecks.put(DeckCheck.END_OF_DECKS);
+		}
+
+		return deckCount;
+	}
+
+	private int sinkDecks(StageQueue<DeckCheck> checkedDecks, DeckCheckSink sink) throws InterruptedException
+	{
+		int deckCount = 0;
+		DeckCheck deckCheck = checkedDecks.take();
+
+		while (deckCheck != DeckCheck.END_OF_DECKS)
+		{
+			if (deckCheck.unavailable == null)
+			{
+				sink.deckChecked(deckCheck.decklist, deckCheck.deck, deckCheck.deckVerdict);
+			}
+			else
+			{
+				sink.deckUnavailable(deckCheck.decklist, deckCheck.unavailable);
+			}
+			deckCount++;
+			deckCheck = checkedDecks.take();
+		}
+
+		return deckCount;
+	}
+
+	/**
+	 * A deck as it passes through the pipeline. Each stage hands the deck on through a blocking queue, so the fields set
+	 * by one stage are visible to the next.
+	 */
+	private static class DeckCheck
+	{
+		private static final DeckCheck END_OF_DECKS = new DeckCheck(null, null);
+
+		private final ParsedDecklist decklist;
+		private final MtgDeck deck;
+		private DeckVerdict deckVerdict;
+		private CardLegalityUnavailableException unavailable;
+
+		DeckCheck(ParsedDecklist decklist, MtgDeck deck)
+		{
+			this.decklist = decklist;
+			this.deck = deck;
+		}
+	}
+
+	/**
+	 * A bounded queue between two stages, whose waits end early with a {@link CancellationException} once the pipeline
+	 * has been stopped
+	 */
+	private static class StageQueue<E>
+	{
+		private final BlockingQueue<E> queue;
+		private final AtomicBoolean isStopped;
+
+		StageQueue(int capacity, AtomicBoolean isStopped)
+		{
+			queue = new ArrayBlockingQueue<E>(capacity);
+			this.isStopped = isStopped;
+		}
+
+		void put(E element) throws InterruptedException
+		{
+			while (!queue.offer(element, STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS))
+			{
+				checkStopped();
+			}
+		}
+
+		E take() throws InterruptedException
+		{
+			E element = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			while (element == null)
+			{
+				checkStopped();
+				element = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			}
+
+			return element;
+		}
+
+		int drainTo(Collection<? super E> elements, int maximumElements)
+		{
+			return queue.drainTo(elements, maximumElements);
+		}
+
+		private void checkStopped()
+		{
+			if (isStopped.get())
+			{
+				throw new CancellationException("The deck check pipeline was stopped");
+			}
+		}
+	}
+
+	/**
+	 * Creates daemon stage threads, so that a pipeline that is abandoned does not keep the JVM alive
+	 */
+	private static class StageThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Deck Check Pipeline " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.decklist;
+
+import org.randomcoding.mtg.tools.legalitychecker.deck.CardLegalityUnavailableException;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckVerdict;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * Receives the result of checking each deck that passes through a {@link DeckCheckPipeline}.
+ * <p>
+ * A sink is only ever called from the single sink thread of the pipeline, so it does not need to be thread safe, but
+ * the pipeline can only move as fast as the sink consumes the results.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public interface DeckCheckSink
+{
+	/**
+	 * @param decklist The deck as it was read from the decklist
+	 * @param deck The deck that was checked, with the resolved legalities of its cards
+	 * @param deckVerdict The legality of the deck in each format and the reasons behind it, flagged if any of it is stale
+	 */
+	void deckChecked(ParsedDecklist decklist, MtgDeck deck, DeckVerdict deckVerdict);
+
+	/**
+	 * @param decklist The deck as it was read from the decklist
+	 * @param exception The failure to resolve the legality of the cards of the deck
+	 */
+	void deckUnavailable(ParsedDecklist decklist, CardLegalityUnavailableException exception);
+}
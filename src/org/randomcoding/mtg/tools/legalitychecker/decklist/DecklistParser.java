@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.decklist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads decks from a plain text decklist one at a time, so any number of decks can be read in constant memory.
+ * <p>
+ * Each card is listed on its own line as a count followed by the card name, such as <em>4 Lightning Bolt</em> or
+ * <em>4x Lightning Bolt</em>. Cards are in the main deck until one of:
+ * <ul>
+ * <li>A <em>Sideboard</em> line, after which the cards are in the sideboard</li>
+ * <li>A blank line after main deck cards, as decklists saved by Magic Online separate the sideboard that way</li>
+ * </ul>
+ * A single card line can also be put in the sideboard by prefixing it with <em>SB:</em>.
+ * </p>
+ * <p>
+ * A file may hold many decks, each starting with a line of either <em>Deck: name</em> or <em>[name]</em>. Cards listed
+ * before the first such line make up a deck with the default name. Lines starting with <em>#</em> or <em>//</em> are
+ * comments, and lines that cannot be read are logged and skipped.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class DecklistParser
+{
+	private static final Log log = LogFactory.getLog(DecklistParser.class);
+
+	private static final String DECK_HEADER_PREFIX = "deck:";
+	private static final String SIDEBOARD_LINE_PREFIX = "sb:";
+	private static final String SIDEBOARD_HEADER = "sideboard";
+
+	private final BufferedReader reader;
+	private final String defaultDeckName;
+
+	private String nextDeckName;
+	private int nextDeckLineNumber = 1;
+	private int lineNumber;
+	private boolean isEndOfList;
+
+	/**
+	 * @param decklistReader The reader of the decklist. This is not closed by the parser.
+	 * @param defaultDeckName The name of any deck that is not given a name in the decklist, such as the name of the file
+	 */
+	public DecklistParser(Reader decklistReader, String defaultDeckName)
+	{
+		reader = new BufferedReader(decklistReader);
+		this.defaultDeckName = defaultDeckName;
+	}
+
+	/**
+	 * Reads the next deck from the decklist.
+	 * 
+	 * @return The next deck, or {@code null} if there are no more decks
+	 * @throws IOException If the decklist cannot be read
+	 */
+	public ParsedDecklist next() throws IOException
+	{
+		ParsedDecklist decklist = null;
+
+		while (decklist == null && !isEndOfList)
+		{
+			decklist = readDeck();
+		}
+
+		return decklist;
+	}
+
+	/**
+	 * @return The number of lines read so far
+	 */
+	public int getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * Reads lines up to the start of the next deck or the end of the list
+	 * 
+	 * @return The deck read, or {@code null} if it had no cards
+	 */
+	private ParsedDecklist readDeck() throws IOException
+	{
+		String deckName = nextDeckName;
+		int deckLineNumber = nextDeckLineNumber;
+		Map<String, Integer> mainDeck = new LinkedHashMap<String, Integer>();
+		Map<String, Integer> sideboard = new LinkedHashMap<String, Integer>();
+		boolean inSideboard = false;
+		boolean isAfterBlankLine = false;
+
+		String line = reader.readLine();
+		readLines: while (line != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			String lowerCaseLine = line.toLowerCase();
+
+			if (line.length() == 0)
+			{
+				isAfterBlankLine = !mainDeck.isEmpty();
+			}
+			else if (line.startsWith("#") || line.startsWith("//"))
+			{
+				// skip comments
+			}
+			else if (lowerCaseLine.startsWith(DECK_HEADER_PREFIX) || line.startsWith("[") && line.endsWith("]"))
+			{
+				nextDeckName = lowerCaseLine.startsWith(DECK_HEADER_PREFIX) ? line.substring(DECK_HEADER_PREFIX.length()).trim() : line.substring(1, line.length() - 1).trim();
+				nextDeckLineNumber = lineNumber;
+				if (!mainDeck.isEmpty() || !sideboard.isEmpty())
+				{
+					break readLines;
+				}
+				deckName = nextDeckName;
+				deckLineNumber = nextDeckLineNumber;
+			}
+			else if (lowerCaseLine.equals(SIDEBOARD_HEADER) || lowerCaseLine.equals(SIDEBOARD_HEADER + ":"))
+			{
+				inSideboard = true;
+			}
+			else if (lowerCaseLine.startsWith(SIDEBOARD_LINE_PREFIX))
+			{
+				addCard(line.substring(SIDEBOARD_LINE_PREFIX.length()).trim(), sideboard);
+			}
+			else
+			{
+				inSideboard |= isAfterBlankLine;
+				addCard(line, inSideboard ? sideboard : mainDeck);
+				isAfterBlankLine = false;
+			}
+
+			line = reader.readLine();
+		}
+		isEndOfList = line == null;
+
+		ParsedDecklist decklist = null;
+		if (!mainDeck.isEmpty() || !sideboard.isEmpty())
+		{
+			decklist = new ParsedDecklist(deckName == null || deckName.length() == 0 ? defaultDeckName : deckName, deckLineNumber, mainDeck, sideboard);
+		}
+
+		return decklist;
+	}
+
+	/**
+	 * Adds the count and name on a card line to a part of the deck, adding to the count if the card is already listed
+	 */
+	private void addCard(String cardLine, Map<String, Integer> deckPart)
+	{
+		int countEnd = 0;
+		while (countEnd < cardLine.length() && Character.isDigit(cardLine.charAt(countEnd)))
+		{
+			countEnd++;
+		}
+
+		int nameStart = countEnd;
+		if (nameStart < cardLine.length() && (cardLine.charAt(nameStart) == 'x' || cardLine.charAt(nameStart) == 'X'))
+		{
+			nameStart++;
+		}
+
+		String cardName = cardLine.substring(nameStart).trim();
+		if (countEnd == 0 || countEnd > 4 || nameStart == countEnd && nameStart < cardLine.length() && !Character.isWhitespace(cardLine.charAt(nameStart))
+				|| cardName.length() == 0)
+		{
+			log.warn("Skipping unreadable decklist line " + lineNumber + ": " + cardLine);
+		}
+		else
+		{
+			int cardCount = Integer.parseInt(cardLine.substring(0, countEnd));
+			Integer currentCount = deckPart.get(cardName);
+			deckPart.put(cardName, currentCount == null ? cardCount : currentCount + cardCount);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.decklist;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgDeck;
+
+/**
+ * A single deck read from a decklist, as the card names and counts of its main deck and sideboard.
+ * 
+ * @author Tym The Enchanter
+ */
+public final class ParsedDecklist
+{
+	private final String deckName;
+	private final int lineNumber;
+	private final Map<String, Integer> mainDeck;
+	private final Map<String, Integer> sideboard;
+
+	/**
+	 * @param deckName The name of the deck
+	 * @param lineNumber The line of the decklist that the deck starts on
+	 * @param mainDeck The count of each card in the main deck, in the order they were listed
+	 * @param sideboard The count of each card in the sideboard, in the order they were listed
+	 */
+	ParsedDecklist(String deckName, int lineNumber, Map<String, Integer> mainDeck, Map<String, Integer> sideboard)
+	{
+		this.deckName = deckName;
+		this.lineNumber = lineNumber;
+		this.mainDeck = Collections.unmodifiableMap(mainDeck);
+		this.sideboard = Collections.unmodifiableMap(sideboard);
+	}
+
+	public String getDeckName()
+	{
+		return deckName;
+	}
+
+	/**
+	 * @return The line of the decklist that the deck starts on, counting from one
+	 */
+	public int getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * @return The count of each card in the main deck, in the order they were listed
+	 */
+	public Map<String, Integer> getMainDeck()
+	{
+		return mainDeck;
+	}
+
+	/**
+	 * @return The count of each card in the sideboard, in the order they were listed
+	 */
+	public Map<String, Integer> getSideboard()
+	{
+		return sideboard;
+	}
+
+	/**
+	 * Creates a deck to check the legality of. The main deck and sideboard are combined, as the limit on copies of a card
+	 * and the ban and restricted lists apply to both. The multiverse ids of the cards are not looked up.
+	 * 
+	 * @return A new deck of all the cards in the decklist
+	 */
+	public MtgDeck toDeck()
+	{
+		Map<String, Integer> allCards = new LinkedHashMap<String, Integer>(mainDeck);
+		for (Map.Entry<String, Integer> sideboardCard : sideboard.entrySet())
+		{
+			Integer mainDeckCount = allCards.get(sideboardCard.getKey());
+			allCards.put(sideboardCard.getKey(), mainDeckCount == null ? sideboardCard.getValue() : mainDeckCount + sideboardCard.getValue());
+		}
+
+		MtgDeck deck = new MtgDeck(deckName);
+		for (Map.Entry<String, Integer> card : allCards.entrySet())
+		{
+			deck.add(new MtgCardData(card.getKey(), 0), card.getValue());
+		}
+
+		return deck;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return deckName + " (line " + lineNumber + ")";
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe meter of the rate at which events happen.
+ * <p>
+ * The rate is a one minute exponentially weighted moving average, as used for Unix load averages, so it follows the
+ * recent rate while smoothing out bursts. Events are counted as they happen and the average is brought up to date
+ * every {@value #TICK_INTERVAL_SECONDS} seconds, whenever the meter is next used.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class EventRateMeter
+{
+	private static final int TICK_INTERVAL_SECONDS = 5;
+	private static final long TICK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(TICK_INTERVAL_SECONDS);
+	private static final double ALPHA = 1 - Math.exp(-TICK_INTERVAL_SECONDS / 60.0);
+
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong uncountedEvents = new AtomicLong();
+	private final AtomicLong lastTickNanos = new AtomicLong(System.nanoTime());
+	private volatile double eventsPerNano;
+	private volatile boolean isInitialised;
+
+	/**
+	 * Records that an event has happened
+	 */
+	public void mark()
+	{
+		tickIfNeeded();
+		count.incrementAndGet();
+		uncountedEvents.incrementAndGet();
+	}
+
+	/**
+	 * @return The total number of events
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return The one minute moving average of events per second
+	 */
+	public double getRatePerSecond()
+	{
+		tickIfNeeded();
+
+		return eventsPerNano * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Clears the count and rate
+	 */
+	public synchronized void reset()
+	{
+		count.set(0);
+		uncountedEvents.set(0);
+		lastTickNanos.set(System.nanoTime());
+		eventsPerNano = 0;
+		isInitialised = false;
+	}
+
+	private void tickIfNeeded()
+	{
+		long lastTick = lastTickNanos.get();
+		long elapsedNanos = System.nanoTime() - lastTick;
+
+		if (elapsedNanos >= TICK_INTERVAL_NANOS && lastTickNanos.compareAndSet(lastTick, lastTick + elapsedNanos - elapsedNanos % TICK_INTERVAL_NANOS))
+		{
+			synchronized (this)
+			{
+				for (long tick = elapsedNanos / TICK_INTERVAL_NANOS; tick > 0; tick--)
+				{
+					tick();
+				}
+			}
+		}
+	}
+
+	private void tick()
+	{
+		double instantRate = (double) uncountedEvents.getAndSet(0) / TICK_INTERVAL_NANOS;
+
+		if (isInitialised)
+		{
+			eventsPerNano += ALPHA * (instantRate - eventsPerNano);
+		}
+		else
+		{
+			eventsPerNano = instantRate;
+			isInitialised = true;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies.
+ * <p>
+ * Latencies are counted in buckets whose bounds are powers of two microseconds, so recording a latency takes constant
+ * time and space however many are recorded. Percentiles are reported as the upper bound of the bucket they fall in,
+ * capped at the maximum, so are accurate to within a factor of two. The count, mean and maximum are exact.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LatencyHistogram
+{
+	/** Bucket 0 counts latencies under a microsecond, bucket n those from 2^(n-1) up to 2^n microseconds */
+	private static final int BUCKET_COUNT = 40;
+
+	private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maximumNanos = new AtomicLong();
+
+	/**
+	 * @param latencyNanos The latency to record, in nanoseconds
+	 */
+	public void record(long latencyNanos)
+	{
+		long latency = Math.max(0, latencyNanos);
+		long latencyMicros = TimeUnit.NANOSECONDS.toMicros(latency);
+		int bucket = Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(latencyMicros));
+
+		bucketCounts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(latency);
+
+		long currentMaximum = maximumNanos.get();
+		while (latency > currentMaximum && !maximumNanos.compareAndSet(currentMaximum, latency))
+		{
+			currentMaximum = maximumNanos.get();
+		}
+	}
+
+	/**
+	 * @return The number of latencies recorded
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return The mean latency in milliseconds, or {@code 0} if none have been recorded
+	 */
+	public double getMeanMillis()
+	{
+		long recordedCount = count.get();
+
+		return recordedCount == 0 ? 0 : toMillis(totalNanos.get()) / recordedCount;
+	}
+
+	/**
+	 * @return The highest latency recorded in milliseconds
+	 */
+	public double getMaximumMillis()
+	{
+		return toMillis(maximumNanos.get());
+	}
+
+	/**
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The upper bound, in milliseconds, of the latency below which the given percentage of latencies fall, or
+	 *         {@code 0} if none have been recorded
+	 */
+	public double getPercentileMillis(double percentile)
+	{
+		long[] counts = new long[BUCKET_COUNT];
+		long recordedCount = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			counts[bucket] = bucketCounts.get(bucket);
+			recordedCount += counts[bucket];
+		}
+
+		double percentileMillis = 0;
+		long targetCount = (long) Math.ceil(recordedCount * percentile / 100);
+		long cumulativeCount = 0;
+
+		locateBucket: for (int bucket = 0; bucket < BUCKET_COUNT && recordedCount > 0; bucket++)
+		{
+			cumulativeCount += counts[bucket];
+			if (cumulativeCount >= targetCount && cumulativeCount > 0)
+			{
+				percentileMillis = Math.min(getMaximumMillis(), (1L << bucket) / 1000.0);
+				break locateBucket;
+			}
+		}
+
+		return percentileMillis;
+	}
+
+	/**
+	 * Clears all recorded latencies
+	 */
+	public void reset()
+	{
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			bucketCounts.set(bucket, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maximumNanos.set(0);
+	}
+
+	private static double toMillis(long nanos)
+	{
+		return nanos / 1000000.0;
+	}
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.randomcoding.mtg.tools.legalitychecker.cache.BoundedExpiringCache;
+
+/**
+ * Metrics of the work done by the legality checker, to size the connection pool and the legality cache from real use.
+ * <p>
+ * The metrics record the latency of each request made to the Gatherer, split between multiverse id lookups and legality
+ * (printings) pages, the time taken to parse the legality table from each page, and the time taken to evaluate each
+ * deck. The legality cache statistics are read from the cache itself.
+ * </p>
+ * <p>
+ * All the metrics of the checker are recorded in a single shared instance, from {@link #getMetrics()}. This can be read
+ * directly, or registered with an MBean server under {@value #OBJECT_NAME} to be read with JMX, as the plugin does when
+ * it is started.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LegalityCheckerMetrics implements LegalityCheckerMetricsMBean
+{
+	/** The object name the metrics are registered under in an MBean server */
+	public static final String OBJECT_NAME = "org.randomcoding.mtg.tools.legalitychecker:type=LegalityCheckerMetrics";
+
+	private static final LegalityCheckerMetrics sharedMetrics = new LegalityCheckerMetrics();
+
+	private final LatencyHistogram multiverseIdLookupLatency = new LatencyHistogram();
+	private final AtomicLong multiverseIdLookupFailureCount = new AtomicLong();
+	private final LatencyHistogram legalityPageRequestLatency = new LatencyHistogram();
+	private final AtomicLong legalityPageRequestFailureCount = new AtomicLong();
+	private final AtomicLong requestRetryCount = new AtomicLong();
+	private final AtomicLong responseBytes = new AtomicLong();
+	private final AtomicLong notModifiedResponseCount = new AtomicLong();
+	private final LatencyHistogram pageParseLatency = new LatencyHistogram();
+	private final LatencyHistogram deckEvaluationLatency = new LatencyHistogram();
+	private final EventRateMeter deckEvaluationRate = new EventRateMeter();
+
+	private volatile BoundedExpiringCache<?, ?> legalityCache;
+
+	/**
+	 * @return The metrics shared by all parts of the legality checker
+	 */
+	public static LegalityCheckerMetrics getMetrics()
+	{
+		return sharedMetrics;
+	}
+
+	/**
+	 * @param legalityCache The legality cache to report the statistics of, or {@code null} for none
+	 */
+	public void setLegalityCache(BoundedExpiringCache<?, ?> legalityCache)
+	{
+		this.legalityCache = legalityCache;
+	}
+
+	/**
+	 * @param latencyNanos The time taken to look up a multiverse id on the Gatherer
+	 * @param succeeded {@code true} if the id was found
+	 */
+	public void recordMultiverseIdLookup(long latencyNanos, boolean succeeded)
+	{
+		multiverseIdLookupLatency.record(latencyNanos);
+		if (!succeeded)
+		{
+			multiverseIdLookupFailureCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param latencyNanos The time taken to request and read a legality page from the Gatherer, including parsing it
+	 * @param succeeded {@code true} if the page was read
+	 */
+	public void recordLegalityPageRequest(long latencyNanos, boolean succeeded)
+	{
+		legalityPageRequestLatency.record(latencyNanos);
+		if (!succeeded)
+		{
+			legalityPageRequestFailureCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records that a request to the Gatherer is being retried after it failed or was refused
+	 */
+	public void recordRequestRetry()
+	{
+		requestRetryCount.incrementAndGet();
+	}
+
+	/**
+	 * @param byteCount The number of bytes received in the body of a response, before it was decoded
+	 */
+	public void recordResponseBytes(long byteCount)
+	{
+		responseBytes.addAndGet(byteCount);
+	}
+
+	/**
+	 * Records that a conditional request found that a page had not changed since it was last scraped
+	 */
+	public void recordNotModifiedResponse()
+	{
+		notModifiedResponseCount.incrementAndGet();
+	}
+
+	/**
+	 * @param latencyNanos The time taken to extract the legality table from a page as it is streamed
+	 */
+	public void recordPageParse(long latencyNanos)
+	{
+		pageParseLatency.record(latencyNanos);
+	}
+
+	/**
+	 * @param latencyNanos The time taken to evaluate the legality of a deck whose card legalities were resolved
+	 */
+	public void recordDeckEvaluation(long latencyNanos)
+	{
+		deckEvaluationLatency.record(latencyNanos);
+		deckEvaluationRate.mark();
+	}
+
+	public LatencyHistogram getMultiverseIdLookupLatency()
+	{
+		return multiverseIdLookupLatency;
+	}
+
+	public LatencyHistogram getLegalityPageRequestLatency()
+	{
+		return legalityPageRequestLatency;
+	}
+
+	public LatencyHistogram getPageParseLatency()
+	{
+		return pageParseLatency;
+	}
+
+	public LatencyHistogram getDeckEvaluationLatency()
+	{
+		return deckEvaluationLatency;
+	}
+
+	public EventRateMeter getDeckEvaluationRate()
+	{
+		return deckEvaluationRate;
+	}
+
+	public long getMultiverseIdLookupCount()
+	{
+		return multiverseIdLookupLatency.getCount();
+	}
+
+	public long getMultiverseIdLookupFailureCount()
+	{
+		return multiverseIdLookupFailureCount.get();
+	}
+
+	public double getMultiverseIdLookupMeanMillis()
+	{
+		return multiverseIdLookupLatency.getMeanMillis();
+	}
+
+	public double getMultiverseIdLookup50thPercentileMillis()
+	{
+		return multiverseIdLookupLatency.getPercentileMillis(50);
+	}
+
+	public double getMultiverseIdLookup99thPercentileMillis()
+	{
+		return multiverseIdLookupLatency.getPercentileMillis(99);
+	}
+
+	public double getMultiverseIdLookupMaximumMillis()
+	{
+		return multiverseIdLookupLatency.getMaximumMillis();
+	}
+
+	public long getLegalityPageRequestCount()
+	{
+		return legalityPageRequestLatency.getCount();
+	}
+
+	public long getLegalityPageRequestFailureCount()
+	{
+		return legalityPageRequestFailureCount.get();
+	}
+
+	public double getLegalityPageRequestMeanMillis()
+	{
+		return legalityPageRequestLatency.getMeanMillis();
+	}
+
+	public double getLegalityPageRequest50thPercentileMillis()
+	{
+		return legalityPageRequestLatency.getPercentileMillis(50);
+	}
+
+	public double getLegalityPageRequest99thPercentileMillis()
+	{
+		return legalityPageRequestLatency.getPercentileMillis(99);
+	}
+
+	public double getLegalityPageRequestMaximumMillis()
+	{
+		return legalityPageRequestLatency.getMaximumMillis();
+	}
+
+	public long getRequestRetryCount()
+	{
+		return requestRetryCount.get();
+	}
+
+	public long getResponseBytes()
+	{
+		return responseBytes.get();
+	}
+
+	public long getNotModifiedResponseCount()
+	{
+		return notModifiedResponseCount.get();
+	}
+
+	public long getPageParseCount()
+	{
+		return pageParseLatency.getCount();
+	}
+
+	public double getPageParseMeanMillis()
+	{
+		return pageParseLatency.getMeanMillis();
+	}
+
+	public double getPageParse99thPercentileMillis()
+	{
+		return pageParseLatency.getPercentileMillis(99);
+	}
+
+	public long getCacheHitCount()
+	{
+		BoundedExpiringCache<?, ?> cache = legalityCache;
+
+		return cache == null ? 0 : cache.getHitCount();
+	}
+
+	public long getCacheMissCount()
+	{
+		BoundedExpiringCache<?, ?> cache = legalityCache;
+
+		return cache == null ? 0 : cache.getMissCount();
+	}
+
+	public double getCacheHitRatio()
+	{
+		long hitCount = getCacheHitCount();
+		long lookupCount = hitCount + getCacheMissCount();
+
+		return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+	}
+
+	public int getCacheSize()
+	{
+		BoundedExpiringCache<?, ?> cache = legalityCache;
+
+		return cache == null ? 0 : cache.size();
+	}
+
+	public long getCacheEvictionCount()
+	{
+		BoundedExpiringCache<?, ?> cache = legalityCache;
+
+		return cache == null ? 0 : cache.getEvictionCount();
+	}
+
+	public long getCacheExpirationCount()
+	{
+		BoundedExpiringCache<?, ?> cache = legalityCache;
+
+		return cache == null ? 0 : cache.getExpirationCount();
+	}
+
+	public long getDeckEvaluationCount()
+	{
+		return deckEvaluationLatency.getCount();
+	}
+
+	public double getDeckEvaluationsPerSecond()
+	{
+		return deckEvaluationRate.getRatePerSecond();
+	}
+
+	public double getDeckEvaluationMeanMillis()
+	{
+		return deckEvaluationLatency.getMeanMillis();
+	}
+
+	public double getDeckEvaluation99thPercentileMillis()
+	{
+		return deckEvaluationLatency.getPercentileMillis(99);
+	}
+
+	public void reset()
+	{
+		multiverseIdLookupLatency.reset();
+		multiverseIdLookupFailureCount.set(0);
+		legalityPageRequestLatency.reset();
+		legalityPageRequestFailureCount.set(0);
+		requestRetryCount.set(0);
+		responseBytes.set(0);
+		notModifiedResponseCount.set(0);
+		pageParseLatency.reset();
+		deckEvaluationLatency.reset();
+		deckEvaluationRate.reset();
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.metrics;
+
+/**
+ * The management interface of {@link LegalityCheckerMetrics}. Latencies are in milliseconds and percentiles are accurate
+ * to within a factor of two.
+ * 
+ * @author Tym The Enchanter
+ */
+public interface LegalityCheckerMetricsMBean
+{
+	long getMultiverseIdLookupCount();
+
+	long getMultiverseIdLookupFailureCount();
+
+	double getMultiverseIdLookupMeanMillis();
+
+	double getMultiverseIdLookup50thPercentileMillis();
+
+	double getMultiverseIdLookup99thPercentileMillis();
+
+	double getMultiverseIdLookupMaximumMillis();
+
+	long getLegalityPageRequestCount();
+
+	long getLegalityPageRequestFailureCount();
+
+	double getLegalityPageRequestMeanMillis();
+
+	double getLegalityPageRequest50thPercentileMillis();
+
+	double getLegalityPageRequest99thPercentileMillis();
+
+	double getLegalityPageRequestMaximumMillis();
+
+	/**
+	 * @return The number of times a request to the Gatherer was retried after it failed or was refused
+	 */
+	long getRequestRetryCount();
+
+	/**
+	 * @return The number of bytes received in response bodies, as they were sent, so compressed if they were compressed
+	 */
+	long getResponseBytes();
+
+	/**
+	 * @return The number of conditional requests that found a page had not changed
+	 */
+	long getNotModifiedResponseCount();
+
+	long getPageParseCount();
+
+	double getPageParseMeanMillis();
+
+	double getPageParse99thPercentileMillis();
+
+	long getCacheHitCount();
+
+	long getCacheMissCount();
+
+	/**
+	 * @return The fraction of cache lookups that were hits, between 0 and 1
+	 */
+	double getCacheHitRatio();
+
+	int getCacheSize();
+
+	long getCacheEvictionCount();
+
+	long getCacheExpirationCount();
+
+	long getDeckEvaluationCount();
+
+	/**
+	 * @return The one minute moving average of deck evaluations per second
+	 */
+	double getDeckEvaluationsPerSecond();
+
+	double getDeckEvaluationMeanMillis();
+
+	double getDeckEvaluation99thPercentileMillis();
+
+	/**
+	 * Clears all the recorded metrics. The cache statistics are kept by the cache and are not cleared.
+	 */
+	void reset();
+}
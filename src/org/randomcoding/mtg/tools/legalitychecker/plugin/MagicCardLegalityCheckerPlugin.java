@@ -10,8 +10,31 @@
  *******************************************************************************/
 package org.randomcoding.mtg.tools.legalitychecker.plugin;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.eclipse.core.runtime.Plugin;
 import org.osgi.framework.BundleContext;
+import org.randomcoding.mtg.tools.legalitychecker.deck.DeckLegalityCalculator;
+import org.randomcoding.mtg.tools.legalitychecker.deck.LegalityRefreshScheduler;
+import org.randomcoding.mtg.tools.legalitychecker.deck.LegalityWarmUp;
+import org.randomcoding.mtg.tools.legalitychecker.metrics.LegalityCheckerMetrics;
+import org.randomcoding.mtg.tools.legalitychecker.rules.LegalityRules;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.GathererDataScraper;
+import org.randomcoding.mtg.tools.legalitychecker.store.CardLegalityStore;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -21,8 +44,18 @@ public class MagicCardLegalityCheckerPlugin extends Plugin
 
 	public static final String PLUGIN_ID = "MagicLegalityChecker";
 
+	private static final Log log = LogFactory.getLog(MagicCardLegalityCheckerPlugin.class);
+	private static final String LEGALITY_STORE_DIRECTORY = "legalityStore";
+	private static final String LEGALITY_RULES_DIRECTORY = "legalityRules";
+	private static final String STAPLE_CARDS_FILE = "stapleCards.txt";
+
+	/** The longest time to wait for the warm-up and refresh threads to stop writing to the legality store */
+	private static final long BACKGROUND_STOP_TIMEOUT_SECONDS = 30;
+
 	private static MagicCardLegalityCheckerPlugin plugin;
 
+	private CardLegalityStore legalityStore;
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.eclipse.core.runtime.Plugins#start(org.osgi.framework.BundleContext)
@@ -32,6 +65,11 @@ public class MagicCardLegalityCheckerPlugin extends Plugin
 	{
 		super.start(context);
 		plugin = this;
+		openLegalityStore();
+		loadLegalityRules();
+		registerMetrics();
+		DeckLegalityCalculator.getDeckLegalityCalculator().startWarmUp(readStapleCardNames());
+		DeckLegalityCalculator.getDeckLegalityCalculator().getRefreshScheduler().start();
 	}
 
 	/*
@@ -41,6 +79,10 @@ public class MagicCardLegalityCheckerPlugin extends Plugin
 	@Override
 	public void stop(BundleContext context) throws Exception
 	{
+		stopBackgroundThreads();
+		GathererDataScraper.shutdown();
+		unregisterMetrics();
+		closeLegalityStore();
 		plugin = null;
 		super.stop(context);
 	}
@@ -55,4 +97,170 @@ public class MagicCardLegalityCheckerPlugin extends Plugin
 		return plugin;
 	}
 
+	private void openLegalityStore()
+	{
+		try
+		{
+			legalityStore = new CardLegalityStore(getStateLocation().append(LEGALITY_STORE_DIRECTORY).toFile());
+			DeckLegalityCalculator.getDeckLegalityCalculator().setLegalityStore(legalityStore);
+			GathererDataScraper.getMultiverseIdMemo().setBackingLookup(legalityStore);
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to open the card legality store, legality will only be cached in memory", e);
+		}
+	}
+
+	/**
+	 * Loads the format rules files from the rules directory of the plug-in state location, if there is one, so that card
+	 * legality is derived locally for the formats they cover
+	 */
+	private void loadLegalityRules()
+	{
+		File rulesDirectory = getStateLocation().append(LEGALITY_RULES_DIRECTORY).toFile();
+
+		if (rulesDirectory.isDirectory())
+		{
+			try
+			{
+				LegalityRules legalityRules = LegalityRules.load(rulesDirectory);
+				if (!legalityRules.isEmpty())
+				{
+					DeckLegalityCalculator.getDeckLegalityCalculator().setLegalityRules(legalityRules);
+				}
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to load the format legality rules, legality will only be scraped", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the names of the staple cards to warm the legality cache with first, one per line, from the UTF-8 encoded
+	 * staple cards file of the plug-in state location, if there is one. Blank lines and lines starting with {@code #} are
+	 * ignored.
+	 */
+	private List<String> readStapleCardNames()
+	{
+		List<String> stapleCardNames = new ArrayList<String>();
+		File stapleCardsFile = getStateLocation().append(STAPLE_CARDS_FILE).toFile();
+
+		if (stapleCardsFile.isFile())
+		{
+			try
+			{
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stapleCardsFile), "UTF-8"));
+				try
+				{
+					for (String line = reader.readLine(); line != null; line = reader.readLine())
+					{
+						String cardName = line.trim();
+						if (cardName.length() > 0 && !cardName.startsWith("#"))
+						{
+							stapleCardNames.add(cardName);
+						}
+					}
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to read the staple cards, only the stored cards will be warmed", e);
+			}
+		}
+
+		return stapleCardNames;
+	}
+
+	/**
+	 * Cancels the warm-up and stops the refresh scheduler, then waits for the batch or refresh each has in progress to
+	 * finish, so that neither is writing to the legality store as it is closed
+	 */
+	private void stopBackgroundThreads()
+	{
+		LegalityWarmUp warmUp = DeckLegalityCalculator.getDeckLegalityCalculator().getWarmUp();
+		LegalityRefreshScheduler refreshScheduler = DeckLegalityCalculator.getDeckLegalityCalculator().getRefreshScheduler();
+
+		refreshScheduler.stop();
+		if (warmUp != null)
+		{
+			warmUp.cancel();
+		}
+
+		try
+		{
+			long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(BACKGROUND_STOP_TIMEOUT_SECONDS);
+			boolean isStopped = warmUp == null || warmUp.awaitDone(BACKGROUND_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			isStopped &= refreshScheduler.awaitStopped(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+			if (!isStopped)
+			{
+				log.warn("The legality warm-up and refresh threads did not stop within " + BACKGROUND_STOP_TIMEOUT_SECONDS
+						+ " seconds, the legality store will be closed anyway");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted waiting for the legality warm-up and refresh threads to stop, the legality store will be closed anyway");
+		}
+	}
+
+	private void closeLegalityStore()
+	{
+		if (legalityStore != null)
+		{
+			DeckLegalityCalculator.getDeckLegalityCalculator().setLegalityStore(null);
+			GathererDataScraper.getMultiverseIdMemo().setBackingLookup(null);
+			try
+			{
+				legalityStore.close();
+			}
+			catch (Exception e)
+			{
+				log.error("Failed to close the card legality store", e);
+			}
+			legalityStore = null;
+		}
+	}
+
+	private void registerMetrics()
+	{
+		try
+		{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName metricsName = new ObjectName(LegalityCheckerMetrics.OBJECT_NAME);
+
+			if (!mBeanServer.isRegistered(metricsName))
+			{
+				mBeanServer.registerMBean(LegalityCheckerMetrics.getMetrics(), metricsName);
+			}
+		}
+		catch (JMException e)
+		{
+			log.error("Failed to register the legality checker metrics MBean", e);
+		}
+	}
+
+	private void unregisterMetrics()
+	{
+		try
+		{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName metricsName = new ObjectName(LegalityCheckerMetrics.OBJECT_NAME);
+
+			if (mBeanServer.isRegistered(metricsName))
+			{
+				mBeanServer.unregisterMBean(metricsName);
+			}
+		}
+		catch (JMException e)
+		{
+			log.error("Failed to unregister the legality checker metrics MBean", e);
+		}
+	}
 }
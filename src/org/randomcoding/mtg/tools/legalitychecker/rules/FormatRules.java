@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * The rules of a single deck format: the sets whose cards may be played in it and its ban and restricted lists.
+ * <p>
+ * Format rules are immutable. Set and card names are compared ignoring case. The {@code with} methods return new rules
+ * with the requested change, so that a ban announcement can be applied without re-reading the whole rules file.
+ * </p>
+ * <p>
+ * Rules are read from a text file with a section per list, for example:
+ * 
+ * <pre>
+ * # Standard, after the Zendikar release
+ * [sets]
+ * Magic 2010
+ * Zendikar
+ * [banned]
+ * [restricted]
+ * </pre>
+ * 
+ * Blank lines and lines starting with a <em>#</em> are ignored. If there is no <em>sets</em> section, or it lists
+ * <em>*</em>, cards from every set may be played in the format.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class FormatRules
+{
+	private static final String ALL_SETS = "*";
+	private static final String COMMENT_PREFIX = "#";
+	private static final String SETS_SECTION = "[sets]";
+	private static final String BANNED_SECTION = "[banned]";
+	private static final String RESTRICTED_SECTION = "[restricted]";
+
+	private final MagicDeckFormat deckFormat;
+	private final Set<String> legalSets;
+	private final Set<String> bannedCards;
+	private final Set<String> restrictedCards;
+
+	/**
+	 * @param deckFormat The format the rules are for
+	 * @param legalSets The names of the sets whose cards may be played in the format, or {@code null} if cards from
+	 *            every set may be played
+	 * @param bannedCards The names of the cards banned in the format
+	 * @param restrictedCards The names of the cards restricted in the format
+	 */
+	public FormatRules(MagicDeckFormat deckFormat, Collection<String> legalSets, Collection<String> bannedCards, Collection<String> restrictedCards)
+	{
+		this(deckFormat, legalSets == null ? null : normaliseNames(legalSets), normaliseNames(bannedCards), normaliseNames(restrictedCards));
+	}
+
+	private FormatRules(MagicDeckFormat deckFormat, Set<String> legalSets, Set<String> bannedCards, Set<String> restrictedCards)
+	{
+		this.deckFormat = deckFormat;
+		this.legalSets = legalSets;
+		this.bannedCards = bannedCards;
+		this.restrictedCards = restrictedCards;
+	}
+
+	/**
+	 * Reads format rules from a rules file. The reader is not closed.
+	 * 
+	 * @param deckFormat The format the rules are for
+	 * @param rulesReader The reader of the rules file
+	 * @return The rules read
+	 * @throws IOException If the rules cannot be read or a name is given outside of a section
+	 */
+	public static FormatRules read(MagicDeckFormat deckFormat, Reader rulesReader) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(rulesReader);
+		List<String> legalSets = null;
+		List<String> bannedCards = new ArrayList<String>();
+		List<String> restrictedCards = new ArrayList<String>();
+		List<String> section = null;
+		int lineNumber = 0;
+
+		String line = reader.readLine();
+		while (line != null)
+		{
+			lineNumber++;
+			line = line.trim();
+
+			if (line.length() == 0 || line.startsWith(COMMENT_PREFIX))
+			{
+				// skip blank lines and comments
+			}
+			else if (SETS_SECTION.equalsIgnoreCase(line))
+			{
+				legalSets = legalSets == null ? new ArrayList<String>() : legalSets;
+				section = legalSets;
+			}
+			else if (BANNED_SECTION.equalsIgnoreCase(line))
+			{
+				section = bannedCards;
+			}
+			else if (RESTRICTED_SECTION.equalsIgnoreCase(line))
+			{
+				section = restrictedCards;
+			}
+			else if (section == null)
+			{
+				throw new IOException("The " + deckFormat + " rules list a name outside of a section on line " + lineNumber);
+			}
+			else
+			{
+				section.add(line);
+			}
+
+			line = reader.readLine();
+		}
+
+		if (legalSets != null && legalSets.contains(ALL_SETS))
+		{
+			legalSets = null;
+		}
+
+		return new FormatRules(deckFormat, legalSets, bannedCards, restrictedCards);
+	}
+
+	/**
+	 * Derives the legality of a card in the format from the sets it was printed in.
+	 * 
+	 * @param cardName The name of the card
+	 * @param printedSets The names of the sets the card was printed in
+	 * @return {@link MagicLegalityRestriction#NOT_PRESENT} if the card was not printed in a legal set, otherwise
+	 *         {@link MagicLegalityRestriction#BANNED} or {@link MagicLegalityRestriction#RESTRICTED} if it is on the
+	 *         matching list, or {@link MagicLegalityRestriction#LEGAL} if it is on neither
+	 */
+	public MagicLegalityRestriction getCardLegality(String cardName, Collection<String> printedSets)
+	{
+		MagicLegalityRestriction legality = MagicLegalityRestriction.NOT_PRESENT;
+		String normalisedName = normaliseName(cardName);
+
+		if (isPrintedInLegalSet(printedSets))
+		{
+			if (bannedCards.contains(normalisedName))
+			{
+				legality = MagicLegalityRestriction.BANNED;
+			}
+			else if (restrictedCards.contains(normalisedName))
+			{
+				legality = MagicLegalityRestriction.RESTRICTED;
+			}
+			else
+			{
+				legality = MagicLegalityRestriction.LEGAL;
+			}
+		}
+
+		return legality;
+	}
+
+	/**
+	 * @param cardName The name of the card to ban
+	 * @return Rules with the card on the ban list, and taken off the restricted list
+	 */
+	public FormatRules withBannedCard(String cardName)
+	{
+		String normalisedName = normaliseName(cardName);
+
+		return new FormatRules(deckFormat, legalSets, withName(bannedCards, normalisedName), withoutName(restrictedCards, normalisedName));
+	}
+
+	/**
+	 * @param cardName The name of the card to restrict
+	 * @return Rules with the card on the restricted list, and taken off the ban list
+	 */
+	public FormatRules withRestrictedCard(String cardName)
+	{
+		String normalisedName = normaliseName(cardName);
+
+		return new FormatRules(deckFormat, legalSets, withoutName(bannedCards, normalisedName), withName(restrictedCards, normalisedName));
+	}
+
+	/**
+	 * @param cardName The name of the card to unban or unrestrict
+	 * @return Rules with the card on neither the ban list nor the restricted list
+	 */
+	public FormatRules withUnlistedCard(String cardName)
+	{
+		String normalisedName = normaliseName(cardName);
+
+		return new FormatRules(deckFormat, legalSets, withoutName(bannedCards, normalisedName), withoutName(restrictedCards, normalisedName));
+	}
+
+	/**
+	 * @param legalSets The names of the sets whose cards may be played in the format, or {@code null} if cards from
+	 *            every set may be played
+	 * @return Rules with the given legal sets, such as after a set rotation
+	 */
+	public FormatRules withLegalSets(Collection<String> legalSets)
+	{
+		return new FormatRules(deckFormat, legalSets == null ? null : normaliseNames(legalSets), bannedCards, restrictedCards);
+	}
+
+	public MagicDeckFormat getDeckFormat()
+	{
+		return deckFormat;
+	}
+
+	/**
+	 * @return {@code true} if cards from every set may be played in the format
+	 */
+	public boolean isEverySetLegal()
+	{
+		return legalSets == null;
+	}
+
+	/**
+	 * @return The lower case names of the sets whose cards may be played in the format, which is empty if cards from
+	 *         every set may be played
+	 */
+	public Set<String> getLegalSets()
+	{
+		return legalSets == null ? Collections.<String> emptySet() : legalSets;
+	}
+
+	/**
+	 * @return The lower case names of the cards banned in the format
+	 */
+	public Set<String> getBannedCards()
+	{
+		return bannedCards;
+	}
+
+	/**
+	 * @return The lower case names of the cards restricted in the format
+	 */
+	public Set<String> getRestrictedCards()
+	{
+		return restrictedCards;
+	}
+
+	private boolean isPrintedInLegalSet(Collection<String> printedSets)
+	{
+		boolean isPrintedInLegalSet = legalSets == null;
+
+		if (!isPrintedInLegalSet)
+		{
+			locateLegalSet: for (String setName : printedSets)
+			{
+				if (legalSets.contains(normaliseName(setName)))
+				{
+					isPrintedInLegalSet = true;
+					break locateLegalSet;
+				}
+			}
+		}
+
+		return isPrintedInLegalSet;
+	}
+
+	private static Set<String> withName(Set<String> names, String normalisedName)
+	{
+		Set<String> newNames = names;
+
+		if (!names.contains(normalisedName))
+		{
+			newNames = new HashSet<String>(names);
+			newNames.add(normalisedName);
+			newNames = Collections.unmodifiableSet(newNames);
+		}
+
+		return newNames;
+	}
+
+	private static Set<String> withoutName(Set<String> names, String normalisedName)
+	{
+		Set<String> newNames = names;
+
+		if (names.contains(normalisedName))
+		{
+			newNames = new HashSet<String>(names);
+			newNames.remove(normalisedName);
+			newNames = Collections.unmodifiableSet(newNames);
+		}
+
+		return newNames;
+	}
+
+	private static Set<String> normaliseNames(Collection<String> names)
+	{
+		Set<String> normalisedNames = new HashSet<String>();
+
+		for (String name : names)
+		{
+			normalisedNames.add(normaliseName(name));
+		}
+
+		return Collections.unmodifiableSet(normalisedNames);
+	}
+
+	private static String normaliseName(String name)
+	{
+		return name.trim().toLowerCase();
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.rules;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * The rules of each deck format that the legality of a card can be derived locally for, from the sets it was printed in,
+ * rather than scraping its legality from the Gatherer.
+ * <p>
+ * Legality rules are immutable, {@link #withFormatRules(FormatRules)} returns new rules with the rules of one format
+ * replaced. Formats without rules are left out of any derived legality.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class LegalityRules
+{
+	/**
+	 * The extension of format rules files, which are named for their format in lower case, such as
+	 * <em>standard.rules</em>
+	 */
+	public static final String RULES_FILE_EXTENSION = ".rules";
+
+	private final Map<MagicDeckFormat, FormatRules> formatRules;
+
+	/**
+	 * Creates rules for none of the formats
+	 */
+	public LegalityRules()
+	{
+		this(new EnumMap<MagicDeckFormat, FormatRules>(MagicDeckFormat.class));
+	}
+
+	private LegalityRules(Map<MagicDeckFormat, FormatRules> formatRules)
+	{
+		this.formatRules = formatRules;
+	}
+
+	/**
+	 * Loads the rules of every format that has a UTF-8 encoded rules file in the given directory.
+	 * 
+	 * @param rulesDirectory The directory holding the rules files
+	 * @return The rules loaded
+	 * @throws IOException If a rules file cannot be read
+	 * @see FormatRules#read(MagicDeckFormat, Reader)
+	 */
+	public static LegalityRules load(File rulesDirectory) throws IOException
+	{
+		LegalityRules legalityRules = new LegalityRules();
+
+		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+		{
+			File rulesFile = new File(rulesDirectory, deckFormat.name().toLowerCase() + RULES_FILE_EXTENSION);
+			if (rulesFile.isFile())
+			{
+				legalityRules = legalityRules.withFormatRules(readFormatRules(deckFormat, rulesFile));
+			}
+		}
+
+		return legalityRules;
+	}
+
+	/**
+	 * Reads the rules of a single format from a UTF-8 encoded rules file.
+	 * 
+	 * @param deckFormat The format the rules are for
+	 * @param rulesFile The rules file
+	 * @return The rules read
+	 * @throws IOException If the file cannot be read
+	 */
+	public static FormatRules readFormatRules(MagicDeckFormat deckFormat, File rulesFile) throws IOException
+	{
+		Reader reader = new InputStreamReader(new FileInputStream(rulesFile), "UTF-8");
+
+		try
+		{
+			return FormatRules.read(deckFormat, reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param rules The rules of a format
+	 * @return Legality rules with the rules of the format replaced
+	 */
+	public LegalityRules withFormatRules(FormatRules rules)
+	{
+		Map<MagicDeckFormat, FormatRules> newFormatRules = new EnumMap<MagicDeckFormat, FormatRules>(formatRules);
+		newFormatRules.put(rules.getDeckFormat(), rules);
+
+		return new LegalityRules(newFormatRules);
+	}
+
+	/**
+	 * @param deckFormat The format to remove the rules of
+	 * @return Legality rules without rules for the format, so its legality is no longer derived
+	 */
+	public LegalityRules withoutFormatRules(MagicDeckFormat deckFormat)
+	{
+		Map<MagicDeckFormat, FormatRules> newFormatRules = new EnumMap<MagicDeckFormat, FormatRules>(formatRules);
+		newFormatRules.remove(deckFormat);
+
+		return new LegalityRules(newFormatRules);
+	}
+
+	/**
+	 * @param deckFormat The deck format
+	 * @return The rules of the format, or {@code null} if there are none
+	 */
+	public FormatRules getFormatRules(MagicDeckFormat deckFormat)
+	{
+		return formatRules.get(deckFormat);
+	}
+
+	/**
+	 * @return {@code true} if there are no rules for any format
+	 */
+	public boolean isEmpty()
+	{
+		return formatRules.isEmpty();
+	}
+
+	/**
+	 * Derives the legality of a card in every format there are rules for.
+	 * 
+	 * @param cardName The name of the card
+	 * @param printedSets The names of the sets the card was printed in
+	 * @return An unmodifiable map of the legality of the card in each format there are rules for
+	 */
+	public Map<MagicDeckFormat, MagicLegalityRestriction> getCardLegality(String cardName, Collection<String> printedSets)
+	{
+		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+
+		for (FormatRules rules : formatRules.values())
+		{
+			cardLegality.put(rules.getDeckFormat(), rules.getCardLegality(cardName, printedSets));
+		}
+
+		return Collections.unmodifiableMap(cardLegality);
+	}
+}
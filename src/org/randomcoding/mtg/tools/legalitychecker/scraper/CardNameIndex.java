@@ -0,0 +1,535 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.randomcoding.mtg.tools.legalitychecker.cache.BoundedExpiringCache;
+
+/**
+ * In memory index of the known card names, to resolve, complete and correct card names without querying the Gatherer.
+ * <p>
+ * Names are indexed by a normalised form that ignores case, accents, punctuation and spacing, and spells the &AElig;
+ * ligature as "ae", so "aether vial", "&AElig;ther Vial" and "AEther  Vial" all resolve to the same card. The normalised names are held
+ * in a prefix trie, to complete a partly typed name, and an index of the three letter sequences in each name, to find
+ * the few names that share enough of them with a misspelt name to be within a few edits of it. Resolving and completing
+ * take a few microseconds, and suggesting corrections well under a millisecond, for the twenty thousand or so cards in
+ * the Gatherer.
+ * </p>
+ * <p>
+ * The index also remembers the names the Gatherer is known not to have, so a misspelt name in a decklist is only ever
+ * looked up once. A name is forgotten as unknown when it is added to the index. At most
+ * {@value #UNKNOWN_NAMES_MAXIMUM_SIZE} unknown names are remembered, each for {@value #UNKNOWN_NAME_TIME_TO_LIVE_HOURS}
+ * hours, so that untrusted decklists cannot grow the index without limit and a card added to the Gatherer is found once
+ * it is released.
+ * </p>
+ * <p>
+ * The index is thread safe. Any number of threads can look names up at once, while adding a name locks out all others.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class CardNameIndex
+{
+	/** The largest number of edits a suggested name can be from the name it is suggested for */
+	private static final int MAXIMUM_SUGGESTION_DISTANCE = 3;
+
+	/** The number of characters of a name for each edit a suggestion can be from it */
+	private static final int CHARACTERS_PER_EDIT = 4;
+
+	private static final int UNKNOWN_NAMES_MAXIMUM_SIZE = 4096;
+	private static final int UNKNOWN_NAME_TIME_TO_LIVE_HOURS = 24;
+
+	private static final int TRIGRAM_LENGTH = 3;
+	private static final String TRIGRAM_PADDING = "$$";
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, String> cardNames = new HashMap<String, String>();
+	private final TrieNode trieRoot = new TrieNode();
+	private final List<String> normalisedNames = new ArrayList<String>();
+	private final List<String> indexedNames = new ArrayList<String>();
+	private final Map<String, Postings> trigramPostings = new HashMap<String, Postings>();
+
+	private final BoundedExpiringCache<String, Boolean> unknownNames = new BoundedExpiringCache<String, Boolean>(UNKNOWN_NAMES_MAXIMUM_SIZE, UNKNOWN_NAME_TIME_TO_LIVE_HOURS, TimeUnit.HOURS);
+
+	/**
+	 * @param cardName A card name, as typed
+	 * @return The normalised form of the name, in lower case, without accents or punctuation, with "ae" for "&AElig;" and
+	 *         single spaces between words
+	 */
+	public static String normalise(String cardName)
+	{
+		String decomposed = Normalizer.normalize(cardName, Normalizer.Form.NFD);
+		StringBuilder normalised = new StringBuilder(decomposed.length());
+		boolean isSpacePending = false;
+
+		for (int index = 0; index < decomposed.length(); index++)
+		{
+			char character = decomposed.charAt(index);
+
+			if (Character.isLetterOrDigit(character))
+			{
+				if (isSpacePending && normalised.length() > 0)
+				{
+					normalised.append(' ');
+				}
+				isSpacePending = false;
+
+				if (character == '\u00c6' || character == '\u00e6')
+				{
+					normalised.append("ae");
+				}
+				else
+				{
+					normalised.append(Character.toLowerCase(character));
+				}
+			}
+			else if (character == '\'' || character == '\u2019' || Character.getType(character) == Character.NON_SPACING_MARK)
+			{
+				// apostrophes and accents are dropped without separating words
+			}
+			else
+			{
+				isSpacePending = true;
+			}
+		}
+
+		return normalised.toString();
+	}
+
+	/**
+	 * Adds a card name to the index. If another name with the same normalised form has already been added then that name
+	 * is kept.
+	 * 
+	 * @param cardName The name of the card, as printed
+	 */
+	public void add(String cardName)
+	{
+		addAll(Collections.singleton(cardName));
+	}
+
+	/**
+	 * @param cardNames The names of the cards to add, as printed
+	 * @see #add(String)
+	 */
+	public void addAll(Collection<String> cardNames)
+	{
+		lock.writeLock().lock();
+
+		try
+		{
+			for (String cardName : cardNames)
+			{
+				String normalisedName = normalise(cardName);
+
+				if (normalisedName.length() > 0 && !this.cardNames.containsKey(normalisedName))
+				{
+					this.cardNames.put(normalisedName, cardName);
+					trieRoot.add(normalisedName, cardName);
+					addTrigrams(normalisedName, cardName);
+				}
+
+				unknownNames.remove(normalisedName);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of distinct card names in the index
+	 */
+	public int size()
+	{
+		int size;
+
+		lock.readLock().lock();
+
+		try
+		{
+			size = cardNames.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return size;
+	}
+
+	/**
+	 * @param cardName A card name, as typed
+	 * @return The name of the card as it was added to the index, if the name has the same normalised form as it, or
+	 *         {@code null} if no card in the index has the name
+	 */
+	public String resolve(String cardName)
+	{
+		String normalisedName = normalise(cardName);
+		String resolvedName;
+
+		lock.readLock().lock();
+
+		try
+		{
+			resolvedName = cardNames.get(normalisedName);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return resolvedName;
+	}
+
+	/**
+	 * @param prefix The start of a card name, as typed
+	 * @param limit The most names to return
+	 * @return The names of the cards whose normalised name starts with the normalised prefix, in the order of their
+	 *         normalised names
+	 */
+	public List<String> complete(String prefix, int limit)
+	{
+		List<String> completions = new ArrayList<String>();
+		String normalisedPrefix = normalise(prefix);
+
+		lock.readLock().lock();
+
+		try
+		{
+			TrieNode prefixNode = trieRoot.find(normalisedPrefix);
+			if (prefixNode != null)
+			{
+				prefixNode.collect(completions, limit);
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return completions;
+	}
+
+	/**
+	 * Suggests the names closest to a misspelt card name. A name of up to {@value #CHARACTERS_PER_EDIT} characters can
+	 * have a single edit corrected, and a longer name one more edit for each {@value #CHARACTERS_PER_EDIT} characters, up
+	 * to {@value #MAXIMUM_SUGGESTION_DISTANCE}.
+	 * 
+	 * @param cardName A card name, as typed
+	 * @param limit The most names to return
+	 * @return The names of the cards closest to the name, nearest first, which include the name itself if it resolves
+	 */
+	public List<String> suggest(String cardName, int limit)
+	{
+		String normalisedName = normalise(cardName);
+		int maximumDistance = Math.min(MAXIMUM_SUGGESTION_DISTANCE, Math.max(1, normalisedName.length() / CHARACTERS_PER_EDIT));
+		Set<String> queryTrigrams = getTrigrams(normalisedName);
+		// each edit changes at most three of the trigrams of the name, so any name within the distance shares the rest
+		int minimumSharedTrigrams = Math.max(1, queryTrigrams.size() - TRIGRAM_LENGTH * maximumDistance);
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+
+		lock.readLock().lock();
+
+		try
+		{
+			int[] sharedTrigramCounts = new int[normalisedNames.size()];
+
+			for (String trigram : queryTrigrams)
+			{
+				Postings postings = trigramPostings.get(trigram);
+				if (postings != null)
+				{
+					for (int index = 0; index < postings.size; index++)
+					{
+						int nameIndex = postings.nameIndexes[index];
+
+						// check each name once, when it first shares enough trigrams
+						if (++sharedTrigramCounts[nameIndex] == minimumSharedTrigrams)
+						{
+							String candidateName = normalisedNames.get(nameIndex);
+							int distance = editDistance(normalisedName, candidateName, maximumDistance);
+
+							if (distance <= maximumDistance)
+							{
+								suggestions.add(new Suggestion(candidateName, indexedNames.get(nameIndex), distance));
+							}
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		Collections.sort(suggestions, new Comparator<Suggestion>()
+		{
+			public int compare(Suggestion first, Suggestion second)
+			{
+				int order = first.distance - second.distance;
+
+				return order == 0 ? first.normalisedName.compareTo(second.normalisedName) : order;
+			}
+		});
+
+		List<String> suggestedNames = new ArrayList<String>();
+		for (int index = 0; index < suggestions.size() && index < limit; index++)
+		{
+			suggestedNames.add(suggestions.get(index).cardName);
+		}
+
+		return suggestedNames;
+	}
+
+	/**
+	 * Remembers that the Gatherer has no card with the name, until a card with the same normalised name is added or the
+	 * name expires
+	 * 
+	 * @param cardName The card name, as typed
+	 */
+	public void markUnknown(String cardName)
+	{
+		unknownNames.put(normalise(cardName), Boolean.TRUE);
+	}
+
+	/**
+	 * @param cardName A card name, as typed
+	 * @return {@code true} if the Gatherer is known to have no card with the name
+	 */
+	public boolean isUnknown(String cardName)
+	{
+		return unknownNames.get(normalise(cardName)) != null;
+	}
+
+	/**
+	 * Adds a name to the trigram index. Must be called with the write lock held.
+	 */
+	private void addTrigrams(String normalisedName, String cardName)
+	{
+		int nameIndex = normalisedNames.size();
+		normalisedNames.add(normalisedName);
+		indexedNames.add(cardName);
+
+		for (String trigram : getTrigrams(normalisedName))
+		{
+			Postings postings = trigramPostings.get(trigram);
+			if (postings == null)
+			{
+				postings = new Postings();
+				trigramPostings.put(trigram, postings);
+			}
+			postings.add(nameIndex);
+		}
+	}
+
+	/**
+	 * @return The distinct trigrams of the name, padded at each end so the first and last letters are in three trigrams
+	 *         like all the others
+	 */
+	private static Set<String> getTrigrams(String normalisedName)
+	{
+		String paddedName = TRIGRAM_PADDING + normalisedName + TRIGRAM_PADDING;
+		Set<String> trigrams = new HashSet<String>();
+
+		for (int index = 0; index + TRIGRAM_LENGTH <= paddedName.length(); index++)
+		{
+			trigrams.add(paddedName.substring(index, index + TRIGRAM_LENGTH));
+		}
+
+		return trigrams;
+	}
+
+	/**
+	 * @return The number of edits, inserting, deleting or replacing a character, to change one name into the other. If
+	 *         this is more than the bound then some number over the bound is returned.
+	 */
+	static int editDistance(String first, String second, int bound)
+	{
+		int distance = bound + 1;
+
+		if (Math.abs(first.length() - second.length()) <= bound)
+		{
+			int[] previousRow = new int[second.length() + 1];
+			int[] row = new int[second.length() + 1];
+
+			for (int column = 0; column <= second.length(); column++)
+			{
+				previousRow[column] = column;
+			}
+
+			boolean isOverBound = false;
+			computeRows: for (int line = 1; line <= first.length(); line++)
+			{
+				row[0] = line;
+				int rowMinimum = row[0];
+
+				for (int column = 1; column <= second.length(); column++)
+				{
+					int cost = first.charAt(line - 1) == second.charAt(column - 1) ? 0 : 1;
+					row[column] = Math.min(Math.min(row[column - 1] + 1, previousRow[column] + 1), previousRow[column - 1] + cost);
+					rowMinimum = Math.min(rowMinimum, row[column]);
+				}
+
+				if (rowMinimum > bound)
+				{
+					isOverBound = true;
+					break computeRows;
+				}
+
+				int[] swap = previousRow;
+				previousRow = row;
+				row = swap;
+			}
+
+			if (!isOverBound)
+			{
+				distance = previousRow[second.length()];
+			}
+		}
+
+		return distance;
+	}
+
+	/**
+	 * A node of the prefix trie, with its children sorted by character
+	 */
+	private static class TrieNode
+	{
+		private static final char[] NO_CHARACTERS = new char[0];
+		private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+		private char[] characters = NO_CHARACTERS;
+		private TrieNode[] children = NO_CHILDREN;
+		private String cardName;
+
+		void add(String normalisedName, String cardName)
+		{
+			TrieNode node = this;
+
+			for (int index = 0; index < normalisedName.length(); index++)
+			{
+				node = node.getOrAddChild(normalisedName.charAt(index));
+			}
+
+			node.cardName = cardName;
+		}
+
+		TrieNode find(String normalisedPrefix)
+		{
+			TrieNode node = this;
+
+			locateNode: for (int index = 0; index < normalisedPrefix.length(); index++)
+			{
+				int childIndex = Arrays.binarySearch(node.characters, normalisedPrefix.charAt(index));
+				if (childIndex < 0)
+				{
+					node = null;
+					break locateNode;
+				}
+				node = node.children[childIndex];
+			}
+
+			return node;
+		}
+
+		void collect(List<String> cardNames, int limit)
+		{
+			if (cardNames.size() < limit)
+			{
+				if (cardName != null)
+				{
+					cardNames.add(cardName);
+				}
+
+				for (int childIndex = 0; childIndex < children.length && cardNames.size() < limit; childIndex++)
+				{
+					children[childIndex].collect(cardNames, limit);
+				}
+			}
+		}
+
+		private TrieNode getOrAddChild(char character)
+		{
+			int childIndex = Arrays.binarySearch(characters, character);
+
+			if (childIndex < 0)
+			{
+				childIndex = -childIndex - 1;
+
+				char[] newCharacters = new char[characters.length + 1];
+				System.arraycopy(characters, 0, newCharacters, 0, childIndex);
+				System.arraycopy(characters, childIndex, newCharacters, childIndex + 1, characters.length - childIndex);
+				newCharacters[childIndex] = character;
+
+				TrieNode[] newChildren = new TrieNode[children.length + 1];
+				System.arraycopy(children, 0, newChildren, 0, childIndex);
+				System.arraycopy(children, childIndex, newChildren, childIndex + 1, children.length - childIndex);
+				newChildren[childIndex] = new TrieNode();
+
+				characters = newCharacters;
+				children = newChildren;
+			}
+
+			return children[childIndex];
+		}
+	}
+
+	/**
+	 * The indexes of the names that contain a trigram, in the order the names were added
+	 */
+	private static class Postings
+	{
+		private int[] nameIndexes = new int[4];
+		private int size;
+
+		void add(int nameIndex)
+		{
+			if (size == nameIndexes.length)
+			{
+				nameIndexes = Arrays.copyOf(nameIndexes, size * 2);
+			}
+			nameIndexes[size++] = nameIndex;
+		}
+	}
+
+	/**
+	 * A suggested name and its distance from the name it was suggested for
+	 */
+	private static class Suggestion
+	{
+		private final String normalisedName;
+		private final String cardName;
+		private final int distance;
+
+		Suggestion(String normalisedName, String cardName, int distance)
+		{
+			this.normalisedName = normalisedName;
+			this.cardName = cardName;
+			this.distance = distance;
+		}
+	}
+}
@@ -11,36 +11,227 @@
 
 package org.randomcoding.mtg.tools.legalitychecker.scraper;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.cookie.CookiePolicy;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.htmlparser.Node;
-import org.htmlparser.Parser;
-import org.htmlparser.filters.TagNameFilter;
-import org.htmlparser.tags.TableColumn;
-import org.htmlparser.tags.TableRow;
-import org.htmlparser.util.NodeList;
-import org.htmlparser.util.ParserException;
-import org.htmlparser.util.SimpleNodeIterator;
 import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
 import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.metrics.LegalityCheckerMetrics;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.GathererResponse;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.GathererTransport;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.HttpClientTransport;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.transport.ThrottlingTransport;
 
 /**
  * Class to scrape various data associated to a given card
+ * <p>
+ * All scrapers share a single {@link GathererTransport} and {@value #MAX_CONNECTIONS} worker threads that run the
+ * asynchronous requests. Use {@link #getSharedScraper()} rather than creating new instances.
+ * </p>
+ * <p>
+ * By default the transport makes live requests to the Gatherer over a pool of persistent connections, one per worker
+ * thread, paced by a {@link ThrottlingTransport} that backs off and retries when the Gatherer is overloaded. It can be
+ * replaced with {@link #setTransport(GathererTransport)}, for example to record the responses or to replay recorded
+ * responses without using the network.
+ * </p>
+ * <p>
+ * Pages are requested compressed, and a page scraped before can be revalidated with a conditional request, using the
+ * {@link PageValidators} returned with its legality, so it is only downloaded again if it has changed.
+ * </p>
+ * <p>
+ * Card names are resolved through the shared {@link CardNameIndex} before they are looked up, and a name the Gatherer
+ * has no card for is remembered there, so looking it up again fails with an {@link UnknownCardNameException}, with
+ * suggested corrections, without another request.
+ * </p>
+ * <p>
+ * The latency of each request, and the time taken to parse each legality page, is recorded in the shared
+ * {@link LegalityCheckerMetrics}.
+ * </p>
  * 
  * @author Tym The Enchanter
  */
 public class GathererDataScraper
 {
-	private static final String GATHERER_URL_BASE = "http://gatherer.wizards.com/";
-	private static final String MULTIVERSE_ID_QUERY_URL_BASE = GATHERER_URL_BASE + "Pages/Card/Details.aspx?name=";
-	private static final String LEGALITY_QUERY_URL_BASE = GATHERER_URL_BASE + "Pages/Card/Printings.aspx?multiverseid=";
+	private static final String MULTIVERSE_ID_QUERY_PATH = "Pages/Card/Details.aspx?name=";
+	private static final String LEGALITY_QUERY_PATH = "Pages/Card/Printings.aspx?multiverseid=";
+	private static final String NAMED_LEGALITY_QUERY_PATH = "Pages/Card/Printings.aspx?name=";
+	private static final String MULTIVERSE_ID_PARAMETER = "multiverseid=";
+	private static final String NO_CARDS_FOUND_TEXT = "Your search returned zero results";
+	private static final String DEFAULT_RESPONSE_CHARSET = "ISO-8859-1";
+	private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	private static final String ETAG_HEADER = "ETag";
+	private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+	private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+	private static final Map<String, String> REQUEST_HEADERS = Collections.singletonMap("Accept-Encoding", "gzip, deflate");
+	private static final int NOT_MODIFIED_STATUS = 304;
+
+	private static final int MAX_CONNECTIONS = 8;
+	private static final int SUGGESTION_LIMIT = 5;
+
+	private static volatile GathererTransport transport = new ThrottlingTransport(new HttpClientTransport(HttpClientTransport.GATHERER_URL_BASE, MAX_CONNECTIONS), MAX_CONNECTIONS);
+	private static final ExecutorService scrapeExecutor = Executors.newFixedThreadPool(MAX_CONNECTIONS, new ScraperThreadFactory());
+	private static final GathererDataScraper sharedScraper = new GathererDataScraper();
+	private static final MultiverseIdMemo multiverseIdMemo = new MultiverseIdMemo();
+	private static final CardNameIndex cardNameIndex = new CardNameIndex();
 
-	private HttpClient httpClient;
+	/**
+	 * @return The scraper shared by all users of the Gatherer
+	 */
+	public static GathererDataScraper getSharedScraper()
+	{
+		return sharedScraper;
+	}
+
+	/**
+	 * @return The memo table of card name to multiverse id, shared by all scrapers
+	 */
+	public static MultiverseIdMemo getMultiverseIdMemo()
+	{
+		return multiverseIdMemo;
+	}
+
+	/**
+	 * @return The index of the known card names, shared by all scrapers
+	 */
+	public static CardNameIndex getCardNameIndex()
+	{
+		return cardNameIndex;
+	}
+
+	/**
+	 * @return The transport that all scrapers make their requests with
+	 */
+	public static GathererTransport getTransport()
+	{
+		return transport;
+	}
+
+	/**
+	 * Replaces the transport that all scrapers make their requests with. The previous transport is not shut down, as it
+	 * may still be in use by requests that are in progress.
+	 * 
+	 * @param newTransport The transport to make requests with
+	 * @return The previous transport
+	 */
+	public static GathererTransport setTransport(GathererTransport newTransport)
+	{
+		if (newTransport == null)
+		{
+			throw new IllegalArgumentException("The transport cannot be null");
+		}
+
+		GathererTransport previousTransport = transport;
+		transport = newTransport;
+
+		return previousTransport;
+	}
+
+	/**
+	 * Stops the worker threads and shuts down the transport. No more data can be scraped once this is called.
+	 */
+	public static void shutdown()
+	{
+		scrapeExecutor.shutdownNow();
+		transport.shutdown();
+	}
+
+	/**
+	 * Asynchronously gets the legality for the common deck formats of the card with the given multiverse id.
+	 * 
+	 * @param cardMultiverseId The mulitverse id of the card to get the legalities for
+	 * @param callback The callback to notify of the result, or {@code null} to only use the returned {@link Future}
+	 * @return A {@link Future} of the Map of the deck format and legality
+	 * @see #getLegality(int)
+	 */
+	public Future<Map<MagicDeckFormat, MagicLegalityRestriction>> getLegalityAsync(final int cardMultiverseId, ScraperCallback<Map<MagicDeckFormat, MagicLegalityRestriction>> callback)
+	{
+		return submit(new Callable<Map<MagicDeckFormat, MagicLegalityRestriction>>()
+		{
+			public Map<MagicDeckFormat, MagicLegalityRestriction> call() throws IOException
+			{
+				return getLegality(cardMultiverseId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Asynchronously gets the legality for the common deck formats of the card with the given name.
+	 * 
+	 * @param cardName The name of the card, exactly as printed.
+	 * @param callback The callback to notify of the result, or {@code null} to only use the returned {@link Future}
+	 * @return A {@link Future} of the Map of the legalities to the deck formats
+	 * @see #getLegality(String)
+	 */
+	public Future<Map<MagicDeckFormat, MagicLegalityRestriction>> getLegalityAsync(final String cardName, ScraperCallback<Map<MagicDeckFormat, MagicLegalityRestriction>> callback)
+	{
+		return submit(new Callable<Map<MagicDeckFormat, MagicLegalityRestriction>>()
+		{
+			public Map<MagicDeckFormat, MagicLegalityRestriction> call() throws IOException
+			{
+				return getLegality(cardName);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Asynchronously gets the multiverse id of the named card from the Gatherer.
+	 * 
+	 * @param cardName The name of the card to get the multiverse id for
+	 * @param callback The callback to notify of the result, or {@code null} to only use the returned {@link Future}
+	 * @return A {@link Future} of the Multiverse Id of the named card
+	 * @see #getMultiverseId(String)
+	 */
+	public Future<Integer> getMultiverseIdAsync(final String cardName, ScraperCallback<Integer> callback)
+	{
+		return submit(new Callable<Integer>()
+		{
+			public Integer call() throws IOException
+			{
+				return getMultiverseId(cardName);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Asynchronously gets the legality of the named card, unless it has not changed since it was last scraped.
+	 * 
+	 * @param cardName The name of the card, exactly as printed.
+	 * @param validators The validators of the page the legality was last scraped from, or {@code null} if it has not
+	 *            been scraped
+	 * @param callback The callback to notify of the result, or {@code null} to only use the returned {@link Future}
+	 * @return A {@link Future} of the scraped legality
+	 * @see #getLegalityIfModified(String, PageValidators)
+	 */
+	public Future<ScrapedLegality> getLegalityIfModifiedAsync(final String cardName, final PageValidators validators, ScraperCallback<ScrapedLegality> callback)
+	{
+		return submit(new Callable<ScrapedLegality>()
+		{
+			public ScrapedLegality call() throws IOException
+			{
+				return getLegalityIfModified(cardName, validators);
+			}
+		}, callback);
+	}
 
 	/**
 	 * Gets the legality for the common deck formats of the card with the given multiverse id.
@@ -59,18 +250,7 @@ public class GathererDataScraper
 	 */
 	public Map<MagicDeckFormat, MagicLegalityRestriction> getLegality(int cardMultiverseId) throws IOException
 	{
-		Map<MagicDeckFormat, MagicLegalityRestriction> legality = new HashMap<MagicDeckFormat, MagicLegalityRestriction>();
-		String queryUrl = LEGALITY_QUERY_URL_BASE + cardMultiverseId;
-		GetMethod getMethod = new GetMethod(queryUrl);
-		getMethod.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
-		getHttpClient().executeMethod(getMethod);
-
-		String responseBody = getMethod.getResponseBodyAsString();
-
-		legality = parseLegalityFromResponse(responseBody);
-
-		return legality;
-
+		return scrapeLegality(cardMultiverseId).getLegality();
 	}
 
 	/**
@@ -83,6 +263,12 @@ public class GathererDataScraper
 	 * <li>Vintage</li>
 	 * <li>Legacy</li>
 	 * </ul>
+	 * </p>
+	 * <p>
+	 * If the multiverse id of the card is already known then its printings page is requested directly, otherwise the
+	 * printings page is requested by name, which only falls back to a separate multiverse id lookup if the Gatherer does
+	 * not return the legality table for it.
+	 * </p>
 	 * 
 	 * @param cardName The name of the card, exactly as printed.
 	 * @return A Map of the legalities to the deck formats
@@ -90,223 +276,473 @@ public class GathererDataScraper
 	 */
 	public Map<MagicDeckFormat, MagicLegalityRestriction> getLegality(String cardName) throws IOException
 	{
-		return getLegality(getMultiverseId(cardName));
+		return getLegalityIfModified(cardName, null).getLegality();
 	}
 
 	/**
-	 * Gets the multiverse id of the named card from the Gatherer. This will generally return the most recent multiverse
-	 * id for this card
+	 * Gets the legality of the named card, unless it has not changed since it was last scraped.
+	 * <p>
+	 * If validators are given the page they came from is requested conditionally, and if the Gatherer responds that it
+	 * has not been modified then the result says so and holds no legality. Otherwise the legality is scraped as by
+	 * {@link #getLegality(String)}. The result holds the validators to use the next time the legality is checked.
+	 * </p>
 	 * 
-	 * @param cardName The name of the card to get the multiverse id for
-	 * @return The Multiverse Id of the named card
-	 * @throws IOException If there is a problem scraping from the Gatherer
+	 * @param cardName The name of the card, exactly as printed.
+	 * @param validators The validators of the page the legality was last scraped from, or {@code null} if it has not
+	 *            been scraped
+	 * @return The scraped legality, or a result that is not modified if the legality has not changed
+	 * @throws IOException If there is a problem scraping the gatherer
 	 */
-	public int getMultiverseId(String cardName) throws IOException
+	public ScrapedLegality getLegalityIfModified(String cardName, PageValidators validators) throws IOException
 	{
-		String queryString = MULTIVERSE_ID_QUERY_URL_BASE + cardName.replaceAll("\\s", "%20");
-		GetMethod getMethod = new GetMethod(queryString);
-
-		getHttpClient().executeMethod(getMethod);
-		String response = getMethod.getResponseBodyAsString();
-
-		return getIdFromResponse(response);
-	}
+		ScrapedLegality scrapedLegality = null;
 
-	/*private void addToLegalities(MagicLegalityRestriction legalityRestriction, MagicDeckFormat deckFormat, Map<MagicDeckFormat, MagicLegalityRestriction> legalities)
-	{
-		if (legalities.get(deckFormat) == null)
+		if (validators != null && validators.canRevalidate())
 		{
-			legalities.put(deckFormat, legalityRestriction);
+			scrapedLegality = readLegalityPage(validators.getRequestPath(), cardName, validators);
 		}
-		else
+
+		if (scrapedLegality == null)
 		{
-			if (legalityRestriction.isMoreRestrictiveThan(legalities.get(deckFormat)))
+			int multiverseId = multiverseIdMemo.get(cardName);
+			String resolvedName = cardName;
+
+			if (multiverseId <= 0)
 			{
-				legalities.put(deckFormat, legalityRestriction);
+				resolvedName = resolveCardName(cardName);
+				multiverseId = resolvedName.equals(cardName) ? 0 : multiverseIdMemo.get(resolvedName);
 			}
-		}
-	}*/
-
-	private Map<MagicDeckFormat, MagicLegalityRestriction> extractLegalities(Node tableNode)
-	{
-		Map<MagicDeckFormat, MagicLegalityRestriction> legalities = new HashMap<MagicDeckFormat, MagicLegalityRestriction>();
 
-		for (Node rowNode : tableNode.getChildren().toNodeArray())
-		{
-			if (rowNode instanceof TableRow)
+			if (multiverseId > 0)
 			{
-				if (isForRelevantFormat(rowNode))
+				scrapedLegality = scrapeLegality(multiverseId);
+			}
+			else
+			{
+				scrapedLegality = readLegalityPage(NAMED_LEGALITY_QUERY_PATH + encodeCardName(resolvedName), resolvedName, null);
+
+				if (scrapedLegality == null)
 				{
-					MagicLegalityRestriction legalityRestriction = getLegalityRestrictionFromRow(rowNode);
-					MagicDeckFormat deckFormat = getDeckFormat(rowNode);
-					legalities.put(deckFormat, legalityRestriction);
-					//addToLegalities(legalityRestriction, deckFormat, legalities);
+					scrapedLegality = scrapeLegality(getMultiverseId(resolvedName));
 				}
 			}
 		}
 
-		return legalities;
+		return scrapedLegality;
 	}
 
-	private MagicDeckFormat getDeckFormat(Node rowNode)
+	/**
+	 * Gets the multiverse id of the named card. This will generally return the most recent multiverse id for this card
+	 * <p>
+	 * The Gatherer is only queried if the id is not already held in the shared {@link MultiverseIdMemo}. The name is first
+	 * resolved through the shared {@link CardNameIndex}, so a name that differs from a known card name only in case,
+	 * accents or punctuation is looked up by the known name, and a name the Gatherer is known not to have fails at once
+	 * without querying it again. A name is only remembered as unknown when the Gatherer answers that its search found no
+	 * cards, never after an error response or a page without an id.
+	 * </p>
+	 * 
+	 * @param cardName The name of the card to get the multiverse id for
+	 * @return The Multiverse Id of the named card
+	 * @throws UnknownCardNameException If the Gatherer has no card with the name
+	 * @throws IOException If there is a problem scraping from the Gatherer, including a page with no multiverse id that
+	 *             does not say that no cards were found
+	 */
+	public int getMultiverseId(String cardName) throws IOException
 	{
-		MagicDeckFormat deckFormat = null;
-		locateFormatType: for (Node dataNode : rowNode.getChildren().toNodeArray())
+		int multiverseId = multiverseIdMemo.get(cardName);
+
+		if (multiverseId <= 0)
 		{
-			if (dataNode instanceof TableColumn)
+			String resolvedName = resolveCardName(cardName);
+			multiverseId = resolvedName.equals(cardName) ? 0 : multiverseIdMemo.get(resolvedName);
+
+			if (multiverseId <= 0)
 			{
-				deckFormat = MagicDeckFormat.getFormatForString(dataNode.getFirstChild().getText().trim());
-				if (deckFormat != null)
+				long startNanos = System.nanoTime();
+				boolean isIdFound = false;
+				String responseBody = null;
+
+				try
 				{
-					break locateFormatType;
+					responseBody = getResponseBody(MULTIVERSE_ID_QUERY_PATH + encodeCardName(resolvedName));
+					multiverseId = getIdFromResponse(responseBody);
+					isIdFound = multiverseId > 0;
 				}
+				finally
+				{
+					LegalityCheckerMetrics.getMetrics().recordMultiverseIdLookup(System.nanoTime() - startNanos, isIdFound);
+				}
+
+				if (!isIdFound)
+				{
+					if (!responseBody.contains(NO_CARDS_FOUND_TEXT))
+					{
+						throw new IOException("No multiverse id found in the Gatherer page for card: " + resolvedName);
+					}
+
+					cardNameIndex.markUnknown(cardName);
+					throw new UnknownCardNameException(cardName, cardNameIndex.suggest(cardName, SUGGESTION_LIMIT));
+				}
+
+				multiverseIdMemo.put(resolvedName, multiverseId);
+				cardNameIndex.add(resolvedName);
 			}
+
+			multiverseIdMemo.put(cardName, multiverseId);
 		}
-		return deckFormat;
+
+		return multiverseId;
 	}
 
-	private Node getFirstTableRowNode(Node tableNode)
+	/**
+	 * @return The known card name the name resolves to in the card name index, or the name itself if it does not resolve
+	 * @throws UnknownCardNameException If the Gatherer is known to have no card with the name
+	 */
+	private String resolveCardName(String cardName) throws UnknownCardNameException
 	{
-		Node firstTableRowNode = null;
-		locateFirstTableRowNode: for (Node childNode : tableNode.getChildren().toNodeArray())
+		String resolvedName = cardNameIndex.resolve(cardName);
+
+		if (resolvedName == null)
 		{
-			if (childNode instanceof TableRow)
+			if (cardNameIndex.isUnknown(cardName))
 			{
-				firstTableRowNode = childNode;
-				break locateFirstTableRowNode;
+				throw new UnknownCardNameException(cardName, cardNameIndex.suggest(cardName, SUGGESTION_LIMIT));
 			}
+			resolvedName = cardName;
 		}
 
-		return firstTableRowNode;
+		return resolvedName;
 	}
 
-	private HttpClient getHttpClient()
+	private ScrapedLegality scrapeLegality(int cardMultiverseId) throws IOException
 	{
-		if (httpClient == null)
+		ScrapedLegality scrapedLegality = readLegalityPage(LEGALITY_QUERY_PATH + cardMultiverseId, null, null);
+
+		if (scrapedLegality == null)
 		{
-			httpClient = new HttpClient();
-			httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+			throw new IOException("No legality table found in the printings of multiverse id " + cardMultiverseId);
 		}
 
-		return httpClient;
+		return scrapedLegality;
 	}
 
-	private int getIdFromResponse(String response)
+	private String getResponseBody(String queryPath) throws IOException
 	{
-		int idStartIndex = response.indexOf("multiverseid=") + "multiverseid=".length();
-		int idEndIndex = response.indexOf("\"", idStartIndex);
+		GathererResponse response = transport.get(queryPath, REQUEST_HEADERS);
+		CountingInputStream countingStream = null;
+		StringBuilder responseBody = new StringBuilder();
+		boolean isBodyRead = false;
+
+		try
+		{
+			checkSuccessStatus(queryPath, response.getStatusCode());
 
-		String idAsString = response.substring(idStartIndex, idEndIndex);
+			InputStream bodyStream = response.getBodyStream();
+			if (bodyStream != null)
+			{
+				countingStream = new CountingInputStream(bodyStream);
+				InputStream decodedStream = getDecodedStream(countingStream, response.getHeader(CONTENT_ENCODING_HEADER));
+				Reader bodyReader = new InputStreamReader(decodedStream, response.getCharset() == null ? DEFAULT_RESPONSE_CHARSET : response.getCharset());
+				char[] buffer = new char[4096];
+				int readCount = bodyReader.read(buffer);
+				while (readCount != -1)
+				{
+					responseBody.append(buffer, 0, readCount);
+					readCount = bodyReader.read(buffer);
+				}
+			}
+			isBodyRead = true;
+		}
+		finally
+		{
+			if (countingStream != null)
+			{
+				LegalityCheckerMetrics.getMetrics().recordResponseBytes(countingStream.getCount());
+			}
+			if (!isBodyRead)
+			{
+				response.abort();
+			}
+			response.release();
+		}
 
-		return Integer.parseInt(idAsString);
+		return responseBody.toString();
 	}
 
-	private MagicLegalityRestriction getLegalityRestrictionFromRow(Node rowNode)
+	/**
+	 * Streams the printings page at the given path through a {@link LegalityTableExtractor}. The response is aborted
+	 * rather than just released if the legality table ends before the page does, so the rest of the page is never read.
+	 * 
+	 * @param queryPath The path of the printings page
+	 * @param cardName The name of the card to remember the multiverse id linked to from the page for, or {@code null}
+	 * @param validators The validators to request the page conditionally with, or {@code null} to always read it
+	 * @return The legalities from the page, a result that is not modified if the page has not changed since the
+	 *         validators were received, or {@code null} if the page has no legality table
+	 * @throws IOException If the page cannot be read, or the Gatherer responds with any status other than a success or,
+	 *             to a conditional request, not modified
+	 */
+	private ScrapedLegality readLegalityPage(String queryPath, String cardName, PageValidators validators) throws IOException
 	{
-		MagicLegalityRestriction legalityRestriction = null;
-		locateFormatType: for (Node dataNode : rowNode.getChildren().toNodeArray())
+		ScrapedLegality scrapedLegality = null;
+		CountingInputStream countingStream = null;
+		boolean isPageRead = false;
+		boolean isRequestComplete = false;
+		long startNanos = System.nanoTime();
+		GathererResponse response = null;
+
+		try
+		{
+			response = transport.get(queryPath, getConditionalRequestHeaders(validators));
+			InputStream pageStream = response.getBodyStream();
+
+			if (validators != null && response.getStatusCode() == NOT_MODIFIED_STATUS)
+			{
+				scrapedLegality = new ScrapedLegality(null, null, validators.withValidatedTime(System.currentTimeMillis()));
+				LegalityCheckerMetrics.getMetrics().recordNotModifiedResponse();
+				isPageRead = true;
+			}
+			else
+			{
+				checkSuccessStatus(queryPath, response.getStatusCode());
+
+				if (pageStream != null)
+				{
+					countingStream = new CountingInputStream(pageStream);
+					InputStream decodedStream = getDecodedStream(countingStream, response.getHeader(CONTENT_ENCODING_HEADER));
+					LegalityTableExtractor extractor = new LegalityTableExtractor(decodedStream, response.getCharset());
+					long parseStartNanos = System.nanoTime();
+					Map<MagicDeckFormat, MagicLegalityRestriction> legality = extractor.extract();
+					LegalityCheckerMetrics.getMetrics().recordPageParse(System.nanoTime() - parseStartNanos);
+					isPageRead = legality == null;
+
+					if (legality != null)
+					{
+						PageValidators newValidators = new PageValidators(queryPath, response.getHeader(ETAG_HEADER), response.getHeader(LAST_MODIFIED_HEADER), System.currentTimeMillis());
+						scrapedLegality = new ScrapedLegality(legality, extractor.getPrintedSets(), newValidators);
+
+						if (cardName != null)
+						{
+							multiverseIdMemo.put(cardName, extractor.getFirstMultiverseId());
+							cardNameIndex.add(cardName);
+						}
+					}
+				}
+			}
+			isRequestComplete = true;
+		}
+		finally
 		{
-			if (dataNode instanceof TableColumn)
+			LegalityCheckerMetrics.getMetrics().recordLegalityPageRequest(System.nanoTime() - startNanos, isRequestComplete);
+			if (countingStream != null)
+			{
+				LegalityCheckerMetrics.getMetrics().recordResponseBytes(countingStream.getCount());
+			}
+			if (response != null)
 			{
-				legalityRestriction = MagicLegalityRestriction.getLegalityRestrictionForString(dataNode.getFirstChild().getText().trim());
-				if (legalityRestriction != null)
+				if (!isPageRead)
 				{
-					break locateFormatType;
+					response.abort();
 				}
+				response.release();
 			}
 		}
-		return legalityRestriction;
+
+		return scrapedLegality;
 	}
 
-	private Node getLegalityTable(String responseBody)
+	/**
+	 * @throws IOException If the status code is not a success, so that an error page is never read as a Gatherer page
+	 */
+	private static void checkSuccessStatus(String queryPath, int statusCode) throws IOException
 	{
-		Node legalityTableNode = null;
-		try
+		if (statusCode < 200 || statusCode >= 300)
 		{
-			legalityTableNode = getLegalityTableNode(getTableElementsIteratorFromHtmlResponse(responseBody));
+			throw new IOException("The Gatherer responded with status " + statusCode + " to the request for " + queryPath);
 		}
-		catch (ParserException e)
+	}
+
+	/**
+	 * @return The headers to request a page with, which ask for it only if it does not match the validators
+	 */
+	private Map<String, String> getConditionalRequestHeaders(PageValidators validators)
+	{
+		Map<String, String> requestHeaders = REQUEST_HEADERS;
+
+		if (validators != null && validators.canRevalidate())
 		{
-			e.printStackTrace();
+			requestHeaders = new HashMap<String, String>(REQUEST_HEADERS);
+			if (validators.getEntityTag() != null)
+			{
+				requestHeaders.put(IF_NONE_MATCH_HEADER, validators.getEntityTag());
+			}
+			if (validators.getLastModified() != null)
+			{
+				requestHeaders.put(IF_MODIFIED_SINCE_HEADER, validators.getLastModified());
+			}
 		}
 
-		return legalityTableNode;
+		return requestHeaders;
 	}
 
-	private Node getLegalityTableNode(SimpleNodeIterator elements)
+	/**
+	 * Wraps a response body in a stream that decodes its content encoding, if it has one
+	 */
+	private InputStream getDecodedStream(InputStream bodyStream, String contentEncoding) throws IOException
 	{
-		Node legalityTableNode = null;
+		InputStream decodedStream = bodyStream;
+		String encoding = contentEncoding == null ? "" : contentEncoding.trim().toLowerCase();
 
-		locateLegalityTableNode: while (elements.hasMoreNodes())
+		if ("gzip".equals(encoding) || "x-gzip".equals(encoding))
 		{
-			Node tableNode = elements.nextNode();
-
-			if (isNodeForLegalityTable(tableNode))
-			{
-				legalityTableNode = tableNode;
-				break locateLegalityTableNode;
-			}
+			decodedStream = new GZIPInputStream(bodyStream);
+		}
+		else if ("deflate".equals(encoding))
+		{
+			// deflate should be zlib wrapped, but some servers send raw deflate data, so check for a zlib header
+			BufferedInputStream bufferedStream = new BufferedInputStream(bodyStream);
+			bufferedStream.mark(2);
+			int firstByte = bufferedStream.read();
+			int secondByte = bufferedStream.read();
+			bufferedStream.reset();
+
+			boolean isZlibWrapped = firstByte >= 0 && secondByte >= 0 && (firstByte & 0x0f) == 8 && ((firstByte << 8) | secondByte) % 31 == 0;
+			decodedStream = new InflaterInputStream(bufferedStream, new Inflater(!isZlibWrapped));
 		}
 
-		return legalityTableNode;
+		return decodedStream;
 	}
 
-	private SimpleNodeIterator getTableElementsIteratorFromHtmlResponse(String responseBody) throws ParserException
+	private String encodeCardName(String cardName) throws IOException
 	{
-		return getTableNodesFromHtmlResponse(responseBody).elements();
+		return URLEncoder.encode(cardName, "UTF-8").replace("+", "%20");
 	}
 
-	private NodeList getTableNodesFromHtmlResponse(String responseBody) throws ParserException
+	private <T> Future<T> submit(final Callable<T> scrapeTask, final ScraperCallback<T> callback)
 	{
-		Parser htmlParser = new Parser();
-		htmlParser.setInputHTML(responseBody);
+		FutureTask<T> future = new FutureTask<T>(scrapeTask)
+		{
+			@Override
+			protected void done()
+			{
+				if (callback != null && !isCancelled())
+				{
+					try
+					{
+						callback.onSuccess(get());
+					}
+					catch (ExecutionException e)
+					{
+						callback.onFailure(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		};
+
+		scrapeExecutor.execute(future);
 
-		return htmlParser.parse(new TagNameFilter("table"));
+		return future;
 	}
 
-	private boolean isForRelevantFormat(Node rowNode)
+	/**
+	 * @return The multiverse id linked to from the response, or {@code 0} if the response has no well formed link
+	 */
+	private int getIdFromResponse(String response)
 	{
-		return getDeckFormat(rowNode) != null;
+		int multiverseId = 0;
+		int parameterIndex = response.indexOf(MULTIVERSE_ID_PARAMETER);
+
+		if (parameterIndex >= 0)
+		{
+			int idStartIndex = parameterIndex + MULTIVERSE_ID_PARAMETER.length();
+			int idEndIndex = idStartIndex;
+			while (idEndIndex < response.length() && Character.isDigit(response.charAt(idEndIndex)))
+			{
+				idEndIndex++;
+			}
+
+			if (idEndIndex > idStartIndex && idEndIndex - idStartIndex < 10)
+			{
+				multiverseId = Integer.parseInt(response.substring(idStartIndex, idEndIndex));
+			}
+		}
+
+		return multiverseId;
 	}
 
-	private boolean isNodeForLegalityTable(Node tableNode)
+	/**
+	 * Counts the bytes read through it, to measure the bytes received before they are decoded
+	 */
+	private static class CountingInputStream extends FilterInputStream
 	{
-		boolean formatFound = false;
-		boolean legalityFound = false;
+		private long count;
 
-		Node rowNode = getFirstTableRowNode(tableNode);
+		CountingInputStream(InputStream inputStream)
+		{
+			super(inputStream);
+		}
 
-		locateFormatAndLegalityNodes: for (Node rowChildNode : rowNode.getChildren().toNodeArray())
+		long getCount()
 		{
-			if (rowChildNode instanceof TableColumn)
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int readByte = super.read();
+			if (readByte != -1)
 			{
-				Node textNode = rowChildNode.getFirstChild();
-				String nodeText = textNode.getText().trim();
-				if (nodeText.equals("Format"))
-				{
-					formatFound = true;
-				}
-				if (nodeText.equals("Legality"))
-				{
-					legalityFound = true;
-				}
+				count++;
+			}
 
-				if (formatFound && legalityFound)
-				{
-					break locateFormatAndLegalityNodes;
-				}
+			return readByte;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int readCount = super.read(buffer, offset, length);
+			if (readCount > 0)
+			{
+				count += readCount;
 			}
+
+			return readCount;
+		}
+
+		@Override
+		public long skip(long byteCount) throws IOException
+		{
+			long skipCount = super.skip(byteCount);
+			count += skipCount;
+
+			return skipCount;
 		}
 
-		return formatFound && legalityFound;
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
 	}
 
-	private Map<MagicDeckFormat, MagicLegalityRestriction> parseLegalityFromResponse(String responseBody)
+	/**
+	 * Creates daemon worker threads, so that outstanding scrapes do not keep the JVM alive
+	 */
+	private static class ScraperThreadFactory implements ThreadFactory
 	{
-		Map<MagicDeckFormat, MagicLegalityRestriction> legality = new HashMap<MagicDeckFormat, MagicLegalityRestriction>();
+		private final AtomicInteger threadCount = new AtomicInteger();
 
-		legality = extractLegalities(getLegalityTable(responseBody));
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Gatherer Scraper " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
 
-		return legality;
+			return thread;
+		}
 	}
 }
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.htmlparser.Node;
+import org.htmlparser.Tag;
+import org.htmlparser.Text;
+import org.htmlparser.lexer.Lexer;
+import org.htmlparser.lexer.Page;
+import org.htmlparser.util.ParserException;
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * Extracts the format legalities from a Gatherer printings page as it is streamed.
+ * <p>
+ * The page is read tag by tag with the htmllexer {@link Lexer}, without building a document tree. The legality table is
+ * recognised by its first row having both a <em>Format</em> and a <em>Legality</em> column, and reading stops as soon as
+ * that table is closed, so the rest of the page is never read.
+ * </p>
+ * <p>
+ * The first multiverse id linked to from the page is also recorded, up to the point reading stops, as are the names of
+ * the sets the card was printed in, from the <em>Set</em> column of the printings table that precedes the legality
+ * table.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class LegalityTableExtractor
+{
+	private static final String MULTIVERSE_ID_PARAMETER = "multiverseid=";
+
+	private final Lexer lexer;
+	private final LinkedList<TableState> openTables = new LinkedList<TableState>();
+	private final StringBuilder cellText = new StringBuilder();
+	private final Set<String> printedSets = new LinkedHashSet<String>();
+
+	private int firstMultiverseId;
+	private boolean inCell;
+
+	/**
+	 * @param pageStream The stream of the page to extract the legalities from
+	 * @param charset The character set of the page, or {@code null} to use the default
+	 * @throws IOException If the character set is not supported
+	 */
+	public LegalityTableExtractor(InputStream pageStream, String charset) throws IOException
+	{
+		lexer = new Lexer(new Page(pageStream, charset == null ? Page.DEFAULT_CHARSET : charset));
+	}
+
+	/**
+	 * Reads the page until the end of the legality table.
+	 * 
+	 * @return The legalities in the legality table of the page, or {@code null} if the page has no legality table
+	 * @throws IOException If there is a problem reading the page
+	 */
+	public Map<MagicDeckFormat, MagicLegalityRestriction> extract() throws IOException
+	{
+		Map<MagicDeckFormat, MagicLegalityRestriction> legality = null;
+
+		try
+		{
+			Node node = lexer.nextNode();
+
+			readPage: while (node != null)
+			{
+				if (node instanceof Tag)
+				{
+					Tag tag = (Tag) node;
+					if (tag.isEndTag())
+					{
+						legality = endTag(tag.getTagName());
+						if (legality != null)
+						{
+							break readPage;
+						}
+					}
+					else
+					{
+						startTag(tag);
+					}
+				}
+				else if (node instanceof Text && inCell)
+				{
+					cellText.append(((Text) node).getText());
+				}
+
+				node = lexer.nextNode();
+			}
+		}
+		catch (ParserException e)
+		{
+			IOException ioException = new IOException("Failed to read the page: " + e.getMessage());
+			ioException.initCause(e);
+			throw ioException;
+		}
+
+		return legality;
+	}
+
+	/**
+	 * @return The first multiverse id linked to from the part of the page that has been read, or {@code 0} if there was
+	 *         none
+	 */
+	public int getFirstMultiverseId()
+	{
+		return firstMultiverseId;
+	}
+
+	/**
+	 * @return The distinct names of the sets the card was printed in, from the part of the page that has been read, in
+	 *         the order they are listed
+	 */
+	public List<String> getPrintedSets()
+	{
+		return Collections.unmodifiableList(new ArrayList<String>(printedSets));
+	}
+
+	private void startTag(Tag tag) throws ParserException
+	{
+		String tagName = tag.getTagName();
+
+		if ("TABLE".equals(tagName))
+		{
+			endCell();
+			openTables.addFirst(new TableState());
+		}
+		else if ("TR".equals(tagName))
+		{
+			endRow();
+		}
+		else if ("TD".equals(tagName) || "TH".equals(tagName))
+		{
+			endCell();
+			inCell = !openTables.isEmpty();
+		}
+		else if ("A".equals(tagName) && firstMultiverseId == 0)
+		{
+			recordMultiverseId(tag.getAttribute("href"));
+		}
+		else if ("SCRIPT".equals(tagName) || "STYLE".equals(tagName))
+		{
+			lexer.parseCDATA();
+		}
+	}
+
+	/**
+	 * @return The legalities if the tag closes the legality table, otherwise {@code null}
+	 */
+	private Map<MagicDeckFormat, MagicLegalityRestriction> endTag(String tagName)
+	{
+		Map<MagicDeckFormat, MagicLegalityRestriction> legality = null;
+
+		if ("TABLE".equals(tagName))
+		{
+			endRow();
+			if (!openTables.isEmpty())
+			{
+				TableState table = openTables.removeFirst();
+				if (table.isLegalityTable)
+				{
+					legality = table.legalities;
+				}
+				else
+				{
+					printedSets.addAll(table.setNames);
+				}
+			}
+		}
+		else if ("TR".equals(tagName))
+		{
+			endRow();
+		}
+		else if ("TD".equals(tagName) || "TH".equals(tagName))
+		{
+			endCell();
+		}
+
+		return legality;
+	}
+
+	private void endCell()
+	{
+		if (inCell)
+		{
+			openTables.getFirst().rowCells.add(cellText.toString().replace("&nbsp;", " ").trim());
+			cellText.setLength(0);
+			inCell = false;
+		}
+	}
+
+	private void endRow()
+	{
+		endCell();
+
+		if (!openTables.isEmpty())
+		{
+			TableState table = openTables.getFirst();
+			if (!table.rowCells.isEmpty())
+			{
+				table.addRow();
+			}
+		}
+	}
+
+	private void recordMultiverseId(String href)
+	{
+		if (href != null)
+		{
+			int idStartIndex = href.indexOf(MULTIVERSE_ID_PARAMETER);
+			if (idStartIndex >= 0)
+			{
+				idStartIndex += MULTIVERSE_ID_PARAMETER.length();
+				int idEndIndex = idStartIndex;
+				while (idEndIndex < href.length() && Character.isDigit(href.charAt(idEndIndex)))
+				{
+					idEndIndex++;
+				}
+
+				if (idEndIndex > idStartIndex)
+				{
+					firstMultiverseId = Integer.parseInt(href.substring(idStartIndex, idEndIndex));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state of a table that is currently open
+	 */
+	private static class TableState
+	{
+		private final List<String> rowCells = new ArrayList<String>();
+		private final Map<MagicDeckFormat, MagicLegalityRestriction> legalities = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+		private final List<String> setNames = new ArrayList<String>();
+		private boolean isFirstRow = true;
+		private boolean isLegalityTable;
+		private int setColumn = -1;
+
+		void addRow()
+		{
+			if (isFirstRow)
+			{
+				isLegalityTable = rowCells.contains("Format") && rowCells.contains("Legality");
+				if (rowCells.contains("Name"))
+				{
+					setColumn = rowCells.indexOf("Set");
+				}
+				isFirstRow = false;
+			}
+			else if (isLegalityTable)
+			{
+				addLegality();
+			}
+			else if (setColumn >= 0 && setColumn < rowCells.size() && rowCells.get(setColumn).length() > 0)
+			{
+				setNames.add(rowCells.get(setColumn));
+			}
+
+			rowCells.clear();
+		}
+
+		private void addLegality()
+		{
+			MagicDeckFormat deckFormat = null;
+			MagicLegalityRestriction legalityRestriction = null;
+
+			for (String cellText : rowCells)
+			{
+				if (deckFormat == null)
+				{
+					deckFormat = MagicDeckFormat.getFormatForString(cellText);
+				}
+				else if (legalityRestriction == null)
+				{
+					legalityRestriction = MagicLegalityRestriction.getLegalityRestrictionForString(cellText);
+				}
+			}
+
+			if (deckFormat != null && legalityRestriction != null)
+			{
+				legalities.put(deckFormat, legalityRestriction);
+			}
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.io.IOException;
+
+/**
+ * A local source of card multiverse ids, consulted before the Gatherer is queried for the id of a card.
+ * 
+ * @author Tym The Enchanter
+ */
+public interface MultiverseIdLookup
+{
+	/**
+	 * @param cardName The name of the card, as it is printed
+	 * @return The multiverse id of the named card, or {@code 0} if it is not known
+	 * @throws IOException If there is a problem reading the id
+	 */
+	int lookupMultiverseId(String cardName) throws IOException;
+}
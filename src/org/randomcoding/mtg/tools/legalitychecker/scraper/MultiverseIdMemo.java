@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Thread safe memo table of card name to multiverse id, so that the Gatherer is asked for the id of a card at most
+ * once.
+ * <p>
+ * Ids not held in the memo are looked up in the backing {@link MultiverseIdLookup}, if one is set, which allows the
+ * memo to be backed by a persistent store of card data.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class MultiverseIdMemo
+{
+	private static final Log log = LogFactory.getLog(MultiverseIdMemo.class);
+
+	private final ConcurrentMap<String, Integer> multiverseIds = new ConcurrentHashMap<String, Integer>();
+	private volatile MultiverseIdLookup backingLookup;
+
+	/**
+	 * @param cardName The name of the card
+	 * @return The remembered multiverse id of the named card, or {@code 0} if it is not known
+	 */
+	public int get(String cardName)
+	{
+		Integer multiverseId = multiverseIds.get(cardName);
+
+		if (multiverseId == null)
+		{
+			multiverseId = lookupMultiverseId(cardName);
+		}
+
+		return multiverseId;
+	}
+
+	/**
+	 * @param cardName The name of the card
+	 * @param multiverseId The multiverse id to remember for the card. Ids that are not positive are ignored.
+	 */
+	public void put(String cardName, int multiverseId)
+	{
+		if (multiverseId > 0)
+		{
+			multiverseIds.put(cardName, multiverseId);
+		}
+	}
+
+	/**
+	 * @param backingLookup The lookup to consult for ids not held in the memo, or {@code null} for none
+	 */
+	public void setBackingLookup(MultiverseIdLookup backingLookup)
+	{
+		this.backingLookup = backingLookup;
+	}
+
+	/**
+	 * @return The number of ids held in the memo
+	 */
+	public int size()
+	{
+		return multiverseIds.size();
+	}
+
+	private int lookupMultiverseId(String cardName)
+	{
+		int multiverseId = 0;
+		MultiverseIdLookup lookup = backingLookup;
+
+		if (lookup != null)
+		{
+			try
+			{
+				multiverseId = lookup.lookupMultiverseId(cardName);
+				put(cardName, multiverseId);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to lookup the multiverse id of card: " + cardName, e);
+			}
+		}
+
+		return multiverseId;
+	}
+}
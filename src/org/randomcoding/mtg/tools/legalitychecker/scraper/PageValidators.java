@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+/**
+ * The validators of a scraped Gatherer page, used to ask the Gatherer whether the page has changed without downloading
+ * it again.
+ * <p>
+ * Validators are immutable. They hold the path of the page they were received for, its <em>ETag</em> and
+ * <em>Last-Modified</em> headers, either of which may be {@code null}, and the time the page was last known to be
+ * current.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public final class PageValidators
+{
+	private final String requestPath;
+	private final String entityTag;
+	private final String lastModified;
+	private final long validatedTimeMillis;
+
+	/**
+	 * @param requestPath The path of the page the validators were received for
+	 * @param entityTag The entity tag of the page, or {@code null} if it has none
+	 * @param lastModified The last modified date of the page, exactly as it was received, or {@code null} if it has none
+	 * @param validatedTimeMillis The time the page was last known to be current, in milliseconds since the epoch
+	 */
+	public PageValidators(String requestPath, String entityTag, String lastModified, long validatedTimeMillis)
+	{
+		this.requestPath = requestPath;
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+		this.validatedTimeMillis = validatedTimeMillis;
+	}
+
+	/**
+	 * @param newValidatedTimeMillis The time the page was confirmed to be current
+	 * @return Validators for the same page that were validated at the given time
+	 */
+	public PageValidators withValidatedTime(long newValidatedTimeMillis)
+	{
+		return new PageValidators(requestPath, entityTag, lastModified, newValidatedTimeMillis);
+	}
+
+	/**
+	 * @return {@code true} if there is an entity tag or last modified date to make a conditional request with
+	 */
+	public boolean canRevalidate()
+	{
+		return requestPath != null && (entityTag != null || lastModified != null);
+	}
+
+	public String getRequestPath()
+	{
+		return requestPath;
+	}
+
+	public String getEntityTag()
+	{
+		return entityTag;
+	}
+
+	public String getLastModified()
+	{
+		return lastModified;
+	}
+
+	public long getValidatedTimeMillis()
+	{
+		return validatedTimeMillis;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return requestPath + " (ETag: " + entityTag + ", Last-Modified: " + lastModified + ")";
+	}
+}
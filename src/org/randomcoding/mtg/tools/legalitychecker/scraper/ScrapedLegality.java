@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+
+/**
+ * The result of scraping the legality of a card, which may be that the page has not changed since it was last scraped.
+ * 
+ * @author Tym The Enchanter
+ */
+public final class ScrapedLegality
+{
+	private final Map<MagicDeckFormat, MagicLegalityRestriction> legality;
+	private final List<String> printedSets;
+	private final PageValidators validators;
+
+	/**
+	 * @param legality The legality read from the page, or {@code null} if the page has not changed
+	 * @param printedSets The names of the sets the card was printed in, or {@code null} if the page has not changed
+	 * @param validators The validators of the page, to revalidate it with later
+	 */
+	ScrapedLegality(Map<MagicDeckFormat, MagicLegalityRestriction> legality, List<String> printedSets, PageValidators validators)
+	{
+		this.legality = legality;
+		this.printedSets = printedSets == null ? Collections.<String> emptyList() : printedSets;
+		this.validators = validators;
+	}
+
+	/**
+	 * @return {@code true} if the Gatherer confirmed the page has not changed, so the legality already held is current
+	 */
+	public boolean isNotModified()
+	{
+		return legality == null;
+	}
+
+	/**
+	 * @return The legality read from the page, or {@code null} if the page has not changed
+	 */
+	public Map<MagicDeckFormat, MagicLegalityRestriction> getLegality()
+	{
+		return legality;
+	}
+
+	/**
+	 * @return The names of the sets the card was printed in, which is empty if the page has not changed
+	 */
+	public List<String> getPrintedSets()
+	{
+		return printedSets;
+	}
+
+	/**
+	 * @return The validators of the page
+	 */
+	public PageValidators getValidators()
+	{
+		return validators;
+	}
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+/**
+ * Callback to receive the result of an asynchronous scrape from the Gatherer.
+ * <p>
+ * Callbacks are run on the scraper's worker threads, so should not block for any length of time.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ * @param <T> The type of the scraped data
+ */
+public interface ScraperCallback<T>
+{
+	/**
+	 * @param result The data scraped from the Gatherer
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * @param exception The reason that the data could not be scraped
+	 */
+	void onFailure(Exception exception);
+}
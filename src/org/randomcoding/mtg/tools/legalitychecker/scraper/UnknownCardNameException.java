@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when the Gatherer has no card with a name, with the names of the known cards closest to it.
+ * 
+ * @author Tym The Enchanter
+ */
+public class UnknownCardNameException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String cardName;
+	private final List<String> suggestions;
+
+	/**
+	 * @param cardName The name the Gatherer has no card for
+	 * @param suggestions The names of the known cards closest to the name, nearest first
+	 */
+	public UnknownCardNameException(String cardName, List<String> suggestions)
+	{
+		super("There is no card named " + cardName + (suggestions.isEmpty() ? "" : ", did you mean " + suggestions + "?"));
+		this.cardName = cardName;
+		this.suggestions = Collections.unmodifiableList(suggestions);
+	}
+
+	public String getCardName()
+	{
+		return cardName;
+	}
+
+	/**
+	 * @return The names of the known cards closest to the name, nearest first
+	 */
+	public List<String> getSuggestions()
+	{
+		return suggestions;
+	}
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+/**
+ * Limits the number of requests in progress at once, adapting the limit to how the server is coping.
+ * <p>
+ * The limit is adjusted by additive increase, multiplicative decrease. Each request that completes normally raises the
+ * limit by a fraction, so the limit grows by one for each full round of requests. A request that fails or is refused
+ * because the server is overloaded halves the limit, and a request that is much slower than the fastest recent request
+ * reduces it by a tenth, so the limit backs off as soon as the server starts queueing requests. The limit always stays
+ * between the minimum and maximum given.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class AdaptiveConcurrencyLimit
+{
+	private static final double OVERLOAD_DECREASE_FACTOR = 0.5;
+	private static final double LATENCY_DECREASE_FACTOR = 0.9;
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final int MINIMUM_LATENCY_WINDOW = 100;
+
+	private final int minimumLimit;
+	private final int maximumLimit;
+
+	private double limit;
+	private int inFlightCount;
+	private long minimumLatencyNanos = Long.MAX_VALUE;
+	private long windowMinimumLatencyNanos = Long.MAX_VALUE;
+	private int windowSampleCount;
+
+	/**
+	 * @param minimumLimit The lowest the limit can fall to, which must be at least one
+	 * @param maximumLimit The highest the limit can rise to. This is also the starting limit.
+	 */
+	public AdaptiveConcurrencyLimit(int minimumLimit, int maximumLimit)
+	{
+		if (minimumLimit < 1 || maximumLimit < minimumLimit)
+		{
+			throw new IllegalArgumentException("Invalid concurrency limits: " + minimumLimit + " to " + maximumLimit);
+		}
+
+		this.minimumLimit = minimumLimit;
+		this.maximumLimit = maximumLimit;
+		limit = maximumLimit;
+	}
+
+	/**
+	 * Waits until a request can be started
+	 * 
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized void acquire() throws InterruptedException
+	{
+		while (inFlightCount >= (int) limit)
+		{
+			wait();
+		}
+
+		inFlightCount++;
+	}
+
+	/**
+	 * Records a request that completed and adjusts the limit
+	 * 
+	 * @param latencyNanos The time taken for the server to respond
+	 */
+	public synchronized void releaseCompleted(long latencyNanos)
+	{
+		inFlightCount--;
+		updateMinimumLatency(latencyNanos);
+
+		if (latencyNanos > minimumLatencyNanos * LATENCY_TOLERANCE)
+		{
+			setLimit(limit * LATENCY_DECREASE_FACTOR);
+		}
+		else
+		{
+			setLimit(limit + 1 / limit);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Records a request that failed, or was refused, because the server is overloaded and halves the limit
+	 */
+	public synchronized void releaseOverloaded()
+	{
+		inFlightCount--;
+		setLimit(limit * OVERLOAD_DECREASE_FACTOR);
+		notifyAll();
+	}
+
+	/**
+	 * Records a request whose outcome says nothing about the load on the server, without changing the limit
+	 */
+	public synchronized void releaseIgnored()
+	{
+		inFlightCount--;
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of requests that can currently be in progress at once
+	 */
+	public synchronized int getLimit()
+	{
+		return (int) limit;
+	}
+
+	/**
+	 * @return The number of requests currently in progress
+	 */
+	public synchronized int getInFlightCount()
+	{
+		return inFlightCount;
+	}
+
+	private void setLimit(double newLimit)
+	{
+		limit = Math.max(minimumLimit, Math.min(maximumLimit, newLimit));
+	}
+
+	/**
+	 * Tracks the fastest response seen over the last two windows of requests, so a server that has become slower for
+	 * good is not treated as overloaded for ever
+	 */
+	private void updateMinimumLatency(long latencyNanos)
+	{
+		windowMinimumLatencyNanos = Math.min(windowMinimumLatencyNanos, latencyNanos);
+		minimumLatencyNanos = Math.min(minimumLatencyNanos, latencyNanos);
+
+		if (++windowSampleCount >= MINIMUM_LATENCY_WINDOW)
+		{
+			minimumLatencyNanos = windowMinimumLatencyNanos;
+			windowMinimumLatencyNanos = Long.MAX_VALUE;
+			windowSampleCount = 0;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A response from a {@link GathererTransport}.
+ * <p>
+ * The body can only be read once. {@link #release()} must always be called when the response is finished with, after
+ * {@link #abort()} if the body was not read to the end, so that the connection can be reused.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public interface GathererResponse
+{
+	/**
+	 * @return The HTTP status code of the response
+	 */
+	int getStatusCode();
+
+	/**
+	 * @param headerName The name of the header, which is not case sensitive
+	 * @return The value of the header, or {@code null} if the response does not have it
+	 */
+	String getHeader(String headerName);
+
+	/**
+	 * @return All the headers of the response
+	 */
+	Map<String, String> getHeaders();
+
+	/**
+	 * @return The character set of the body, or {@code null} if it is not known
+	 */
+	String getCharset();
+
+	/**
+	 * @return The stream of the body, or {@code null} if the response has no body
+	 * @throws IOException If the body cannot be read
+	 */
+	InputStream getBodyStream() throws IOException;
+
+	/**
+	 * Abandons the response without reading the rest of the body
+	 */
+	void abort();
+
+	/**
+	 * Releases the resources held by the response
+	 */
+	void release();
+}
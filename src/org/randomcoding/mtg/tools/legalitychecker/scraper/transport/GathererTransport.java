@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The means by which the scraper requests pages from the Gatherer.
+ * <p>
+ * Requests are made with paths relative to the base url of the transport, such as
+ * {@code Pages/Card/Printings.aspx?multiverseid=1234}, so the same requests can be served live, from recordings or by a
+ * local stand in for the Gatherer.
+ * </p>
+ * <p>
+ * Transports must be safe to use from many threads at once.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public interface GathererTransport
+{
+	/**
+	 * Makes a GET request. The response must be released once it has been read.
+	 * 
+	 * @param requestPath The path and query of the request, relative to the base url of the transport
+	 * @param requestHeaders Any additional headers to send with the request, which may be empty
+	 * @return The response to the request
+	 * @throws IOException If the request cannot be made
+	 */
+	GathererResponse get(String requestPath, Map<String, String> requestHeaders) throws IOException;
+
+	/**
+	 * Releases any resources held by the transport. No more requests can be made once this is called.
+	 */
+	void shutdown();
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+/**
+ * A transport that makes live requests with commons-httpclient, over a pool of persistent connections.
+ * 
+ * @author Tym The Enchanter
+ */
+public class HttpClientTransport implements GathererTransport
+{
+	/** The base url of the live Gatherer */
+	public static final String GATHERER_URL_BASE = "http://gatherer.wizards.com/";
+
+	private static final int CONNECTION_TIMEOUT_MILLIS = 10000;
+	private static final int SOCKET_TIMEOUT_MILLIS = 30000;
+
+	private final String baseUrl;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private final HttpClient httpClient;
+
+	/**
+	 * @param baseUrl The url that request paths are relative to. This should end with a {@code /}.
+	 * @param maximumConnections The maximum number of connections to hold open at once
+	 */
+	public HttpClientTransport(String baseUrl, int maximumConnections)
+	{
+		this.baseUrl = baseUrl;
+
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		connectionManager.getParams().setMaxTotalConnections(maximumConnections);
+		connectionManager.getParams().setDefaultMaxConnectionsPerHost(maximumConnections);
+		connectionManager.getParams().setConnectionTimeout(CONNECTION_TIMEOUT_MILLIS);
+		connectionManager.getParams().setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+		connectionManager.getParams().setStaleCheckingEnabled(true);
+
+		httpClient = new HttpClient(connectionManager);
+		httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+	}
+
+	/**
+	 * @return The url that request paths are relative to
+	 */
+	public String getBaseUrl()
+	{
+		return baseUrl;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public GathererResponse get(String requestPath, Map<String, String> requestHeaders) throws IOException
+	{
+		GetMethod getMethod = new GetMethod(baseUrl + requestPath);
+		getMethod.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+		for (Map.Entry<String, String> requestHeader : requestHeaders.entrySet())
+		{
+			getMethod.setRequestHeader(requestHeader.getKey(), requestHeader.getValue());
+		}
+
+		boolean isExecuted = false;
+		try
+		{
+			httpClient.executeMethod(getMethod);
+			isExecuted = true;
+		}
+		finally
+		{
+			if (!isExecuted)
+			{
+				getMethod.releaseConnection();
+			}
+		}
+
+		return new HttpClientResponse(getMethod);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void shutdown()
+	{
+		connectionManager.shutdown();
+	}
+
+	private static class HttpClientResponse implements GathererResponse
+	{
+		private final GetMethod getMethod;
+
+		HttpClientResponse(GetMethod getMethod)
+		{
+			this.getMethod = getMethod;
+		}
+
+		public int getStatusCode()
+		{
+			return getMethod.getStatusCode();
+		}
+
+		public String getHeader(String headerName)
+		{
+			Header header = getMethod.getResponseHeader(headerName);
+
+			return header == null ? null : header.getValue();
+		}
+
+		public Map<String, String> getHeaders()
+		{
+			Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			for (Header header : getMethod.getResponseHeaders())
+			{
+				headers.put(header.getName(), header.getValue());
+			}
+
+			return Collections.unmodifiableMap(headers);
+		}
+
+		public String getCharset()
+		{
+			return getMethod.getResponseCharSet();
+		}
+
+		public InputStream getBodyStream() throws IOException
+		{
+			return getMethod.getResponseBodyAsStream();
+		}
+
+		public void abort()
+		{
+			getMethod.abort();
+		}
+
+		public void release()
+		{
+			getMethod.releaseConnection();
+		}
+	}
+}
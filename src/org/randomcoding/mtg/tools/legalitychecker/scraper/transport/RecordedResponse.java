@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A response held in memory, as recorded by a {@link RecordingTransport} and served by a {@link ReplayTransport} or by
+ * the Gatherer stand in server of the benchmarks project.
+ * <p>
+ * Each response is recorded to its own file in a recording directory, named after its request path. The file holds a
+ * status line, the headers one per line, a blank line and then the body exactly as it was received. Headers that only
+ * describe the connection the response was sent on are not recorded.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class RecordedResponse implements GathererResponse
+{
+	private static final String FILE_ENCODING = "ISO-8859-1";
+	private static final String STATUS_PREFIX = "HTTP ";
+	private static final String HEADER_SEPARATOR = ": ";
+	private static final String RECORDING_FILE_SUFFIX = ".response";
+	private static final int MAXIMUM_FILE_NAME_LENGTH = 120;
+	private static final String[] CONNECTION_HEADERS = { "Connection", "Content-Length", "Keep-Alive", "Transfer-Encoding" };
+
+	private final int statusCode;
+	private final Map<String, String> headers;
+	private final byte[] body;
+
+	/**
+	 * @param statusCode The HTTP status code of the response
+	 * @param headers The headers of the response
+	 * @param body The body of the response
+	 */
+	public RecordedResponse(int statusCode, Map<String, String> headers, byte[] body)
+	{
+		this.statusCode = statusCode;
+		this.body = body;
+
+		Map<String, String> recordedHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		recordedHeaders.putAll(headers);
+		for (String connectionHeader : CONNECTION_HEADERS)
+		{
+			recordedHeaders.remove(connectionHeader);
+		}
+		this.headers = Collections.unmodifiableMap(recordedHeaders);
+	}
+
+	/**
+	 * Reads the whole of a response into memory and releases it.
+	 * 
+	 * @param response The response to read
+	 * @return The response held in memory
+	 * @throws IOException If the body of the response cannot be read
+	 */
+	public static RecordedResponse capture(GathererResponse response) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		boolean isBodyRead = false;
+
+		try
+		{
+			InputStream bodyStream = response.getBodyStream();
+			if (bodyStream != null)
+			{
+				copy(bodyStream, body);
+			}
+			isBodyRead = true;
+		}
+		finally
+		{
+			if (!isBodyRead)
+			{
+				response.abort();
+			}
+			response.release();
+		}
+
+		return new RecordedResponse(response.getStatusCode(), response.getHeaders(), body.toByteArray());
+	}
+
+	/**
+	 * @param recordingDirectory The directory holding the recordings
+	 * @param requestPath The path and query of the request
+	 * @return The file the response to the request is recorded in
+	 */
+	public static File getRecordingFile(File recordingDirectory, String requestPath)
+	{
+		StringBuilder fileName = new StringBuilder();
+
+		for (int i = 0; i < requestPath.length() && fileName.length() < MAXIMUM_FILE_NAME_LENGTH; i++)
+		{
+			char character = requestPath.charAt(i);
+			fileName.append(Character.isLetterOrDigit(character) && character < 128 || character == '.' || character == '-' ? character : '_');
+		}
+		fileName.append('-').append(Integer.toHexString(requestPath.hashCode())).append(RECORDING_FILE_SUFFIX);
+
+		return new File(recordingDirectory, fileName.toString());
+	}
+
+	/**
+	 * @param recordingFile The file to read the response from
+	 * @return The recorded response
+	 * @throws IOException If the file cannot be read or is not a recorded response
+	 */
+	public static RecordedResponse read(File recordingFile) throws IOException
+	{
+		InputStream recordingStream = new BufferedInputStream(new FileInputStream(recordingFile));
+
+		try
+		{
+			String statusLine = readLine(recordingStream);
+			if (statusLine == null || !statusLine.startsWith(STATUS_PREFIX))
+			{
+				throw new IOException("Not a recorded response: " + recordingFile);
+			}
+
+			int statusCode;
+			try
+			{
+				statusCode = Integer.parseInt(statusLine.substring(STATUS_PREFIX.length()).trim());
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Invalid status in recorded response: " + recordingFile);
+			}
+
+			Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			String headerLine = readLine(recordingStream);
+			while (headerLine != null && headerLine.length() > 0)
+			{
+				int separatorIndex = headerLine.indexOf(HEADER_SEPARATOR);
+				if (separatorIndex > 0)
+				{
+					headers.put(headerLine.substring(0, separatorIndex), headerLine.substring(separatorIndex + HEADER_SEPARATOR.length()));
+				}
+				headerLine = readLine(recordingStream);
+			}
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			copy(recordingStream, body);
+
+			return new RecordedResponse(statusCode, headers, body.toByteArray());
+		}
+		finally
+		{
+			recordingStream.close();
+		}
+	}
+
+	/**
+	 * @param recordingFile The file to write the response to. Any existing file is replaced.
+	 * @throws IOException If the file cannot be written
+	 */
+	public void write(File recordingFile) throws IOException
+	{
+		File temporaryFile = new File(recordingFile.getPath() + ".tmp");
+		OutputStream recordingStream = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+
+		try
+		{
+			StringBuilder head = new StringBuilder();
+			head.append(STATUS_PREFIX).append(statusCode).append('\n');
+			for (Map.Entry<String, String> header : headers.entrySet())
+			{
+				head.append(header.getKey()).append(HEADER_SEPARATOR).append(header.getValue()).append('\n');
+			}
+			head.append('\n');
+
+			recordingStream.write(head.toString().getBytes(FILE_ENCODING));
+			recordingStream.write(body);
+		}
+		finally
+		{
+			recordingStream.close();
+		}
+
+		if (!temporaryFile.renameTo(recordingFile))
+		{
+			recordingFile.delete();
+			if (!temporaryFile.renameTo(recordingFile))
+			{
+				throw new IOException("Failed to write the recorded response: " + recordingFile);
+			}
+		}
+	}
+
+	/**
+	 * @return The body of the response. This is not copied so must not be changed.
+	 */
+	public byte[] getBody()
+	{
+		return body;
+	}
+
+	public int getStatusCode()
+	{
+		return statusCode;
+	}
+
+	public String getHeader(String headerName)
+	{
+		return headers.get(headerName);
+	}
+
+	public Map<String, String> getHeaders()
+	{
+		return headers;
+	}
+
+	/**
+	 * @return The character set named in the content type header, or {@code null} if there is none
+	 */
+	public String getCharset()
+	{
+		String charset = null;
+		String contentType = getHeader("Content-Type");
+
+		if (contentType != null)
+		{
+			int charsetIndex = contentType.toLowerCase().indexOf("charset=");
+			if (charsetIndex >= 0)
+			{
+				charset = contentType.substring(charsetIndex + "charset=".length()).split(";")[0].replace("\"", "").trim();
+			}
+		}
+
+		return charset;
+	}
+
+	public InputStream getBodyStream()
+	{
+		return new ByteArrayInputStream(body);
+	}
+
+	public void abort()
+	{
+		// nothing is held open
+	}
+
+	public void release()
+	{
+		// nothing is held open
+	}
+
+	private static String readLine(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int character = stream.read();
+
+		if (character == -1)
+		{
+			return null;
+		}
+
+		while (character != -1 && character != '\n')
+		{
+			line.write(character);
+			character = stream.read();
+		}
+
+		return line.toString(FILE_ENCODING);
+	}
+
+	private static void copy(InputStream input, OutputStream output) throws IOException
+	{
+		byte[] buffer = new byte[8192];
+		int readCount = input.read(buffer);
+
+		while (readCount != -1)
+		{
+			output.write(buffer, 0, readCount);
+			readCount = input.read(buffer);
+		}
+	}
+}
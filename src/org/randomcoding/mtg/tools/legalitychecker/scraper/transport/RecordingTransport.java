@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A transport that passes requests on to another transport, usually a live one, and records each response to disk so
+ * that it can later be served by a {@link ReplayTransport} or by the Gatherer stand in server of the benchmarks project.
+ * <p>
+ * Each response is read completely and recorded before it is returned, so the benefit of only reading part of a page is
+ * lost while recording.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class RecordingTransport implements GathererTransport
+{
+	private final GathererTransport delegateTransport;
+	private final File recordingDirectory;
+
+	/**
+	 * @param delegateTransport The transport to make the requests with
+	 * @param recordingDirectory The directory to record responses in. This is created if it does not exist.
+	 * @throws IOException If the recording directory cannot be created
+	 */
+	public RecordingTransport(GathererTransport delegateTransport, File recordingDirectory) throws IOException
+	{
+		if (!recordingDirectory.isDirectory() && !recordingDirectory.mkdirs())
+		{
+			throw new IOException("Failed to create the recording directory: " + recordingDirectory);
+		}
+
+		this.delegateTransport = delegateTransport;
+		this.recordingDirectory = recordingDirectory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public GathererResponse get(String requestPath, Map<String, String> requestHeaders) throws IOException
+	{
+		RecordedResponse response = RecordedResponse.capture(delegateTransport.get(requestPath, requestHeaders));
+		response.write(RecordedResponse.getRecordingFile(recordingDirectory, requestPath));
+
+		return response;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void shutdown()
+	{
+		delegateTransport.shutdown();
+	}
+}
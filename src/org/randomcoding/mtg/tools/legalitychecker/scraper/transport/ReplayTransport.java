@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A transport that serves the responses recorded by a {@link RecordingTransport}, without using the network.
+ * 
+ * @author Tym The Enchanter
+ */
+public class ReplayTransport implements GathererTransport
+{
+	private final File recordingDirectory;
+
+	/**
+	 * @param recordingDirectory The directory holding the recorded responses
+	 */
+	public ReplayTransport(File recordingDirectory)
+	{
+		this.recordingDirectory = recordingDirectory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws FileNotFoundException If no response has been recorded for the request
+	 */
+	public GathererResponse get(String requestPath, Map<String, String> requestHeaders) throws IOException
+	{
+		File recordingFile = RecordedResponse.getRecordingFile(recordingDirectory, requestPath);
+
+		if (!recordingFile.isFile())
+		{
+			throw new FileNotFoundException("No response has been recorded for " + requestPath);
+		}
+
+		return RecordedResponse.read(recordingFile);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void shutdown()
+	{
+		// nothing to release
+	}
+}
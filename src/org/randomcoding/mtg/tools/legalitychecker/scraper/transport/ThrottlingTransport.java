@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.legalitychecker.metrics.LegalityCheckerMetrics;
+
+/**
+ * A transport that paces the requests made with another transport, so the Gatherer is used at the highest rate it will
+ * accept without it refusing requests.
+ * <p>
+ * Each request first waits for a {@link TokenBucketRateLimiter}, then for a slot within an
+ * {@link AdaptiveConcurrencyLimit}, which is held until the response is released. Requests that fail, or are refused
+ * with a status that shows the server is overloaded or throttling us, shrink the concurrency limit and are retried
+ * after an exponential backoff with full jitter, so that many clients retrying at once do not do so in step. A
+ * <em>Retry-After</em> header is honoured, up to the maximum backoff. Once all attempts fail the last failure is
+ * thrown.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class ThrottlingTransport implements GathererTransport
+{
+	private static final Log log = LogFactory.getLog(ThrottlingTransport.class);
+
+	private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+	private static final int DEFAULT_MAXIMUM_ATTEMPTS = 4;
+	private static final long DEFAULT_BASE_BACKOFF_MILLIS = 250;
+	private static final long DEFAULT_MAXIMUM_BACKOFF_MILLIS = 10000;
+	private static final int[] OVERLOADED_STATUS_CODES = { 429, 500, 502, 503, 504 };
+
+	private final GathererTransport delegateTransport;
+	private final TokenBucketRateLimiter rateLimiter;
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+	private final int maximumAttempts;
+	private final long baseBackoffNanos;
+	private final long maximumBackoffNanos;
+	private final Random backoffRandom = new Random();
+
+	/**
+	 * Creates a transport that allows {@value #DEFAULT_REQUESTS_PER_SECOND} requests a second and makes up to
+	 * {@value #DEFAULT_MAXIMUM_ATTEMPTS} attempts at each request.
+	 * 
+	 * @param delegateTransport The transport to make the requests with
+	 * @param maximumConcurrency The most requests to have in progress at once
+	 */
+	public ThrottlingTransport(GathererTransport delegateTransport, int maximumConcurrency)
+	{
+		this(delegateTransport, new TokenBucketRateLimiter(DEFAULT_REQUESTS_PER_SECOND, maximumConcurrency), new AdaptiveConcurrencyLimit(1, maximumConcurrency), DEFAULT_MAXIMUM_ATTEMPTS,
+				DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAXIMUM_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param delegateTransport The transport to make the requests with
+	 * @param rateLimiter The limiter of the request rate
+	 * @param concurrencyLimit The limiter of the number of requests in progress at once
+	 * @param maximumAttempts The most attempts to make at each request, which must be at least one
+	 * @param baseBackoff The backoff before the first retry, which is doubled for each later retry
+	 * @param maximumBackoff The longest backoff before any retry
+	 * @param timeUnit The unit of the backoffs
+	 */
+	public ThrottlingTransport(GathererTransport delegateTransport, TokenBucketRateLimiter rateLimiter, AdaptiveConcurrencyLimit concurrencyLimit, int maximumAttempts, long baseBackoff,
+			long maximumBackoff, TimeUnit timeUnit)
+	{
+		if (maximumAttempts < 1)
+		{
+			throw new IllegalArgumentException("At least one attempt must be made at each request");
+		}
+
+		this.delegateTransport = delegateTransport;
+		this.rateLimiter = rateLimiter;
+		this.concurrencyLimit = concurrencyLimit;
+		this.maximumAttempts = maximumAttempts;
+		this.baseBackoffNanos = timeUnit.toNanos(baseBackoff);
+		this.maximumBackoffNanos = timeUnit.toNanos(maximumBackoff);
+	}
+
+	/**
+	 * @return The adaptive limit of the number of requests in progress at once
+	 */
+	public AdaptiveConcurrencyLimit getConcurrencyLimit()
+	{
+		return concurrencyLimit;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public GathererResponse get(String requestPath, Map<String, String> requestHeaders) throws IOException
+	{
+		GathererResponse throttledResponse = null;
+		IOException lastFailure = null;
+
+		try
+		{
+			makeAttempts: for (int attempt = 0; attempt < maximumAttempts; attempt++)
+			{
+				if (attempt > 0)
+				{
+					long backoffNanos = getBackoffNanos(attempt, lastFailure);
+					log.debug("Retrying " + requestPath + " in " + TimeUnit.NANOSECONDS.toMillis(backoffNanos) + "ms after: " + lastFailure.getMessage());
+					LegalityCheckerMetrics.getMetrics().recordRequestRetry();
+					TimeUnit.NANOSECONDS.sleep(backoffNanos);
+				}
+
+				rateLimiter.acquire();
+				concurrencyLimit.acquire();
+
+				long startNanos = System.nanoTime();
+				GathererResponse response = null;
+				try
+				{
+					response = delegateTransport.get(requestPath, requestHeaders);
+				}
+				catch (IOException e)
+				{
+					concurrencyLimit.releaseOverloaded();
+					lastFailure = e;
+				}
+				catch (RuntimeException e)
+				{
+					// a request that could not be made, such as to a bad url, says nothing about the load on the server
+					concurrencyLimit.releaseIgnored();
+					throw e;
+				}
+
+				if (response != null)
+				{
+					if (isOverloadedStatus(response.getStatusCode()))
+					{
+						lastFailure = new OverloadedResponseException(requestPath, response.getStatusCode(), response.getHeader("Retry-After"));
+						response.abort();
+						response.release();
+						concurrencyLimit.releaseOverloaded();
+					}
+					else
+					{
+						throttledResponse = new ThrottledResponse(response, System.nanoTime() - startNanos);
+						break makeAttempts;
+					}
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			InterruptedIOException interruptedException = new InterruptedIOException("Interrupted while waiting to request " + requestPath);
+			interruptedException.initCause(e);
+			throw interruptedException;
+		}
+
+		if (throttledResponse == null)
+		{
+			throw lastFailure;
+		}
+
+		return throttledResponse;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void shutdown()
+	{
+		delegateTransport.shutdown();
+	}
+
+	/**
+	 * @return A random backoff of up to the base backoff doubled for each previous retry, or the time the server asked
+	 *         us to wait if that is longer
+	 */
+	private long getBackoffNanos(int attempt, IOException lastFailure)
+	{
+		long backoffCeilingNanos = Math.min(maximumBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30));
+		long backoffNanos;
+
+		synchronized (backoffRandom)
+		{
+			backoffNanos = (long) (backoffRandom.nextDouble() * backoffCeilingNanos);
+		}
+
+		if (lastFailure instanceof OverloadedResponseException)
+		{
+			backoffNanos = Math.max(backoffNanos, Math.min(maximumBackoffNanos, ((OverloadedResponseException) lastFailure).getRetryAfterNanos()));
+		}
+
+		return backoffNanos;
+	}
+
+	private boolean isOverloadedStatus(int statusCode)
+	{
+		boolean isOverloaded = false;
+
+		locateStatus: for (int overloadedStatusCode : OVERLOADED_STATUS_CODES)
+		{
+			if (statusCode == overloadedStatusCode)
+			{
+				isOverloaded = true;
+				break locateStatus;
+			}
+		}
+
+		return isOverloaded;
+	}
+
+	/**
+	 * The failure of a request that the server refused because it was overloaded
+	 */
+	private static class OverloadedResponseException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long retryAfterNanos;
+
+		OverloadedResponseException(String requestPath, int statusCode, String retryAfter)
+		{
+			super("The Gatherer responded with status " + statusCode + " to " + requestPath);
+
+			long retryAfterSeconds = 0;
+			if (retryAfter != null)
+			{
+				try
+				{
+					retryAfterSeconds = Math.max(0, Long.parseLong(retryAfter.trim()));
+				}
+				catch (NumberFormatException e)
+				{
+					// an HTTP date, which is not worth parsing for a backoff
+				}
+			}
+			retryAfterNanos = TimeUnit.SECONDS.toNanos(retryAfterSeconds);
+		}
+
+		long getRetryAfterNanos()
+		{
+			return retryAfterNanos;
+		}
+	}
+
+	/**
+	 * A response that frees its slot in the concurrency limit when it is released. Only a successful or not modified
+	 * response adjusts the limit, as the time taken to answer with an error, such as for a page that does not exist, says
+	 * nothing about the load on the server.
+	 */
+	private class ThrottledResponse implements GathererResponse
+	{
+		private final GathererResponse response;
+		private final long latencyNanos;
+		private boolean isReleased;
+
+		ThrottledResponse(GathererResponse response, long latencyNanos)
+		{
+			this.response = response;
+			this.latencyNanos = latencyNanos;
+		}
+
+		public int getStatusCode()
+		{
+			return response.getStatusCode();
+		}
+
+		public String getHeader(String headerName)
+		{
+			return response.getHeader(headerName);
+		}
+
+		public Map<String, String> getHeaders()
+		{
+			return response.getHeaders();
+		}
+
+		public String getCharset()
+		{
+			return response.getCharset();
+		}
+
+		public InputStream getBodyStream() throws IOException
+		{
+			return response.getBodyStream();
+		}
+
+		public void abort()
+		{
+			response.abort();
+		}
+
+		public synchronized void release()
+		{
+			if (!isReleased)
+			{
+				isReleased = true;
+				response.release();
+
+				int statusCode = response.getStatusCode();
+				if (statusCode < 400)
+				{
+					concurrencyLimit.releaseCompleted(latencyNanos);
+				}
+				else
+				{
+					concurrencyLimit.releaseIgnored();
+				}
+			}
+		}
+	}
+}
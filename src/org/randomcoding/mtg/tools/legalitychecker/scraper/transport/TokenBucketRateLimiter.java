@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.scraper.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests with a token bucket.
+ * <p>
+ * The bucket fills at a steady rate up to a maximum burst size, and each request takes a token from it. When the bucket
+ * is empty a request reserves the next token and waits until it is due, so waiting requests are served in the order
+ * they arrived and the long term rate never exceeds the fill rate.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class TokenBucketRateLimiter
+{
+	private final double tokensPerNano;
+	private final double burstSize;
+
+	private double availableTokens;
+	private long lastRefillNanos;
+
+	/**
+	 * @param requestsPerSecond The steady rate of requests to allow
+	 * @param burstSize The number of requests that can be made at once after the limiter has been idle
+	 */
+	public TokenBucketRateLimiter(double requestsPerSecond, int burstSize)
+	{
+		if (requestsPerSecond <= 0 || burstSize < 1)
+		{
+			throw new IllegalArgumentException("The request rate and burst size must be positive");
+		}
+
+		this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burstSize = burstSize;
+		availableTokens = burstSize;
+		lastRefillNanos = System.nanoTime();
+	}
+
+	/**
+	 * Waits until a request can be made
+	 * 
+	 * @throws InterruptedException If interrupted while waiting. The reserved token is not returned.
+	 */
+	public void acquire() throws InterruptedException
+	{
+		long waitNanos = reserve();
+
+		if (waitNanos > 0)
+		{
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes a token, which may be one that is not yet due
+	 * 
+	 * @return The time until the token taken is due
+	 */
+	private synchronized long reserve()
+	{
+		long nowNanos = System.nanoTime();
+		availableTokens = Math.min(burstSize, availableTokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+		lastRefillNanos = nowNanos;
+		availableTokens -= 1;
+
+		return availableTokens >= 0 ? 0 : (long) Math.ceil(-availableTokens / tokensPerNano);
+	}
+}
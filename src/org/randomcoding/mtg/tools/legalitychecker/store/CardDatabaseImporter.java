@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+
+/**
+ * Bulk loads a local dump of card data into a {@link CardLegalityStore}, so that the Gatherer only needs to be scraped
+ * for cards that are missing from the dump.
+ * <p>
+ * The dump is a CSV file whose first line is a header naming the columns. The columns are:
+ * <ul>
+ * <li><em>name</em> - The name of the card, as it is printed</li>
+ * <li><em>multiverseids</em> - The multiverse ids of the card, separated by semicolons</li>
+ * <li><em>sets</em> - The names of the sets the card was printed in, separated by semicolons. This is optional, but
+ * without it the legality of the card cannot be derived from the format set lists.</li>
+ * <li>One column per deck format, named as the {@link MagicDeckFormat}, holding the legality restriction of the card in
+ * that format, such as <em>Legal</em> or <em>Not Present</em>. An empty value means the format is not listed for the
+ * card.</li>
+ * </ul>
+ * Any other columns are ignored. Values may be quoted, with quotes inside quoted values doubled.
+ * </p>
+ * <p>
+ * The file is read a line at a time and each card is stored as it is read, so the memory used does not depend on the
+ * size of the dump.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class CardDatabaseImporter
+{
+	private static final Log log = LogFactory.getLog(CardDatabaseImporter.class);
+
+	private static final String NAME_COLUMN = "name";
+	private static final String MULTIVERSE_IDS_COLUMN = "multiverseids";
+	private static final String SETS_COLUMN = "sets";
+
+	private final CardLegalityStore legalityStore;
+
+	/**
+	 * @param legalityStore The store to import cards into
+	 */
+	public CardDatabaseImporter(CardLegalityStore legalityStore)
+	{
+		this.legalityStore = legalityStore;
+	}
+
+	/**
+	 * Imports all the cards from a UTF-8 encoded CSV dump file.
+	 * 
+	 * @param cardDatabaseFile The dump file to import
+	 * @return The number of cards imported
+	 * @throws IOException If the file cannot be read or the store cannot be written to
+	 */
+	public int importCards(File cardDatabaseFile) throws IOException
+	{
+		Reader reader = new InputStreamReader(new FileInputStream(cardDatabaseFile), "UTF-8");
+
+		try
+		{
+			return importCards(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Imports all the cards from a CSV dump. The reader is not closed.
+	 * 
+	 * @param cardDatabaseReader The reader of the dump
+	 * @return The number of cards imported
+	 * @throws IOException If the dump cannot be read, has no name column, or the store cannot be written to
+	 */
+	public int importCards(Reader cardDatabaseReader) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(cardDatabaseReader);
+		int importedCount = 0;
+		int lineNumber = 1;
+
+		List<String> fields = new ArrayList<String>();
+		String header = reader.readLine();
+		if (header == null)
+		{
+			return importedCount;
+		}
+
+		ColumnLayout columns = new ColumnLayout(parseFields(header, fields));
+
+		String line = reader.readLine();
+		while (line != null)
+		{
+			lineNumber++;
+
+			if (line.trim().length() > 0)
+			{
+				MtgCardData cardData = createCardData(parseFields(line, fields), columns);
+				if (cardData == null)
+				{
+					log.warn("Skipping malformed card data on line " + lineNumber + ": " + line);
+				}
+				else
+				{
+					legalityStore.put(cardData, getPrintedSets(fields, columns), null);
+					importedCount++;
+				}
+			}
+
+			line = reader.readLine();
+		}
+
+		legalityStore.flush();
+
+		return importedCount;
+	}
+
+	private MtgCardData createCardData(List<String> fields, ColumnLayout columns)
+	{
+		if (fields.size() <= columns.nameColumn || fields.get(columns.nameColumn).length() == 0)
+		{
+			return null;
+		}
+
+		int[] multiverseIds = new int[0];
+		if (columns.multiverseIdsColumn >= 0 && fields.size() > columns.multiverseIdsColumn && fields.get(columns.multiverseIdsColumn).length() > 0)
+		{
+			String[] multiverseIdFields = fields.get(columns.multiverseIdsColumn).split(";");
+			multiverseIds = new int[multiverseIdFields.length];
+			for (int i = 0; i < multiverseIdFields.length; i++)
+			{
+				try
+				{
+					multiverseIds[i] = Integer.parseInt(multiverseIdFields[i].trim());
+				}
+				catch (NumberFormatException e)
+				{
+					return null;
+				}
+			}
+		}
+
+		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+		{
+			int formatColumn = columns.formatColumns[deckFormat.ordinal()];
+			if (formatColumn >= 0 && fields.size() > formatColumn && fields.get(formatColumn).length() > 0)
+			{
+				MagicLegalityRestriction restriction = MagicLegalityRestriction.getLegalityRestrictionForString(fields.get(formatColumn).replace(' ', '_'));
+				if (restriction == null)
+				{
+					return null;
+				}
+				cardLegality.put(deckFormat, restriction);
+			}
+		}
+
+		return new MtgCardData(fields.get(columns.nameColumn), multiverseIds, cardLegality);
+	}
+
+	private List<String> getPrintedSets(List<String> fields, ColumnLayout columns)
+	{
+		List<String> printedSets = new ArrayList<String>();
+
+		if (columns.setsColumn >= 0 && fields.size() > columns.setsColumn)
+		{
+			for (String setName : fields.get(columns.setsColumn).split(";"))
+			{
+				if (setName.trim().length() > 0)
+				{
+					printedSets.add(setName.trim());
+				}
+			}
+		}
+
+		return printedSets;
+	}
+
+	/**
+	 * Splits a CSV line into its fields, re-using the given list.
+	 */
+	private List<String> parseFields(String line, List<String> fields)
+	{
+		fields.clear();
+		StringBuilder field = new StringBuilder();
+		boolean inQuotes = false;
+
+		for (int i = 0; i < line.length(); i++)
+		{
+			char character = line.charAt(i);
+
+			if (inQuotes)
+			{
+				if (character == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+				{
+					field.append('"');
+					i++;
+				}
+				else if (character == '"')
+				{
+					inQuotes = false;
+				}
+				else
+				{
+					field.append(character);
+				}
+			}
+			else if (character == '"')
+			{
+				inQuotes = true;
+			}
+			else if (character == ',')
+			{
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			}
+			else
+			{
+				field.append(character);
+			}
+		}
+		fields.add(field.toString().trim());
+
+		return fields;
+	}
+
+	/**
+	 * The column index of each known column in the dump, or -1 if it is not present
+	 */
+	private static class ColumnLayout
+	{
+		private final int nameColumn;
+		private final int multiverseIdsColumn;
+		private final int setsColumn;
+		private final int[] formatColumns;
+
+		ColumnLayout(List<String> headerFields) throws IOException
+		{
+			nameColumn = indexOf(headerFields, NAME_COLUMN);
+			multiverseIdsColumn = indexOf(headerFields, MULTIVERSE_IDS_COLUMN);
+			setsColumn = indexOf(headerFields, SETS_COLUMN);
+			formatColumns = new int[MagicDeckFormat.values().length];
+
+			for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+			{
+				formatColumns[deckFormat.ordinal()] = indexOf(headerFields, deckFormat.name());
+			}
+
+			if (nameColumn < 0)
+			{
+				throw new IOException("The card database has no " + NAME_COLUMN + " column");
+			}
+		}
+
+		private int indexOf(List<String> headerFields, String columnName)
+		{
+			int columnIndex = -1;
+
+			locateColumn: for (int i = 0; i < headerFields.size(); i++)
+			{
+				if (headerFields.get(i).equalsIgnoreCase(columnName))
+				{
+					columnIndex = i;
+					break locateColumn;
+				}
+			}
+
+			return columnIndex;
+		}
+	}
+}
@@ -0,0 +1,904 @@
+/*******************************************************************************
+ * Copyright (c) 08/09/2009 Tym The Enchanter - tymtheenchanter@randomcoding.co.uk
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tym The Enchanter - initial API and implementation
+ *******************************************************************************/
+package org.randomcoding.mtg.tools.legalitychecker.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.randomcoding.mtg.tools.enumerations.MagicDeckFormat;
+import org.randomcoding.mtg.tools.enumerations.MagicLegalityRestriction;
+import org.randomcoding.mtg.tools.legalitychecker.deck.MtgCardData;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.MultiverseIdLookup;
+import org.randomcoding.mtg.tools.legalitychecker.scraper.PageValidators;
+
+/**
+ * A persistent, on disk, store of the legality data scraped for cards.
+ * <p>
+ * The store is made up of two files in the store directory:
+ * <ul>
+ * <li>A data file, to which a record of the card name, multiverse ids, format legalities, the validators of the page
+ * they were scraped from and the sets the card was printed in is appended each time a card is stored</li>
+ * <li>An index file, which is an open addressed hash table of card name hash to data record offset</li>
+ * </ul>
+ * Both files are read through memory mapped buffers so a lookup only touches the pages of the index slot(s) and the
+ * record it needs, and the store is never loaded onto the heap as a whole.
+ * </p>
+ * <p>
+ * Storing a card that is already present appends a new record and re-points its index slot at it, the previous record
+ * is simply left in place. Marking a card as revalidated overwrites the validated time of its record in place.
+ * </p>
+ * <p>
+ * The store is a cache of the Gatherer, so a store written in an older format is discarded and rebuilt rather than
+ * converted. Likewise, index slots that point at records which are not wholly in the data file, as is left by a crash
+ * between appending a record and writing its slot, are dropped when the store is opened and the cards re-scraped.
+ * </p>
+ * <p>
+ * Lookups share a read lock, so any number of them can read the mapped files at once, while storing and revalidating
+ * cards takes the write lock.
+ * </p>
+ * <p>
+ * The store is also a {@link MultiverseIdLookup}, so that the multiverse ids of stored cards never need to be queried
+ * from the Gatherer.
+ * </p>
+ * 
+ * @author Tym The Enchanter
+ */
+public class CardLegalityStore implements MultiverseIdLookup
+{
+	private static final Log log = LogFactory.getLog(CardLegalityStore.class);
+
+	private static final String DATA_FILE_NAME = "legality.dat";
+	private static final String INDEX_FILE_NAME = "legality.idx";
+
+	private static final int STORE_MAGIC = 0x4d54474c;
+	private static final int STORE_VERSION = 3;
+
+	private static final int DATA_HEADER_SIZE = 12;
+	private static final int INDEX_HEADER_SIZE = 16;
+	private static final int INDEX_SLOT_SIZE = 8;
+	private static final int INITIAL_INDEX_SLOTS = 4096;
+
+	private static final byte NO_LEGALITY = 0;
+	private static final short NO_STRING = -1;
+
+	private final RandomAccessFile dataFile;
+	private final FileChannel dataChannel;
+	private final RandomAccessFile indexFile;
+	private final FileChannel indexChannel;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private volatile MappedByteBuffer dataBuffer;
+	private MappedByteBuffer indexBuffer;
+	private long dataLength;
+	private int indexSlotCount;
+	private int indexUsedSlots;
+
+	/**
+	 * Opens the store in the given directory, creating it if it does not already exist.
+	 * 
+	 * @param storeDirectory The directory to hold the store files
+	 * @throws IOException If the store files cannot be created or read
+	 */
+	public CardLegalityStore(File storeDirectory) throws IOException
+	{
+		if (!storeDirectory.isDirectory() && !storeDirectory.mkdirs())
+		{
+			throw new IOException("Unable to create legality store directory: " + storeDirectory);
+		}
+
+		dataFile = new RandomAccessFile(new File(storeDirectory, DATA_FILE_NAME), "rw");
+		dataChannel = dataFile.getChannel();
+		indexFile = new RandomAccessFile(new File(storeDirectory, INDEX_FILE_NAME), "rw");
+		indexChannel = indexFile.getChannel();
+
+		if (!isValidStore())
+		{
+			initialiseStore();
+		}
+
+		dataLength = dataChannel.size();
+		dataBuffer = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+		indexBuffer = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+		indexSlotCount = indexBuffer.getInt(8);
+		indexUsedSlots = indexBuffer.getInt(12);
+
+		dropIncompleteRecords();
+	}
+
+	/**
+	 * Gets the stored legality data for the named card.
+	 * 
+	 * @param cardName The name of the card, as it is printed
+	 * @return A new {@link MtgCardData} populated with the stored multiverse ids and format legalities, or {@code null}
+	 *         if the card is not in the store
+	 * @throws IOException If the store cannot be read
+	 */
+	public MtgCardData get(String cardName) throws IOException
+	{
+		MtgCardData cardData = null;
+
+		lock.readLock().lock();
+
+		try
+		{
+			int recordOffset = findRecordOffset(cardName);
+
+			if (recordOffset > 0)
+			{
+				cardData = readRecord(cardName, recordOffset);
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return cardData;
+	}
+
+	/**
+	 * Gets the highest, and so generally most recent, stored multiverse id of the named card
+	 * <p>
+	 * {@inheritDoc}
+	 */
+	public int lookupMultiverseId(String cardName) throws IOException
+	{
+		int multiverseId = 0;
+
+		lock.readLock().lock();
+
+		try
+		{
+			int recordOffset = findRecordOffset(cardName);
+
+			if (recordOffset > 0)
+			{
+				ByteBuffer data = getDataBuffer(recordOffset);
+				int position = recordOffset + 2 + data.getShort(recordOffset);
+				int multiverseIdCount = data.getInt(position);
+
+				for (int i = 1; i <= multiverseIdCount; i++)
+				{
+					multiverseId = Math.max(multiverseId, data.getInt(position + i * 4));
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return multiverseId;
+	}
+
+	/**
+	 * @param cardName The name of the card
+	 * @return {@code true} if there is stored legality data for the named card
+	 * @throws IOException If the store cannot be read
+	 */
+	public boolean contains(String cardName) throws IOException
+	{
+		boolean isContained;
+
+		lock.readLock().lock();
+
+		try
+		{
+			isContained = findRecordOffset(cardName) > 0;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return isContained;
+	}
+
+	/**
+	 * Gets the validators of the page the stored legality of the named card was scraped from.
+	 * 
+	 * @param cardName The name of the card, as it is printed
+	 * @return The stored validators, or {@code null} if the card is not in the store or was not stored with validators
+	 * @throws IOException If the store cannot be read
+	 */
+	public PageValidators getValidators(String cardName) throws IOException
+	{
+		PageValidators validators = null;
+
+		lock.readLock().lock();
+
+		try
+		{
+			int recordOffset = findRecordOffset(cardName);
+
+			if (recordOffset > 0)
+			{
+				ByteBuffer data = getDataBuffer(recordOffset);
+				int position = getValidatorsPosition(data, recordOffset);
+				long validatedTimeMillis = data.getLong(position);
+				position += 8;
+
+				String requestPath = readString(data, position);
+				position += getStringSize(data, position);
+				String entityTag = readString(data, position);
+				position += getStringSize(data, position);
+				String lastModified = readString(data, position);
+
+				if (requestPath != null)
+				{
+					validators = new PageValidators(requestPath, entityTag, lastModified, validatedTimeMillis);
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return validators;
+	}
+
+	/**
+	 * Gets the names of the sets the named card was printed in, from which its legality can be derived locally.
+	 * 
+	 * @param cardName The name of the card, as it is printed
+	 * @return The stored set names, which are empty if they were not stored, or {@code null} if the card is not in the
+	 *         store
+	 * @throws IOException If the store cannot be read
+	 */
+	public List<String> getPrintedSets(String cardName) throws IOException
+	{
+		List<String> printedSets = null;
+
+		lock.readLock().lock();
+
+		try
+		{
+			int recordOffset = findRecordOffset(cardName);
+
+			if (recordOffset > 0)
+			{
+				ByteBuffer data = getDataBuffer(recordOffset);
+				int position = getValidatorsPosition(data, recordOffset) + 8;
+				for (int i = 0; i < 3; i++)
+				{
+					position += getStringSize(data, position);
+				}
+
+				int setCount = data.getShort(position);
+				position += 2;
+
+				printedSets = new ArrayList<String>(setCount);
+				for (int i = 0; i < setCount; i++)
+				{
+					printedSets.add(readString(data, position));
+					position += getStringSize(data, position);
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return printedSets;
+	}
+
+	/**
+	 * Records that the stored legality of the named card has been confirmed as current, without appending a new record.
+	 * 
+	 * @param cardName The name of the card
+	 * @param validatedTimeMillis The time the legality was confirmed, in milliseconds since the epoch
+	 * @return {@code true} if the card is in the store, otherwise {@code false}
+	 * @throws IOException If the store cannot be written to
+	 */
+	public boolean markValidated(String cardName, long validatedTimeMillis) throws IOException
+	{
+		int recordOffset;
+
+		lock.writeLock().lock();
+
+		try
+		{
+			recordOffset = findRecordOffset(cardName);
+
+			if (recordOffset > 0)
+			{
+				ByteBuffer validatedTime = ByteBuffer.allocate(8);
+				validatedTime.putLong(validatedTimeMillis);
+				validatedTime.flip();
+
+				long position = getValidatorsPosition(getDataBuffer(recordOffset), recordOffset);
+				while (validatedTime.hasRemaining())
+				{
+					dataChannel.write(validatedTime, position + validatedTime.position());
+				}
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+
+		return recordOffset > 0;
+	}
+
+	/**
+	 * @return The names of all the cards held in the store, in no particular order
+	 * @throws IOException If the store cannot be read
+	 */
+	public List<String> getCardNames() throws IOException
+	{
+		List<String> cardNames;
+
+		lock.readLock().lock();
+
+		try
+		{
+			cardNames = new ArrayList<String>(indexUsedSlots);
+			for (int slot = 0; slot < indexSlotCount; slot++)
+			{
+				int recordOffset = getSlotOffset(slot);
+				if (recordOffset != 0)
+				{
+					ByteBuffer data = getDataBuffer(recordOffset);
+					byte[] nameBytes = new byte[data.getShort(recordOffset)];
+					for (int i = 0; i < nameBytes.length; i++)
+					{
+						nameBytes[i] = data.get(recordOffset + 2 + i);
+					}
+					cardNames.add(new String(nameBytes, "UTF-8"));
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return cardNames;
+	}
+
+	/**
+	 * Stores the multiverse ids and format legalities of the given card, replacing any data already stored for it.
+	 * 
+	 * @param cardData The card to store
+	 * @throws IOException If the store cannot be written to
+	 */
+	public void put(MtgCardData cardData) throws IOException
+	{
+		put(cardData, null, null);
+	}
+
+	/**
+	 * Stores the multiverse ids and format legalities of the given card along with the sets it was printed in and the
+	 * validators of the page they were scraped from, replacing any data already stored for it.
+	 * 
+	 * @param cardData The card to store
+	 * @param printedSets The names of the sets the card was printed in, or {@code null} if they are not known
+	 * @param validators The validators of the page the legalities were scraped from, or {@code null} if they were not
+	 *            scraped
+	 * @throws IOException If the store cannot be written to
+	 */
+	public void put(MtgCardData cardData, Collection<String> printedSets, PageValidators validators) throws IOException
+	{
+		lock.writeLock().lock();
+
+		try
+		{
+			byte[] nameBytes = encodeName(cardData.getCardName());
+			int recordOffset = appendRecord(nameBytes, cardData, printedSets, validators);
+			int nameHash = cardData.getCardName().hashCode();
+
+			int slot = findSlot(cardData.getCardName(), nameBytes, nameHash);
+			if (getSlotOffset(slot) == 0)
+			{
+				indexUsedSlots++;
+				indexBuffer.putInt(12, indexUsedSlots);
+			}
+			setSlot(slot, nameHash, recordOffset);
+
+			if (indexUsedSlots * 2 > indexSlotCount)
+			{
+				growIndex();
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of distinct cards held in the store
+	 */
+	public int size()
+	{
+		int size;
+
+		lock.readLock().lock();
+
+		try
+		{
+			size = indexUsedSlots;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Forces any stored data to be written to disk
+	 * 
+	 * @throws IOException If the data cannot be written
+	 */
+	public void flush() throws IOException
+	{
+		lock.writeLock().lock();
+
+		try
+		{
+			dataChannel.force(false);
+			indexBuffer.force();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes and closes the store. The store cannot be used once it is closed.
+	 * 
+	 * @throws IOException If the store files cannot be closed
+	 */
+	public void close() throws IOException
+	{
+		lock.writeLock().lock();
+
+		try
+		{
+			flush();
+			dataFile.close();
+			indexFile.close();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean isValidStore() throws IOException
+	{
+		boolean isValid = false;
+
+		if (dataChannel.size() >= DATA_HEADER_SIZE && indexChannel.size() >= INDEX_HEADER_SIZE)
+		{
+			dataFile.seek(0);
+			indexFile.seek(0);
+			isValid = dataFile.readInt() == STORE_MAGIC && dataFile.readInt() == STORE_VERSION && dataFile.readInt() == MagicDeckFormat.values().length
+					&& indexFile.readInt() == STORE_MAGIC && indexFile.readInt() == STORE_VERSION
+					&& indexChannel.size() == INDEX_HEADER_SIZE + (long) indexFile.readInt() * INDEX_SLOT_SIZE;
+		}
+
+		return isValid;
+	}
+
+	private void initialiseStore() throws IOException
+	{
+		dataFile.setLength(0);
+		dataFile.writeInt(STORE_MAGIC);
+		dataFile.writeInt(STORE_VERSION);
+		dataFile.writeInt(MagicDeckFormat.values().length);
+
+		indexFile.setLength(0);
+		indexFile.setLength(INDEX_HEADER_SIZE + (long) INITIAL_INDEX_SLOTS * INDEX_SLOT_SIZE);
+		indexFile.seek(0);
+		indexFile.writeInt(STORE_MAGIC);
+		indexFile.writeInt(STORE_VERSION);
+		indexFile.writeInt(INITIAL_INDEX_SLOTS);
+		indexFile.writeInt(0);
+	}
+
+	private int findRecordOffset(String cardName) throws IOException
+	{
+		return getSlotOffset(findSlot(cardName, encodeName(cardName), cardName.hashCode()));
+	}
+
+	/**
+	 * Linear probe for the slot holding the named card, or the empty slot it would be placed in.
+	 */
+	private int findSlot(String cardName, byte[] nameBytes, int nameHash) throws IOException
+	{
+		int slot = (nameHash & Integer.MAX_VALUE) % indexSlotCount;
+
+		locateSlot: while (getSlotOffset(slot) != 0)
+		{
+			if (getSlotHash(slot) == nameHash && isRecordForName(getSlotOffset(slot), nameBytes))
+			{
+				break locateSlot;
+			}
+
+			slot = (slot + 1) % indexSlotCount;
+		}
+
+		return slot;
+	}
+
+	private int getSlotHash(int slot)
+	{
+		return indexBuffer.getInt(INDEX_HEADER_SIZE + slot * INDEX_SLOT_SIZE);
+	}
+
+	private int getSlotOffset(int slot)
+	{
+		return indexBuffer.getInt(INDEX_HEADER_SIZE + slot * INDEX_SLOT_SIZE + 4);
+	}
+
+	private void setSlot(int slot, int nameHash, int recordOffset)
+	{
+		indexBuffer.putInt(INDEX_HEADER_SIZE + slot * INDEX_SLOT_SIZE, nameHash);
+		indexBuffer.putInt(INDEX_HEADER_SIZE + slot * INDEX_SLOT_SIZE + 4, recordOffset);
+	}
+
+	/**
+	 * Clears the index slots of any records that are not wholly in the data file, then re-hashes the remaining slots so
+	 * that no probe sequence is broken by the cleared slots.
+	 */
+	private void dropIncompleteRecords() throws IOException
+	{
+		int usedSlots = 0;
+		int droppedSlots = 0;
+
+		for (int slot = 0; slot < indexSlotCount; slot++)
+		{
+			int recordOffset = getSlotOffset(slot);
+			if (recordOffset != 0)
+			{
+				if (isCompleteRecord(recordOffset))
+				{
+					usedSlots++;
+				}
+				else
+				{
+					setSlot(slot, 0, 0);
+					droppedSlots++;
+				}
+			}
+		}
+
+		indexUsedSlots = usedSlots;
+		indexBuffer.putInt(12, indexUsedSlots);
+
+		if (droppedSlots > 0)
+		{
+			log.warn("Dropped " + droppedSlots + " legality store index entries for records missing from the data file");
+			rebuildIndex(indexSlotCount);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the record at the given offset lies wholly within the data file
+	 */
+	private boolean isCompleteRecord(int recordOffset)
+	{
+		long position = recordOffset + 2L;
+		boolean isComplete = recordOffset >= DATA_HEADER_SIZE && position <= dataLength;
+
+		if (isComplete)
+		{
+			int nameLength = dataBuffer.getShort(recordOffset);
+			position += nameLength + 4L;
+			isComplete = nameLength >= 0 && position <= dataLength;
+		}
+
+		if (isComplete)
+		{
+			int multiverseIdCount = dataBuffer.getInt((int) position - 4);
+			position += multiverseIdCount * 4L + MagicDeckFormat.values().length + 8;
+			isComplete = multiverseIdCount >= 0 && position <= dataLength;
+		}
+
+		for (int i = 0; isComplete && i < 3; i++)
+		{
+			isComplete = position + 2 <= dataLength;
+			if (isComplete)
+			{
+				position += getStringSize(dataBuffer, (int) position);
+				isComplete = position <= dataLength;
+			}
+		}
+
+		if (isComplete)
+		{
+			isComplete = position + 2 <= dataLength;
+		}
+
+		if (isComplete)
+		{
+			int setCount = dataBuffer.getShort((int) position);
+			position += 2;
+
+			for (int i = 0; isComplete && i < setCount; i++)
+			{
+				isComplete = position + 2 <= dataLength;
+				if (isComplete)
+				{
+					position += getStringSize(dataBuffer, (int) position);
+					isComplete = position <= dataLength;
+				}
+			}
+		}
+
+		return isComplete;
+	}
+
+	private void growIndex() throws IOException
+	{
+		rebuildIndex(indexSlotCount * 2);
+	}
+
+	private void rebuildIndex(int slotCount) throws IOException
+	{
+		int oldSlotCount = indexSlotCount;
+		int[] hashes = new int[indexUsedSlots];
+		int[] offsets = new int[indexUsedSlots];
+		int used = 0;
+
+		for (int slot = 0; slot < oldSlotCount; slot++)
+		{
+			if (getSlotOffset(slot) != 0)
+			{
+				hashes[used] = getSlotHash(slot);
+				offsets[used] = getSlotOffset(slot);
+				used++;
+			}
+		}
+
+		indexSlotCount = slotCount;
+		indexFile.setLength(INDEX_HEADER_SIZE + (long) indexSlotCount * INDEX_SLOT_SIZE);
+		indexBuffer = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+		indexBuffer.putInt(8, indexSlotCount);
+
+		for (int slot = 0; slot < indexSlotCount; slot++)
+		{
+			setSlot(slot, 0, 0);
+		}
+
+		for (int i = 0; i < used; i++)
+		{
+			int slot = (hashes[i] & Integer.MAX_VALUE) % indexSlotCount;
+			while (getSlotOffset(slot) != 0)
+			{
+				slot = (slot + 1) % indexSlotCount;
+			}
+			setSlot(slot, hashes[i], offsets[i]);
+		}
+		indexBuffer.putInt(12, used);
+	}
+
+	/**
+	 * Records are laid out as: name length (short), name (UTF-8), multiverse id count (int), multiverse ids (int), a byte
+	 * per deck format holding the ordinal of the legality restriction plus one, or zero if there is none, then the
+	 * validated time (long), request path, entity tag and last modified date of the page validators, and finally the
+	 * printed set count (short) and set names. Each of the strings is a length (short), or {@value #NO_STRING} if there
+	 * is none, followed by the UTF-8 string.
+	 */
+	private int appendRecord(byte[] nameBytes, MtgCardData cardData, Collection<String> printedSets, PageValidators validators) throws IOException
+	{
+		List<byte[]> printedSetBytes = new ArrayList<byte[]>();
+		int printedSetsSize = 2;
+		if (printedSets != null)
+		{
+			for (String setName : printedSets)
+			{
+				byte[] setNameBytes = encodeString(setName);
+				if (setNameBytes != null && printedSetBytes.size() < Short.MAX_VALUE)
+				{
+					printedSetBytes.add(setNameBytes);
+					printedSetsSize += getStringSize(setNameBytes);
+				}
+			}
+		}
+
+		MagicDeckFormat[] formats = MagicDeckFormat.values();
+		int[] multiverseIds = cardData.getMultiverseIds();
+		byte[] requestPathBytes = validators == null ? null : encodeString(validators.getRequestPath());
+		byte[] entityTagBytes = validators == null ? null : encodeString(validators.getEntityTag());
+		byte[] lastModifiedBytes = validators == null ? null : encodeString(validators.getLastModified());
+		int recordSize = 2 + nameBytes.length + 4 + multiverseIds.length * 4 + formats.length + 8 + getStringSize(requestPathBytes) + getStringSize(entityTagBytes)
+				+ getStringSize(lastModifiedBytes) + printedSetsSize;
+
+		if (dataLength + recordSize > Integer.MAX_VALUE)
+		{
+			throw new IOException("Legality store data file is full");
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(recordSize);
+		record.putShort((short) nameBytes.length);
+		record.put(nameBytes);
+		record.putInt(multiverseIds.length);
+		for (int multiverseId : multiverseIds)
+		{
+			record.putInt(multiverseId);
+		}
+
+		for (MagicDeckFormat deckFormat : formats)
+		{
+			MagicLegalityRestriction restriction = cardData.getFormatLegality(deckFormat);
+			record.put(restriction == null ? NO_LEGALITY : (byte) (restriction.ordinal() + 1));
+		}
+
+		record.putLong(validators == null ? 0 : validators.getValidatedTimeMillis());
+		putString(record, requestPathBytes);
+		putString(record, entityTagBytes);
+		putString(record, lastModifiedBytes);
+
+		record.putShort((short) printedSetBytes.size());
+		for (byte[] setNameBytes : printedSetBytes)
+		{
+			putString(record, setNameBytes);
+		}
+		record.flip();
+
+		int recordOffset = (int) dataLength;
+		while (record.hasRemaining())
+		{
+			dataChannel.write(record, dataLength + record.position());
+		}
+		dataLength += recordSize;
+
+		return recordOffset;
+	}
+
+	private MtgCardData readRecord(String cardName, int recordOffset) throws IOException
+	{
+		ByteBuffer data = getDataBuffer(recordOffset);
+		int position = recordOffset + 2 + data.getShort(recordOffset);
+
+		int[] multiverseIds = new int[data.getInt(position)];
+		position += 4;
+
+		for (int i = 0; i < multiverseIds.length; i++)
+		{
+			multiverseIds[i] = data.getInt(position);
+			position += 4;
+		}
+
+		Map<MagicDeckFormat, MagicLegalityRestriction> cardLegality = new EnumMap<MagicDeckFormat, MagicLegalityRestriction>(MagicDeckFormat.class);
+		MagicLegalityRestriction[] restrictions = MagicLegalityRestriction.values();
+		for (MagicDeckFormat deckFormat : MagicDeckFormat.values())
+		{
+			byte legality = data.get(position++);
+			if (legality != NO_LEGALITY)
+			{
+				cardLegality.put(deckFormat, restrictions[legality - 1]);
+			}
+		}
+
+		return new MtgCardData(cardName, multiverseIds, cardLegality);
+	}
+
+	/**
+	 * @return The position of the validated time in the record at the given offset
+	 */
+	private int getValidatorsPosition(ByteBuffer data, int recordOffset)
+	{
+		int position = recordOffset + 2 + data.getShort(recordOffset);
+
+		return position + 4 + data.getInt(position) * 4 + MagicDeckFormat.values().length;
+	}
+
+	private void putString(ByteBuffer record, byte[] stringBytes)
+	{
+		if (stringBytes == null)
+		{
+			record.putShort(NO_STRING);
+		}
+		else
+		{
+			record.putShort((short) stringBytes.length);
+			record.put(stringBytes);
+		}
+	}
+
+	private String readString(ByteBuffer data, int position) throws UnsupportedEncodingException
+	{
+		String string = null;
+		short length = data.getShort(position);
+
+		if (length != NO_STRING)
+		{
+			byte[] stringBytes = new byte[length];
+			for (int i = 0; i < length; i++)
+			{
+				stringBytes[i] = data.get(position + 2 + i);
+			}
+			string = new String(stringBytes, "UTF-8");
+		}
+
+		return string;
+	}
+
+	private int getStringSize(ByteBuffer data, int position)
+	{
+		return 2 + Math.max(0, data.getShort(position));
+	}
+
+	private int getStringSize(byte[] stringBytes)
+	{
+		return 2 + (stringBytes == null ? 0 : stringBytes.length);
+	}
+
+	/**
+	 * @return The UTF-8 encoding of the string, or {@code null} if it is {@code null} or too long to be stored
+	 */
+	private byte[] encodeString(String string) throws UnsupportedEncodingException
+	{
+		byte[] stringBytes = string == null ? null : string.getBytes("UTF-8");
+
+		return stringBytes == null || stringBytes.length > Short.MAX_VALUE ? null : stringBytes;
+	}
+
+	private boolean isRecordForName(int recordOffset, byte[] nameBytes) throws IOException
+	{
+		ByteBuffer data = getDataBuffer(recordOffset);
+		boolean isForName = data.getShort(recordOffset) == nameBytes.length;
+
+		for (int i = 0; isForName && i < nameBytes.length; i++)
+		{
+			isForName = data.get(recordOffset + 2 + i) == nameBytes[i];
+		}
+
+		return isForName;
+	}
+
+	/**
+	 * Gets the mapped data buffer, re-mapping the data file if the requested record has been appended since the last
+	 * mapping. Lookups holding the read lock may re-map at the same time, which is harmless as the data length only
+	 * changes under the write lock, so each of them maps the same length.
+	 */
+	private ByteBuffer getDataBuffer(int recordOffset) throws IOException
+	{
+		MappedByteBuffer data = dataBuffer;
+
+		if (recordOffset >= data.capacity())
+		{
+			data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+			dataBuffer = data;
+		}
+
+		return data;
+	}
+
+	private byte[] encodeName(String cardName) throws UnsupportedEncodingException
+	{
+		return cardName.getBytes("UTF-8");
+	}
+}